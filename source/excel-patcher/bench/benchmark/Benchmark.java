@@ -0,0 +1,92 @@
+package benchmark;
+
+import java.io.File;
+
+/**
+ * A single benchmark run by the BenchmarkRunner. Each iteration is prepared by
+ * setUp, which is not timed, then timed while run is called.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public abstract class Benchmark {
+	/** Results of the benchmarks are folded in here so the JIT cannot drop them */
+	private static volatile long sink = 0;
+	
+	/** Name of the benchmark, used in the report */
+	private String name;
+	/** Name of the operations the benchmark counts, used in the report */
+	private String unit;
+	/** If the benchmark loads the whole workbook into memory */
+	private boolean inMemory;
+
+	/**
+	 * Creates a new benchmark
+	 *
+	 * @param name of the benchmark
+	 * @param unit name of the operations that run counts, like "rows" or "cells"
+	 * @param inMemory if the benchmark loads the whole workbook into memory
+	 */
+	protected Benchmark(String name, String unit, boolean inMemory){
+		this.name = name;
+		this.unit = unit;
+		this.inMemory = inMemory;
+	}
+
+	/**
+	 * Prepares the next iteration of the benchmark. This is not timed.
+	 *
+	 * @param input generated xlsx file to benchmark against
+	 * @param formatFilePath of the format file to check with
+	 * @throws Exception if the iteration could not be prepared
+	 */
+	public abstract void setUp(File input, String formatFilePath) throws Exception;
+
+	/**
+	 * Runs one timed iteration of the benchmark.
+	 *
+	 * @return the number of operations performed
+	 * @throws Exception if the iteration failed
+	 */
+	public abstract long run() throws Exception;
+
+	/**
+	 * Releases anything held by the last iteration. This is not timed.
+	 */
+	public void tearDown(){
+	}
+
+	/**
+	 * Keeps a result of a benchmark alive, so the work that produced it
+	 * cannot be optimized away.
+	 *
+	 * @param result to keep
+	 */
+	public static void consume(long result){
+		sink ^= result;
+	}
+
+	/**
+	 * Returns the name of the benchmark
+	 * @return the name of the benchmark
+	 */
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * Returns the name of the operations the benchmark counts
+	 * @return the name of the operations the benchmark counts
+	 */
+	public String getUnit(){
+		return unit;
+	}
+
+	/**
+	 * Returns if the benchmark loads the whole workbook into memory
+	 * @return if the benchmark loads the whole workbook into memory
+	 */
+	public boolean isInMemory(){
+		return inMemory;
+	}
+}
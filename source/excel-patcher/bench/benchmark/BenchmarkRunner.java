@@ -0,0 +1,376 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Workbook;
+
+import patcher.EngineBenchmarks;
+import patcher.StreamingPatcher;
+import patcher.format.DecimalBenchmarks;
+import patcher.format.FormatData;
+import settings.Settings;
+import settings.Settings.BooleanSetting;
+import utils.FileManager;
+import utils.Logger;
+import utils.Logger.LogLevel;
+
+/**
+ * Runs the benchmarks of the checking engine against generated workbooks and
+ * prints the time, throughput, allocation rate and garbage collection of each.
+ * Allocation is counted on the benchmark's thread, which is where all of the
+ * benchmarks do their work.
+ * <p>
+ * Run it from the excel-patcher directory with src, bench and lib on the
+ * classpath, for example
+ * <pre>
+ * java -Xmx8g -cp bin:lib/* benchmark.BenchmarkRunner --format ../../samples/NCCOB-format.txt
+ * </pre>
+ * Options are --format path, --rows 1000,100000,1000000, --warmup count,
+ * --iterations count, --max-in-memory-rows count and --only name,name. Benchmarks
+ * that load the whole workbook are skipped for sizes above the in-memory limit.
+ * The current settings file decides if cells are colored, commented on and deleted.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class BenchmarkRunner {
+	/** Format file used when none is given */
+	private static final String DEFAULT_FORMAT_FILE_PATH = "../../samples/NCCOB-format.txt";
+
+	/** Format file to check with */
+	private String formatFilePath = DEFAULT_FORMAT_FILE_PATH;
+	/** Numbers of rows of the generated workbooks */
+	private int[] rowCounts = new int[]{1000, 100000, 1000000};
+	/** Untimed iterations run before measuring */
+	private int warmupIterations = 1;
+	/** Timed iterations */
+	private int iterations = 3;
+	/** Largest workbook that benchmarks load into memory */
+	private int maxInMemoryRows = 100000;
+	/** Names of the benchmarks to run, or null for all of them */
+	private List<String> only = null;
+
+	/** Used to count the bytes allocated by the benchmark thread */
+	private com.sun.management.ThreadMXBean allocationCounter = null;
+
+	/**
+	 * Runs the benchmarks
+	 *
+	 * @param args see the class description
+	 * @throws IOException if the workbooks could not be generated
+	 */
+	public static void main(String[] args) throws IOException {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		if ( !runner.readArguments(args) ){
+			System.out.println("Usage: BenchmarkRunner [--format path] [--rows 1000,100000]"
+					+" [--warmup count] [--iterations count] [--max-in-memory-rows count]"
+					+" [--only name,name]");
+			return;
+		}
+		runner.run();
+	}
+
+	/**
+	 * Reads the command line arguments. Returns if they were valid.
+	 *
+	 * @param args to read
+	 * @return if the arguments were valid
+	 */
+	private boolean readArguments(String[] args){
+		if ( args.length % 2 != 0 ){
+			return false;
+		}
+		try {
+			for ( int i = 0 ; i < args.length ; i += 2 ){
+				String value = args[i+1];
+				if ( args[i].equals("--format") ){
+					formatFilePath = value;
+				} else if ( args[i].equals("--rows") ){
+					String[] counts = value.split(",");
+					rowCounts = new int[counts.length];
+					for ( int j = 0 ; j < counts.length ; j++ ){
+						rowCounts[j] = Integer.parseInt(counts[j].trim());
+					}
+				} else if ( args[i].equals("--warmup") ){
+					warmupIterations = Integer.parseInt(value);
+				} else if ( args[i].equals("--iterations") ){
+					iterations = Integer.parseInt(value);
+				} else if ( args[i].equals("--max-in-memory-rows") ){
+					maxInMemoryRows = Integer.parseInt(value);
+				} else if ( args[i].equals("--only") ){
+					only = Arrays.asList(value.split(","));
+				} else {
+					return false;
+				}
+			}
+		} catch ( NumberFormatException e ){
+			return false;
+		}
+		return iterations > 0 && warmupIterations >= 0;
+	}
+
+	/**
+	 * Generates the workbooks and runs every benchmark against each of them
+	 *
+	 * @throws IOException if the workbooks could not be generated
+	 */
+	private void run() throws IOException {
+		//The checker logs every save and format problem, which would drown the report
+		Logger.setVerbosity(Logger.getDefaultLoggerName(), LogLevel.NONE);
+		Logger.setVerbosity("Error", LogLevel.NONE);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if ( threads instanceof com.sun.management.ThreadMXBean ){
+			com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+			if ( counter.isThreadAllocatedMemorySupported() ){
+				counter.setThreadAllocatedMemoryEnabled(true);
+				allocationCounter = counter;
+			}
+		}
+
+		System.out.println("Format file: "+formatFilePath);
+		System.out.println("Settings: color="+Settings.getSetting(BooleanSetting.COLOR)
+				+" comment="+Settings.getSetting(BooleanSetting.COMMENT)
+				+" delete="+Settings.getSetting(BooleanSetting.DELETE));
+		System.out.println("Warmup iterations: "+warmupIterations+", measured iterations: "+iterations);
+		if ( allocationCounter == null ){
+			System.out.println("Allocation counting is not supported by this JVM");
+		}
+
+		List<Benchmark> benchmarks = createBenchmarks();
+		FormatData formatData = new FormatData(formatFilePath);
+		for ( int rowCount : rowCounts ){
+			File input = File.createTempFile("bench-"+rowCount+"-", ".xlsx");
+			input.deleteOnExit();
+			System.out.println();
+			System.out.println("Generating "+rowCount+" rows");
+			if ( !WorkbookGenerator.generate(formatData, rowCount, input) ){
+				System.out.println("Could not write the generated workbook to "+input);
+				continue;
+			}
+
+			for ( Benchmark benchmark : benchmarks ){
+				if ( benchmark.isInMemory() && rowCount > maxInMemoryRows ){
+					System.out.println(String.format("%-16s rows=%-8d skipped, above the in-memory limit of %d rows",
+							benchmark.getName(), rowCount, maxInMemoryRows));
+					continue;
+				}
+				measure(benchmark, input, rowCount);
+			}
+			input.delete();
+		}
+	}
+
+	/**
+	 * Returns the benchmarks to run
+	 * @return the benchmarks to run
+	 */
+	private List<Benchmark> createBenchmarks(){
+		List<Benchmark> all = new ArrayList<Benchmark>();
+		all.add(EngineBenchmarks.patchAllLoans());
+		all.add(EngineBenchmarks.cleanOutput());
+		all.add(EngineBenchmarks.checkCellFormat());
+		all.add(EngineBenchmarks.conditions());
+		all.add(EngineBenchmarks.numberTypes());
+		all.add(EngineBenchmarks.numberTypeColumns());
+		all.add(DecimalBenchmarks.decimalStrings());
+		all.add(DecimalBenchmarks.decimalDigits());
+		all.add(loadSave());
+		all.add(streaming());
+
+		if ( only == null ){
+			return all;
+		}
+		List<Benchmark> selected = new ArrayList<Benchmark>();
+		for ( Benchmark benchmark : all ){
+			if ( only.contains(benchmark.getName()) ){
+				selected.add(benchmark);
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Runs the warmup and measured iterations of a benchmark and prints the result
+	 *
+	 * @param benchmark to run
+	 * @param input generated workbook to run against
+	 * @param rowCount number of rows in the input
+	 */
+	private void measure(Benchmark benchmark, File input, int rowCount){
+		try {
+			for ( int i = 0 ; i < warmupIterations ; i++ ){
+				benchmark.setUp(input, formatFilePath);
+				benchmark.run();
+				benchmark.tearDown();
+			}
+
+			long totalNanos = 0;
+			long totalOps = 0;
+			long totalBytes = 0;
+			long gcCount = 0;
+			long gcMillis = 0;
+			for ( int i = 0 ; i < iterations ; i++ ){
+				benchmark.setUp(input, formatFilePath);
+
+				long gcCountBefore = getCollectionCount();
+				long gcMillisBefore = getCollectionTime();
+				long bytesBefore = getAllocatedBytes();
+				long start = System.nanoTime();
+				long ops = benchmark.run();
+				long nanos = System.nanoTime() - start;
+				long bytes = getAllocatedBytes() - bytesBefore;
+				gcCount += getCollectionCount() - gcCountBefore;
+				gcMillis += getCollectionTime() - gcMillisBefore;
+
+				benchmark.tearDown();
+				totalNanos += nanos;
+				totalOps += ops;
+				totalBytes += bytes;
+			}
+
+			double millisPerIteration = totalNanos / 1e6 / iterations;
+			double opsPerSecond = totalOps / (totalNanos / 1e9);
+			String allocation = allocationCounter == null ? "n/a" :
+				String.format("%.0f B/%s, %.1f MB/s", totalBytes / (double) totalOps,
+						singular(benchmark.getUnit()), totalBytes / 1e6 / (totalNanos / 1e9));
+			System.out.println(String.format("%-16s rows=%-8d %10.1f ms/iter %12.1f %s/s   %s   gc %d (%d ms)",
+					benchmark.getName(), rowCount, millisPerIteration, opsPerSecond,
+					benchmark.getUnit(), allocation, gcCount, gcMillis));
+		} catch ( Exception e ){
+			benchmark.tearDown();
+			System.out.println(String.format("%-16s rows=%-8d failed: %s",
+					benchmark.getName(), rowCount, e));
+		} catch ( OutOfMemoryError e ){
+			benchmark.tearDown();
+			System.out.println(String.format("%-16s rows=%-8d ran out of memory, try a larger -Xmx"
+					+" or a lower --max-in-memory-rows", benchmark.getName(), rowCount));
+		}
+	}
+
+	// ####################################################
+	// ### File benchmarks
+	// ####################################################
+	/**
+	 * Returns a benchmark of loading a workbook and saving it again
+	 * @return a benchmark of loading and saving
+	 */
+	private static Benchmark loadSave(){
+		return new Benchmark("loadSave", "rows", true){
+			private File input;
+			private File output;
+
+			@Override
+			public void setUp(File input, String formatFilePath) throws IOException {
+				this.input = input;
+				output = File.createTempFile("bench-output-", ".xlsx");
+			}
+
+			@Override
+			public long run(){
+				Workbook workbook = FileManager.loadExcelFile(input.getPath());
+				FileManager.saveExcelFile(output.getPath(), workbook);
+				return workbook.getSheetAt(0).getLastRowNum();
+			}
+
+			@Override
+			public void tearDown(){
+				if ( output != null ){
+					output.delete();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns a benchmark of checking a file in streaming mode, from reading the
+	 * input to saving the output
+	 * @return a benchmark of streaming checks
+	 */
+	private static Benchmark streaming(){
+		return new Benchmark("streaming", "rows", false){
+			private File input;
+			private File output;
+			private FormatData formatData;
+
+			@Override
+			public void setUp(File input, String formatFilePath) throws IOException {
+				this.input = input;
+				output = File.createTempFile("bench-output-", ".xlsx");
+				formatData = new FormatData(formatFilePath);
+			}
+
+			@Override
+			public long run(){
+				Workbook workbook = FileManager.createStreamingWorkbook();
+				StreamingPatcher.patchFile(input.getPath(), workbook, formatData);
+				long rows = workbook.getSheetAt(0).getLastRowNum();
+				FileManager.saveExcelFile(output.getPath(), workbook);
+				return rows;
+			}
+
+			@Override
+			public void tearDown(){
+				if ( output != null ){
+					output.delete();
+				}
+			}
+		};
+	}
+
+	// ####################################################
+	// ### Measurement helpers
+	// ####################################################
+	/**
+	 * Returns the bytes allocated by the current thread so far, or 0 if they
+	 * cannot be counted
+	 * @return the bytes allocated by the current thread
+	 */
+	private long getAllocatedBytes(){
+		if ( allocationCounter == null ){
+			return 0;
+		}
+		return allocationCounter.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Returns the total number of garbage collections so far
+	 * @return the total number of garbage collections
+	 */
+	private static long getCollectionCount(){
+		long count = 0;
+		for ( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() ){
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the total time spent in garbage collection so far, in milliseconds
+	 * @return the total time spent in garbage collection
+	 */
+	private static long getCollectionTime(){
+		long time = 0;
+		for ( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() ){
+			time += Math.max(0, collector.getCollectionTime());
+		}
+		return time;
+	}
+
+	/**
+	 * Returns the singular of a unit name, like "row" for "rows"
+	 *
+	 * @param unit to get the singular of
+	 * @return the singular of the unit
+	 */
+	private static String singular(String unit){
+		return unit.endsWith("s") ? unit.substring(0, unit.length()-1) : unit;
+	}
+}
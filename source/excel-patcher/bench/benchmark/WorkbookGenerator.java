@@ -0,0 +1,123 @@
+package benchmark;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import patcher.format.ColumnFormatData;
+import patcher.format.DataType;
+import patcher.format.FormatData;
+import utils.FileManager;
+
+/**
+ * Generates input workbooks for the benchmarks from a format file. Every
+ * column of the format gets a header, and every row is filled with values of
+ * the column's data type. A few cells are left blank or given invalid values
+ * so that the comment and fill paths are exercised too. The values come from
+ * a fixed seed, so the same arguments always produce the same workbook.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class WorkbookGenerator {
+	/** Seed for the generated values */
+	private static final long SEED = 20150623L;
+	/** Fraction of cells that are left blank */
+	private static final double BLANK_RATE = 0.05;
+	/** Fraction of cells that are given a value of the wrong type */
+	private static final double INVALID_RATE = 0.02;
+	/** Value given to invalid cells */
+	private static final String INVALID_VALUE = "Invalid value";
+
+	/**
+	 * Suppress default constructor
+	 */
+	private WorkbookGenerator(){
+	}
+
+	/**
+	 * Writes an xlsx file with a header row and rowCount rows for the columns of
+	 * the format data. The workbook is written with a streaming workbook, so
+	 * very large files can be generated in little memory.
+	 *
+	 * @param formatData to generate the columns from
+	 * @param rowCount number of rows below the header row
+	 * @param file to write the workbook to
+	 * @return if the file was written successfully
+	 */
+	public static boolean generate(FormatData formatData, int rowCount, File file){
+		Workbook workbook = FileManager.createStreamingWorkbook();
+		Sheet sheet = workbook.createSheet("Loans");
+		CellStyle dateStyle = workbook.createCellStyle();
+		dateStyle.setDataFormat(workbook.getCreationHelper()
+				.createDataFormat().getFormat("m/d/yy"));
+
+		ColumnFormatData[] formats = new ColumnFormatData[formatData.getNumColumns()];
+		Row header = sheet.createRow(0);
+		int columnIndex = 0;
+		for ( String title : formatData.getColumnTitles() ){
+			formats[columnIndex] = formatData.getColumnFormat(title);
+			header.createCell(columnIndex).setCellValue(title);
+			columnIndex++;
+		}
+
+		Random random = new Random(SEED);
+		Calendar calendar = Calendar.getInstance();
+		for ( int rowIndex = 1 ; rowIndex <= rowCount ; rowIndex++ ){
+			Row row = sheet.createRow(rowIndex);
+			for ( int i = 0 ; i < formats.length ; i++ ){
+				double roll = random.nextDouble();
+				if ( roll < BLANK_RATE ){
+					continue;
+				}
+				Cell cell = row.createCell(i);
+				if ( roll < BLANK_RATE + INVALID_RATE ){
+					cell.setCellValue(INVALID_VALUE);
+					continue;
+				}
+				fillCell(cell, formats[i].getType(), random, calendar, dateStyle, rowIndex);
+			}
+		}
+
+		return FileManager.saveExcelFile(file.getPath(), workbook);
+	}
+
+	/**
+	 * Fills the cell with a random valid value for the data type
+	 *
+	 * @param cell to fill
+	 * @param type of the cell's column, may be null
+	 * @param random to pick values with
+	 * @param calendar to build dates with
+	 * @param dateStyle to give date cells
+	 * @param rowIndex of the cell, used for string values
+	 */
+	private static void fillCell(Cell cell, DataType type, Random random, Calendar calendar,
+			CellStyle dateStyle, int rowIndex){
+		String typeName = type == null ? "String" : type.getTypeName();
+		if ( typeName.equals("Integer") ){
+			cell.setCellValue(random.nextInt(1000000));
+		} else if ( typeName.equals("Decimal") ){
+			cell.setCellValue(random.nextInt(1000000) / 100.0);
+		} else if ( typeName.equals("Boolean") ){
+			cell.setCellValue(String.valueOf(random.nextBoolean()));
+		} else if ( typeName.equals("Date") ){
+			calendar.clear();
+			calendar.set(2010 + random.nextInt(6), random.nextInt(12), 1 + random.nextInt(28));
+			cell.setCellValue(calendar.getTime());
+			cell.setCellStyle(dateStyle);
+		} else if ( typeName.equals("Enumerable") ){
+			List<String> values = type.getEnumValueList();
+			cell.setCellValue(values.get(random.nextInt(values.size())));
+		} else {
+			cell.setCellValue("S"+(rowIndex % 100000));
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package patcher;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import benchmark.Benchmark;
+import patcher.format.DataType;
+import patcher.format.FormatData;
+import utils.FileManager;
+
+/**
+ * Benchmarks of the checking engine. They live in the patcher package so they
+ * can reach the evaluation plan and single cell checks. Every iteration loads
+ * a fresh copy of the input workbook, since checking changes it.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class EngineBenchmarks {
+	/**
+	 * Suppress default constructor
+	 */
+	private EngineBenchmarks(){
+	}
+
+	/**
+	 * Returns a benchmark of ExcelChecker.patchAllLoans on a single thread
+	 * @return a benchmark of patchAllLoans
+	 */
+	public static Benchmark patchAllLoans(){
+		return new CheckerBenchmark("patchAllLoans", "rows"){
+			@Override
+			public long run(){
+				checker.patchAllLoans();
+				return sheetData.getLoanRowIndexes().size();
+			}
+		};
+	}
+
+	/**
+	 * Returns a benchmark of ExcelChecker.cleanOutput on an already checked
+	 * workbook, so there are colored cells to clean
+	 * @return a benchmark of cleanOutput
+	 */
+	public static Benchmark cleanOutput(){
+		return new CheckerBenchmark("cleanOutput", "rows"){
+			@Override
+			public void setUp(File input, String formatFilePath){
+				super.setUp(input, formatFilePath);
+				checker.patchAllLoans();
+			}
+
+			@Override
+			public long run(){
+				checker.cleanOutput();
+				return sheetData.getLoanRowIndexes().size();
+			}
+		};
+	}
+
+	/**
+	 * Returns a benchmark of ExcelChecker.checkCellFormat on every checked cell,
+	 * one cell at a time and without patching
+	 * @return a benchmark of checkCellFormat
+	 */
+	public static Benchmark checkCellFormat(){
+		return new CheckerBenchmark("checkCellFormat", "cells"){
+			@Override
+			public long run(){
+				long cells = 0;
+				long errors = 0;
+				for ( int rowIndex : sheetData.getLoanRowIndexes() ){
+					Row row = sheet.getRow(rowIndex);
+					RowContext context = new RowContext(row, sheetData);
+					for ( int i = 0 ; i < plan.size() ; i++ ){
+						Cell cell = ExcelUtils.getSafeCell(row, plan.columnIndexes[i]);
+						Vector<String> cellErrors = checker.checkCellFormat(context, cell, plan.formats[i]);
+						errors += cellErrors.size();
+						cells++;
+					}
+				}
+				Benchmark.consume(errors);
+				return cells;
+			}
+		};
+	}
+
+	/**
+	 * Returns a benchmark of evaluating the Required and Value specifications
+	 * of every column in every row
+	 * @return a benchmark of conditional evaluation
+	 */
+	public static Benchmark conditions(){
+		return new CheckerBenchmark("conditions", "rows"){
+			@Override
+			public long run(){
+				long rows = 0;
+				long trues = 0;
+				for ( int rowIndex : sheetData.getLoanRowIndexes() ){
+					Row row = sheet.getRow(rowIndex);
+					RowContext context = new RowContext(row, sheetData);
+					for ( int i = 0 ; i < plan.size() ; i++ ){
+						if ( plan.formats[i].isRequired(context) ){
+							trues++;
+						}
+						if ( plan.formats[i].getValue(context) != null ){
+							trues++;
+						}
+					}
+					rows++;
+				}
+				Benchmark.consume(trues);
+				return rows;
+			}
+		};
+	}
+
+	/**
+	 * Returns a benchmark of checking the data type of every number in the
+	 * Integer and Decimal columns a cell at a time, as the checks do without a
+	 * snapshot
+	 * @return a benchmark of DataType.checkCell on numbers
+	 */
+	public static Benchmark numberTypes(){
+		return new NumberTypeBenchmark("numberTypes"){
+			@Override
+			public long run(){
+				long cells = 0;
+				long valid = 0;
+				for ( int i = 0 ; i < types.size() ; i++ ){
+					DataType type = types.get(i);
+					for ( Cell cell : numericCells.get(i) ){
+						if ( type.checkCell(cell) ){
+							valid++;
+						}
+						cells++;
+					}
+				}
+				Benchmark.consume(valid);
+				return cells;
+			}
+		};
+	}
+
+	/**
+	 * Returns a benchmark of checking the data type of every number in the
+	 * Integer and Decimal columns a column at a time, as the snapshot does
+	 * @return a benchmark of DataType.checkNumbers
+	 */
+	public static Benchmark numberTypeColumns(){
+		return new NumberTypeBenchmark("numberTypeColumns"){
+			@Override
+			public long run(){
+				long cells = 0;
+				long valid = 0;
+				for ( int i = 0 ; i < types.size() ; i++ ){
+					double[] column = numbers.get(i);
+					boolean[] results = new boolean[column.length];
+					types.get(i).checkNumbers(column, results);
+					for ( boolean result : results ){
+						if ( result ){
+							valid++;
+						}
+					}
+					cells += column.length;
+				}
+				Benchmark.consume(valid);
+				return cells;
+			}
+		};
+	}
+
+	/**
+	 * Base for the benchmarks that need a loaded workbook and a checker for it
+	 */
+	private static abstract class CheckerBenchmark extends Benchmark {
+		/** Sheet being checked */
+		protected Sheet sheet;
+		/** Sheet data of the sheet being checked */
+		protected SheetData sheetData;
+		/** Checker of the workbook */
+		protected ExcelChecker checker;
+		/** Evaluation plan matching the checker's */
+		protected EvaluationPlan plan;
+
+		/**
+		 * Creates a new checker benchmark
+		 *
+		 * @param name of the benchmark
+		 * @param unit name of the operations the benchmark counts
+		 */
+		protected CheckerBenchmark(String name, String unit){
+			super(name, unit, true);
+		}
+
+		@Override
+		public void setUp(File input, String formatFilePath){
+			Workbook workbook = FileManager.loadExcelFile(input.getPath());
+			FormatData formatData = new FormatData(formatFilePath);
+			checker = new ExcelChecker(workbook, formatData);
+			sheet = workbook.getSheetAt(0);
+			sheetData = new SheetData(sheet);
+			plan = new EvaluationPlan(formatData, sheetData);
+		}
+
+		@Override
+		public void tearDown(){
+			sheet = null;
+			sheetData = null;
+			checker = null;
+			plan = null;
+		}
+	}
+
+	/**
+	 * Base for the benchmarks of number data type checks. Set up finds the
+	 * numeric cells of every Integer and Decimal column and copies their values,
+	 * so only the checks themselves are timed.
+	 */
+	private static abstract class NumberTypeBenchmark extends CheckerBenchmark {
+		/** Data type of each numeric column */
+		protected List<DataType> types;
+		/** Numeric cells of each numeric column that are not dates */
+		protected List<List<Cell>> numericCells;
+		/** Values of the numeric cells of each numeric column */
+		protected List<double[]> numbers;
+
+		/**
+		 * Creates a new number data type benchmark
+		 * @param name of the benchmark
+		 */
+		protected NumberTypeBenchmark(String name){
+			super(name, "cells");
+		}
+
+		@Override
+		public void setUp(File input, String formatFilePath){
+			super.setUp(input, formatFilePath);
+			types = new ArrayList<DataType>();
+			numericCells = new ArrayList<List<Cell>>();
+			numbers = new ArrayList<double[]>();
+			for ( int i = 0 ; i < plan.size() ; i++ ){
+				DataType type = plan.formats[i].getType();
+				if ( type == null || !( "Integer".equals(type.getTypeName())
+						|| "Decimal".equals(type.getTypeName()) ) ){
+					continue;
+				}
+				List<Cell> column = new ArrayList<Cell>();
+				for ( int rowIndex : sheetData.getLoanRowIndexes() ){
+					Cell cell = sheet.getRow(rowIndex).getCell(plan.columnIndexes[i]);
+					if ( cell != null && cell.getCellType() == Cell.CELL_TYPE_NUMERIC
+							&& !DateUtil.isCellDateFormatted(cell) ){
+						column.add(cell);
+					}
+				}
+				double[] values = new double[column.size()];
+				for ( int j = 0 ; j < values.length ; j++ ){
+					values[j] = column.get(j).getNumericCellValue();
+				}
+				types.add(type);
+				numericCells.add(column);
+				numbers.add(values);
+			}
+		}
+
+		@Override
+		public void tearDown(){
+			super.tearDown();
+			types = null;
+			numericCells = null;
+			numbers = null;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package patcher.format;
+
+import java.io.File;
+import java.util.Random;
+
+import benchmark.Benchmark;
+
+/**
+ * Benchmarks of the Decimal data type's precision check and truncation. They
+ * live in the patcher.format package so they can reach the Decimal lengths
+ * and digit counting of DataType. The string based check the data type used
+ * before counting digits is kept here to benchmark against, and set up checks
+ * that both give the same answers for every number written without an
+ * exponent, so a benchmark fails rather than timing a wrong answer.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class DecimalBenchmarks {
+	/** Number of numbers each iteration checks and truncates */
+	private static final int NUMBER_COUNT = 1000000;
+	/** Decimal types the numbers are checked against */
+	private static final String[] DECIMAL_TYPES = new String[]
+			{"Decimal(3,1)", "Decimal(5,2)", "Decimal(12,2)", "Decimal(10,4)", "Decimal(16,8)", "Decimal(20,17)"};
+	/** Seed of the generated numbers, so every run checks the same ones */
+	private static final long SEED = 20150612L;
+
+	/**
+	 * Suppress default constructor
+	 */
+	private DecimalBenchmarks(){
+	}
+
+	/**
+	 * Returns a benchmark of checking and truncating numbers by writing them
+	 * out and splitting them at the decimal point
+	 * @return a benchmark of the string based Decimal check
+	 */
+	public static Benchmark decimalStrings(){
+		return new DecimalBenchmark("decimalStrings"){
+			@Override
+			public long run(){
+				long valid = 0;
+				for ( DataType type : types ){
+					for ( double number : numbers ){
+						if ( isValidByString(type, number) ){
+							valid++;
+						}
+						valid += Double.doubleToLongBits(truncateByString(type, number)) & 1;
+					}
+				}
+				Benchmark.consume(valid);
+				return (long) types.length*numbers.length;
+			}
+		};
+	}
+
+	/**
+	 * Returns a benchmark of checking and truncating numbers by counting their
+	 * digits, as DataType does
+	 * @return a benchmark of DataType's Decimal check
+	 */
+	public static Benchmark decimalDigits(){
+		return new DecimalBenchmark("decimalDigits"){
+			@Override
+			public long run(){
+				long valid = 0;
+				for ( DataType type : types ){
+					for ( double number : numbers ){
+						if ( type.isValidDecimal(number) ){
+							valid++;
+						}
+						valid += Double.doubleToLongBits(type.truncateDecimal(number)) & 1;
+					}
+				}
+				Benchmark.consume(valid);
+				return (long) types.length*numbers.length;
+			}
+		};
+	}
+
+	/**
+	 * Checks a number that is not whole against the Decimal lengths the way
+	 * DataType did before it counted digits
+	 *
+	 * @param type of the column
+	 * @param number to check
+	 * @return if the number fits the Decimal lengths
+	 */
+	private static boolean isValidByString(DataType type, double number){
+		String asString = String.valueOf(number);
+		String[] split = asString.split("\\.");
+		return asString.length() <= type.totalLength+1 && split[1].length() <= type.decimalLength;
+	}
+
+	/**
+	 * Truncates a number to the Decimal lengths the way DataType.fixDataType
+	 * did before it counted digits
+	 *
+	 * @param type of the column
+	 * @param number to truncate
+	 * @return the truncated number
+	 */
+	private static double truncateByString(DataType type, double number){
+		String str = String.valueOf(number);
+		String[] arr = str.split("\\.");
+		if ( arr.length == 2 ){
+			int totalLength = str.length();
+			int decimalLength = arr[1].length();
+			int toCut = Math.max(totalLength - type.totalLength, decimalLength - type.decimalLength);
+			if ( toCut > 0 ){
+				if ( toCut <= decimalLength ){
+					return Double.parseDouble(arr[0]+"."+arr[1].substring(0, decimalLength-toCut));
+				} else if ( arr[0].length() <= type.totalLength ){
+					return Double.parseDouble(arr[0]);
+				}
+			}
+		}
+		return number;
+	}
+
+	/**
+	 * Base for the Decimal benchmarks. Set up generates numbers that are not
+	 * whole and are written without an exponent, some with a few decimal places
+	 * like amounts and rates and some with all seventeen digits, then checks
+	 * that counting digits and splitting strings agree on all of them.
+	 */
+	private static abstract class DecimalBenchmark extends Benchmark {
+		/** Decimal types to check against */
+		protected DataType[] types;
+		/** Numbers to check */
+		protected double[] numbers;
+
+		/**
+		 * Creates a new Decimal benchmark
+		 * @param name of the benchmark
+		 */
+		protected DecimalBenchmark(String name){
+			super(name, "checks", false);
+		}
+
+		@Override
+		public void setUp(File input, String formatFilePath){
+			types = new DataType[DECIMAL_TYPES.length];
+			for ( int i = 0 ; i < types.length ; i++ ){
+				types[i] = new DataType(DECIMAL_TYPES[i]);
+			}
+
+			Random random = new Random(SEED);
+			numbers = new double[NUMBER_COUNT];
+			int count = 0;
+			while ( count < numbers.length ){
+				double number = Math.pow(10, random.nextInt(10)-3)*(1+random.nextDouble()*9);
+				if ( random.nextBoolean() ){
+					double power = Math.pow(10, random.nextInt(12));
+					number = Math.round(number*power)/power;
+				}
+				if ( number < 1e-3 || number >= 1e7 || number == Math.floor(number) ){
+					continue;
+				}
+				numbers[count++] = random.nextBoolean() ? -number : number;
+			}
+
+			for ( DataType type : types ){
+				for ( double number : numbers ){
+					if ( type.isValidDecimal(number) != isValidByString(type, number) ){
+						throw new IllegalStateException(type+" check differs for "+number);
+					}
+					if ( Double.doubleToLongBits(type.truncateDecimal(number))
+							!= Double.doubleToLongBits(truncateByString(type, number)) ){
+						throw new IllegalStateException(type+" truncation differs for "+number);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void tearDown(){
+			types = null;
+			numbers = null;
+		}
+	}
+}
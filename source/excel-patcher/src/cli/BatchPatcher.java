@@ -0,0 +1,414 @@
+package cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import patcher.FilePatcher;
+import patcher.FindingsReport;
+import patcher.ProgressTracker;
+import settings.SettingChecker;
+import settings.Settings;
+import settings.Settings.BooleanSetting;
+import settings.Settings.StringSetting;
+import settings.SettingsSnapshot;
+import utils.Logger;
+import utils.Logger.LogLevel;
+
+/**
+ * Headless entry point that checks many input files with one format file,
+ * without the GUI. The files are patched concurrently on a bounded pool of
+ * threads, each into a file of the same name in the output directory, and a
+ * summary is printed once they are all done. The color, comment and delete
+ * settings are taken from the settings file, as in the GUI.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp patcher.jar cli.BatchPatcher --format format.txt --output outDir
+ *     [--threads count] [--streaming] [--all-sheets] [--incremental KeyColumn]
+ *     [--report csv|jsonl] [--report-only] [--sheet-format SheetName=format.txt]... input...
+ * </pre>
+ * Each input is an xlsx file, a directory whose xlsx files are all checked,
+ * or a glob such as in/*.xlsx. Only the first sheet of each file is checked
+ * unless --all-sheets or --sheet-format is given, which check every sheet,
+ * those named with --sheet-format using their own format file. With
+ * --incremental, only the rows that changed since a file was last patched
+ * into the output directory are checked, matching rows by the key column.
+ * With --report, every finding is also written next to each output file as
+ * CSV or JSON Lines. --report-only writes the report without coloring or
+ * commenting on any cells, which is much faster.
+ * The process exits with status 1 if any file failed.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class BatchPatcher {
+	/** Name of the logger used for the batch progress and summary */
+	private static final String BATCH_LOGGER = "Batch";
+	/** Time between progress lines of a file while it is checked, in milliseconds */
+	private static final long PROGRESS_INTERVAL_MILLIS = 2000;
+
+	/** Path of the format file */
+	private String formatFilePath = null;
+	/** Directory the patched files are written to */
+	private File outputDirectory = null;
+	/** Number of files patched at once */
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	/** If files are read and written one row at a time */
+	private boolean streaming = false;
+	/** Title of the column identifying rows, or null if every row is checked */
+	private String keyColumn = null;
+	/** Name of the findings report format, or null to follow the settings */
+	private String reportFormat = null;
+	/** If findings are only reported, without coloring or commenting on cells */
+	private boolean reportOnly = false;
+	/** Settings the files are checked with, taken when the batch starts */
+	private SettingsSnapshot settings = null;
+	/** Format files by sheet name, or null if only the first sheet is checked */
+	private Map<String, String> sheetFormatFilePaths = null;
+	/** Input arguments, which may be files, directories or globs */
+	private List<String> inputs = new ArrayList<String>();
+
+	/**
+	 * Entry point of the batch mode
+	 *
+	 * @param args see the class description
+	 */
+	public static void main(String[] args){
+		Logger.setEnablePrefix(Logger.getDefaultLoggerName(), true);
+		Logger.setEnablePrefix("Error", true);
+		Logger.setVerbosity(Logger.getDefaultLoggerName(), LogLevel.NORMAL);
+		Logger.setVerbosity("Error", LogLevel.NORMAL);
+		Logger.setVerbosity(BATCH_LOGGER, LogLevel.NORMAL);
+		Logger.setAsynchronous(true);
+
+		BatchPatcher batch = new BatchPatcher();
+		if ( !batch.readArguments(args) ){
+			System.out.println("Usage: BatchPatcher --format format.txt --output outDir"
+					+" [--threads count] [--streaming] [--all-sheets] [--incremental KeyColumn]"
+					+" [--report csv|jsonl] [--report-only] [--sheet-format SheetName=format.txt]... input...");
+			System.out.println("Each input is an xlsx file, a directory of xlsx files or a glob like in/*.xlsx");
+			System.exit(2);
+		}
+		boolean success = batch.run();
+		Logger.flush();
+		System.exit(success ? 0 : 1);
+	}
+
+	/**
+	 * Reads the command line arguments. Returns if they were valid.
+	 *
+	 * @param args to read
+	 * @return if the arguments were valid
+	 */
+	private boolean readArguments(String[] args){
+		for ( int i = 0 ; i < args.length ; i++ ){
+			String arg = args[i];
+			if ( arg.equals("--streaming") ){
+				streaming = true;
+			} else if ( arg.equals("--report-only") ){
+				reportOnly = true;
+			} else if ( arg.equals("--all-sheets") ){
+				if ( sheetFormatFilePaths == null ){
+					sheetFormatFilePaths = new HashMap<String, String>();
+				}
+			} else if ( arg.equals("--format") || arg.equals("--output") || arg.equals("--threads")
+					|| arg.equals("--sheet-format") || arg.equals("--incremental")
+					|| arg.equals("--report") ){
+				if ( i+1 >= args.length ){
+					return false;
+				}
+				String value = args[++i];
+				if ( arg.equals("--format") ){
+					formatFilePath = value;
+				} else if ( arg.equals("--output") ){
+					outputDirectory = new File(value);
+				} else if ( arg.equals("--incremental") ){
+					keyColumn = value;
+				} else if ( arg.equals("--report") ){
+					if ( FindingsReport.Format.fromName(value) == null ){
+						return false;
+					}
+					reportFormat = value;
+				} else if ( arg.equals("--sheet-format") ){
+					int split = value.lastIndexOf('=');
+					if ( split <= 0 || split == value.length()-1 ){
+						return false;
+					}
+					if ( sheetFormatFilePaths == null ){
+						sheetFormatFilePaths = new HashMap<String, String>();
+					}
+					sheetFormatFilePaths.put(value.substring(0, split), value.substring(split+1));
+				} else {
+					try {
+						threadCount = Integer.parseInt(value);
+					} catch ( NumberFormatException e ){
+						return false;
+					}
+				}
+			} else if ( arg.startsWith("--") ){
+				return false;
+			} else {
+				inputs.add(arg);
+			}
+		}
+		return formatFilePath != null && outputDirectory != null
+				&& threadCount > 0 && !inputs.isEmpty();
+	}
+
+	/**
+	 * Patches every input file and prints the summary. Returns if all of the
+	 * files were patched.
+	 *
+	 * @return if all of the files were patched
+	 */
+	private boolean run(){
+		if ( !SettingChecker.checkFormatFilePath(formatFilePath) ){
+			Logger.log("Error", "Could not find the format file at "+formatFilePath);
+			return false;
+		}
+		if ( sheetFormatFilePaths != null ){
+			for ( String sheetName : sheetFormatFilePaths.keySet() ){
+				String sheetFormatFilePath = sheetFormatFilePaths.get(sheetName);
+				if ( !SettingChecker.checkFormatFilePath(sheetFormatFilePath) ){
+					Logger.log("Error", "Could not find the format file for sheet "+sheetName
+							+" at "+sheetFormatFilePath);
+					return false;
+				}
+			}
+		}
+		
+		//The options only apply to this batch, so the saved settings are not changed
+		settings = Settings.snapshot();
+		if ( reportFormat != null || reportOnly ){
+			settings = settings.with(BooleanSetting.FINDINGS_REPORT, true);
+		}
+		if ( reportFormat != null ){
+			settings = settings.with(StringSetting.REPORT_FORMAT, reportFormat);
+		}
+		if ( reportOnly ){
+			settings = settings.with(BooleanSetting.COLOR, false).with(BooleanSetting.COMMENT, false);
+		}
+		
+		if ( !outputDirectory.isDirectory() && !outputDirectory.mkdirs() ){
+			Logger.log("Error", "Could not create the output directory "+outputDirectory);
+			return false;
+		}
+
+		List<File> files = findInputFiles();
+		if ( files.isEmpty() ){
+			Logger.log("Error", "No input files were found");
+			return false;
+		}
+		Logger.log(BATCH_LOGGER, "Patching "+files.size()+" files on "
+				+Math.min(threadCount, files.size())+" threads");
+
+		//Patch the files on a bounded pool
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threadCount, files.size()));
+		List<Future<FileResult>> futures = new ArrayList<Future<FileResult>>();
+		Set<String> outputNames = new HashSet<String>();
+		try {
+			for ( File file : files ){
+				//Files from different directories with the same name would
+				// overwrite each other's output, so only the first is patched
+				if ( outputNames.add(file.getName()) ){
+					futures.add(pool.submit(new PatchTask(file)));
+				} else {
+					futures.add(null);
+				}
+			}
+
+			//Collect the results in input order
+			List<FileResult> results = new ArrayList<FileResult>();
+			for ( int i = 0 ; i < futures.size() ; i++ ){
+				FileResult result;
+				try {
+					if ( futures.get(i) == null ){
+						result = new FileResult(files.get(i), false, 0,
+								"another input has the same name, so their outputs would collide");
+					} else {
+						result = futures.get(i).get();
+					}
+				} catch ( ExecutionException e ){
+					result = new FileResult(files.get(i), false, 0, String.valueOf(e.getCause()));
+				} catch ( InterruptedException e ){
+					Thread.currentThread().interrupt();
+					Logger.log("Error", "Interrupted while waiting for the files to be patched");
+					return false;
+				}
+				results.add(result);
+			}
+			return printSummary(results, System.nanoTime() - start);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Expands the inputs into the list of xlsx files to patch, without duplicates
+	 *
+	 * @return the files to patch
+	 */
+	private List<File> findInputFiles(){
+		Set<File> files = new LinkedHashSet<File>();
+		for ( String input : inputs ){
+			File file = new File(input);
+			if ( file.isDirectory() ){
+				addMatchingFiles(file.toPath(), "*.xlsx", files);
+			} else if ( file.isFile() ){
+				files.add(file.getAbsoluteFile());
+			} else if ( isGlob(file.getName()) ){
+				File parent = file.getAbsoluteFile().getParentFile();
+				addMatchingFiles(parent.toPath(), file.getName(), files);
+			} else {
+				Logger.log("Error", "Input "+input+" is not a file, directory or glob");
+			}
+		}
+		return new ArrayList<File>(files);
+	}
+
+	/**
+	 * Adds the files in the directory that match the glob to the set
+	 *
+	 * @param directory to search
+	 * @param glob that the file names must match
+	 * @param files set to add the matches to
+	 */
+	private void addMatchingFiles(Path directory, String glob, Set<File> files){
+		try ( DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob) ){
+			List<File> matches = new ArrayList<File>();
+			for ( Path path : stream ){
+				if ( Files.isRegularFile(path) ){
+					matches.add(path.toAbsolutePath().toFile());
+				}
+			}
+			Collections.sort(matches);
+			files.addAll(matches);
+		} catch ( IOException e ){
+			Logger.log("Error", "Could not list the files in "+directory+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns if the name contains glob characters
+	 *
+	 * @param name to check
+	 * @return if the name contains glob characters
+	 */
+	private static boolean isGlob(String name){
+		return name.contains("*") || name.contains("?") || name.contains("[") || name.contains("{");
+	}
+
+	/**
+	 * Prints the result of each file and the totals. Returns if every file
+	 * was patched.
+	 *
+	 * @param results of each file
+	 * @param nanos the whole batch took
+	 * @return if every file was patched
+	 */
+	private boolean printSummary(List<FileResult> results, long nanos){
+		int failed = 0;
+		StringBuilder summary = new StringBuilder("Summary:");
+		for ( FileResult result : results ){
+			summary.append("\n  ").append(result.success ? "OK     " : "FAILED ");
+			summary.append(result.file.getPath());
+			summary.append(String.format(" (%.1f s)", result.nanos / 1e9));
+			if ( result.message != null ){
+				summary.append(" ").append(result.message);
+			}
+			if ( !result.success ){
+				failed++;
+			}
+		}
+		summary.append(String.format("\n%d of %d files patched, %d failed, in %.1f s",
+				results.size() - failed, results.size(), failed, nanos / 1e9));
+		Logger.log(BATCH_LOGGER, summary.toString());
+		return failed == 0;
+	}
+
+	/**
+	 * Patches a single file into the output directory
+	 */
+	private class PatchTask implements Callable<FileResult> {
+		/** The input file */
+		private File input;
+
+		/**
+		 * Creates a task to patch the input file
+		 * @param input file to patch
+		 */
+		private PatchTask(File input){
+			this.input = input;
+		}
+
+		@Override
+		public FileResult call(){
+			long start = System.nanoTime();
+			File output = new File(outputDirectory, input.getName());
+			if ( output.getAbsoluteFile().equals(input.getAbsoluteFile()) ){
+				return new FileResult(input, false, 0, "output would overwrite the input");
+			}
+
+			boolean success;
+			String message = null;
+			try {
+				success = FilePatcher.patchFile(input.getPath(), output.getPath(),
+						formatFilePath, sheetFormatFilePaths, streaming, 1, keyColumn,
+						new ProgressTracker.Listener(){
+							@Override
+							public void progressChanged(ProgressTracker.Progress progress) {
+								//Only long checks are worth a line, the rest is logged once done
+								if ( progress.getPhase() == ProgressTracker.Phase.CHECK 
+										&& progress.getRowsDone() > 0 ){
+									Logger.log(BATCH_LOGGER, input.getName()+": "+progress);
+								}
+							}
+						}, PROGRESS_INTERVAL_MILLIS, settings);
+			} catch ( RuntimeException e ){
+				success = false;
+				message = e.toString();
+			}
+			long nanos = System.nanoTime() - start;
+			Logger.log(BATCH_LOGGER, (success ? "Patched " : "Failed to patch ")+input.getName());
+			return new FileResult(input, success, nanos, message);
+		}
+	}
+
+	/**
+	 * The outcome of patching a single file
+	 */
+	private static class FileResult {
+		/** The input file */
+		private File file;
+		/** If the patched file was saved */
+		private boolean success;
+		/** Time taken to patch the file */
+		private long nanos;
+		/** Reason the file failed, may be null */
+		private String message;
+
+		private FileResult(File file, boolean success, long nanos, String message){
+			this.file = file;
+			this.success = success;
+			this.nanos = nanos;
+			this.message = message;
+		}
+	}
+}
@@ -2,22 +2,29 @@ package gui;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.EventQueue;
 import java.io.PrintStream;
 
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 
+import patcher.ProgressTracker;
+
 /**
- * The JPanel containing the console.
+ * The JPanel containing the console, and the progress bar of the check
+ * below it.
  * 
  * @author Ashton Dyer (WabashCannon)
  *
  */
-public class ConsolePanel extends JPanel {
+public class ConsolePanel extends JPanel implements ProgressTracker.Listener {
 	private static final long serialVersionUID = -214261387766729929L;
 	/** The printstream that prints to the TextAreaOutputStream */
 	private PrintStream printStream;
+	/** Shows the progress of the current check */
+	private JProgressBar progressBar;
 	
 	/**
 	 * Creates a new console panel and sets the System to print to it.
@@ -36,6 +43,11 @@ public class ConsolePanel extends JPanel {
 		add(scrollPanel, BorderLayout.CENTER);
 		//scrollPanel.add(console);
 		
+		progressBar = new JProgressBar(0, 100);
+		progressBar.setStringPainted(true);
+		progressBar.setString("");
+		add(progressBar, BorderLayout.SOUTH);
+		
 		printStream=new PrintStream(new TextAreaOutputStream(console));
 		//System.setOut(printStream);
 		//System.setErr(printStream);
@@ -49,4 +61,24 @@ public class ConsolePanel extends JPanel {
 	public PrintStream getPrintStream(){
 		return printStream;
 	}
+	
+	/**
+	 * Shows the progress of the check on the progress bar. May be called
+	 * from any thread.
+	 * 
+	 * @param progress of the check
+	 */
+	@Override
+	public void progressChanged(final ProgressTracker.Progress progress){
+		EventQueue.invokeLater(new Runnable(){
+			@Override
+			public void run() {
+				int percent = progress.getPercentDone();
+				boolean done = progress.getPhase() == ProgressTracker.Phase.DONE;
+				progressBar.setIndeterminate(percent < 0 && !done);
+				progressBar.setValue(done ? 100 : Math.max(0, percent));
+				progressBar.setString(progress.toString());
+			}
+		});
+	}
 }
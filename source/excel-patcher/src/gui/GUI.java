@@ -36,7 +36,7 @@ public class GUI extends JFrame {
 		
 		this.add(header, BorderLayout.NORTH);
 		
-		ConsolePanel cPanel = new ConsolePanel();
+		cPanel = new ConsolePanel();
 		this.add(cPanel, BorderLayout.CENTER);
 		
 		//Set the loggers' print streams to the GUI console
@@ -77,6 +77,9 @@ public class GUI extends JFrame {
 		Logger.setVerbosity(defaultLogger, LogLevel.NORMAL);
 		Logger.setVerbosity("Error", LogLevel.NORMAL);
 		
+		//Print to the console in the background so checking never waits on it
+		Logger.setAsynchronous(true);
+		
 		//Set the global gui instance
 		gui = this;
 		
@@ -99,6 +102,8 @@ public class GUI extends JFrame {
 // #####################################################################################
 	/** Global instance of gui */
 	private static GUI gui = null;
+	/** The console panel of the gui */
+	private ConsolePanel cPanel = null;
 	
 	/**
 	 * Returns the GUI instance
@@ -108,4 +113,12 @@ public class GUI extends JFrame {
 		assert( gui != null );
 		return gui;
 	}
+	
+	/**
+	 * Returns the console panel, which also shows the progress of checks
+	 * @return the console panel
+	 */
+	public ConsolePanel getConsolePanel(){
+		return cPanel;
+	}
 }
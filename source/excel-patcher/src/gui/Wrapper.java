@@ -3,15 +3,21 @@ package gui;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.poi.ss.usermodel.Workbook;
 
 import settings.SettingChecker;
 import settings.Settings;
+import settings.Settings.BooleanSetting;
 import settings.Settings.StringSetting;
 import utils.DesktopApi;
 import utils.FileManager;
 import utils.Logger;
 import patcher.ExcelChecker;
+import patcher.FilePatcher;
+import patcher.WorkbookChecker;
 import patcher.format.FormatData;
 
 /**
@@ -21,6 +27,9 @@ import patcher.format.FormatData;
  *
  */
 public class Wrapper {
+	/** Time between updates of the progress bar while checking, in milliseconds */
+	private static final long PROGRESS_INTERVAL_MILLIS = 250;
+	
 	/**
 	 * Suppress default constructor
 	 */
@@ -63,17 +72,21 @@ public class Wrapper {
 					Logger.log("Checking the input file");
 					
 					String formatFilePath = Settings.getSetting(StringSetting.FORMAT_FILE_PATH);
-					FormatData formatData = new FormatData(formatFilePath);
-					
-					//Load the input excel file
-					Workbook wb = FileManager.loadExcelFile(inputFilePath);
 					
-					//Create the checker
-					ExcelChecker checker = new ExcelChecker(wb, formatData);
-					checker.patchAllLoans();
-					
-					//Save the output
-					FileManager.saveExcelFile(outputFileDirectory+"/"+outputFileName, wb);
+					boolean streaming = Settings.getSetting(BooleanSetting.STREAMING);
+					boolean allSheets = Settings.getSetting(BooleanSetting.ALL_SHEETS);
+					int threadCount = Settings.getSetting(BooleanSetting.PARALLEL) || allSheets ?
+							Runtime.getRuntime().availableProcessors() : 1;
+					//Every sheet uses the one format file
+					Map<String, String> sheetFormatFilePaths = allSheets ? 
+							new HashMap<String, String>() : null;
+					String keyColumn = Settings.getSetting(BooleanSetting.INCREMENTAL) ?
+							Settings.getSetting(StringSetting.KEY_COLUMN) : null;
+					if ( !FilePatcher.patchFile(inputFilePath, outputFileDirectory+"/"+outputFileName,
+							formatFilePath, sheetFormatFilePaths, streaming, threadCount, keyColumn,
+							GUI.getGUI().getConsolePanel(), PROGRESS_INTERVAL_MILLIS) ){
+						return;
+					}
 					
 					Logger.log("Done checking file.");
 				} finally {
@@ -125,14 +138,18 @@ public class Wrapper {
 					
 					//Create the format data
 					String formatFilePath = Settings.getSetting(StringSetting.FORMAT_FILE_PATH);
-					FormatData formatData = new FormatData(formatFilePath);
 					
 					//Load the input excel file
 					Workbook wb = FileManager.loadExcelFile(outputFileDirectory+"/"+outputFileName);
 					
 					//Create the checker
-					ExcelChecker checker = new ExcelChecker(wb, formatData);
-					checker.cleanOutput();
+					if ( Settings.getSetting(BooleanSetting.ALL_SHEETS) ){
+						WorkbookChecker checker = new WorkbookChecker(wb, formatFilePath, null);
+						checker.cleanOutput();
+					} else {
+						ExcelChecker checker = new ExcelChecker(wb, new FormatData(formatFilePath));
+						checker.cleanOutput();
+					}
 					
 					//Save the output
 					FileManager.saveExcelFile(outputFileDirectory+"/"+outputFileName, wb);
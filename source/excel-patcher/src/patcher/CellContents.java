@@ -0,0 +1,138 @@
+package patcher;
+
+import java.io.Serializable;
+
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * The typed contents of a single cell: its type as a column snapshot gives it,
+ * its numeric value and its text. Two cells only have the same contents if
+ * they are of the same type, so the number 12 and the text "12.0" differ even
+ * though ExcelUtils.getCellContentsAsString gives the same string for both.
+ * <p>
+ * Used to recognize rows with the same contents and to record and replay the
+ * changes checking made to a row's cells.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+final class CellContents implements Serializable {
+	/** Default serial UID */
+	private static final long serialVersionUID = 1L;
+
+	/** Contents of a blank or missing cell */
+	static final CellContents BLANK = new CellContents(ColumnSnapshot.BLANK, 0, "");
+
+	/** Type of the cell, such as ColumnSnapshot.STRING */
+	private final byte type;
+	/** Value of a numeric, date or boolean cell, 0 for other types. Booleans
+	 * are 1 or 0. */
+	private final double number;
+	/** The contents as ExcelUtils.getCellContentsAsString gives them */
+	private final String text;
+
+	/**
+	 * Creates new cell contents
+	 *
+	 * @param type of the cell, such as ColumnSnapshot.STRING
+	 * @param number value of a numeric, date or boolean cell
+	 * @param text of the cell
+	 */
+	CellContents(byte type, double number, String text){
+		this.type = type;
+		this.number = number;
+		this.text = text;
+	}
+
+	/**
+	 * Reads the contents of the cell
+	 *
+	 * @param cell to read, may be null
+	 * @return the contents of the cell
+	 */
+	static CellContents of(Cell cell){
+		if ( cell == null ){
+			return BLANK;
+		}
+		byte type = ColumnSnapshot.getType(cell);
+		return new CellContents(type, ColumnSnapshot.getNumber(cell, type),
+				ExcelUtils.getCellContentsAsString(cell));
+	}
+
+	/**
+	 * Returns the type of the cell
+	 * @return the type of the cell, such as ColumnSnapshot.STRING
+	 */
+	byte getType(){
+		return type;
+	}
+
+	/**
+	 * Returns the value of a numeric, date or boolean cell
+	 * @return the value of the cell, 0 if it is of another type
+	 */
+	double getNumber(){
+		return number;
+	}
+
+	/**
+	 * Returns the contents as ExcelUtils.getCellContentsAsString gives them
+	 * @return the contents as a string
+	 */
+	String getText(){
+		return text;
+	}
+
+	/**
+	 * Sets the cell to these contents, using the setCellValue that matches
+	 * their type. Dates are set as their number, which keeps the cell's date
+	 * format.
+	 *
+	 * @param cell to set
+	 */
+	void applyTo(Cell cell){
+		switch ( type ){
+			case ColumnSnapshot.STRING:
+				cell.setCellType(Cell.CELL_TYPE_BLANK);
+				cell.setCellValue(text);
+				break;
+			case ColumnSnapshot.NUMBER:
+			case ColumnSnapshot.DATE:
+				cell.setCellType(Cell.CELL_TYPE_BLANK);
+				cell.setCellValue(number);
+				break;
+			case ColumnSnapshot.BOOLEAN:
+				cell.setCellType(Cell.CELL_TYPE_BLANK);
+				cell.setCellValue(number != 0);
+				break;
+			case ColumnSnapshot.FORMULA:
+				cell.setCellFormula(text);
+				break;
+			default:
+				cell.setCellType(Cell.CELL_TYPE_BLANK);
+				break;
+		}
+	}
+
+	@Override
+	public boolean equals(Object other){
+		if ( !(other instanceof CellContents) ){
+			return false;
+		}
+		CellContents contents = (CellContents) other;
+		return type == contents.type
+				&& Double.doubleToLongBits(number) == Double.doubleToLongBits(contents.number)
+				&& text.equals(contents.text);
+	}
+
+	@Override
+	public int hashCode(){
+		long bits = Double.doubleToLongBits(number);
+		return (31*type + (int) (bits ^ (bits >>> 32)))*31 + text.hashCode();
+	}
+
+	@Override
+	public String toString(){
+		return text;
+	}
+}
@@ -0,0 +1,115 @@
+package patcher;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import patcher.ExcelUtils.UrgencyLevel;
+
+/**
+ * Cache of the cell styles used to color cells by urgency. Each combination
+ * of a cell's original style, urgency and color blind mode only gets one style
+ * in the workbook, which is shared by every cell colored that way. Without it
+ * a style would be created for every colored cell, which slows saving and can
+ * run into Excel's limit of 64000 styles per workbook.
+ * <p>
+ * The cache is not thread safe, so it should only be used while holding the
+ * workbook lock.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class CellStyleCache {
+	/** Indexes used for coloring excel cells. 3=Green, 5=Yellow, 2=Red */
+	private static final short[] COLOR_INDEXES = new short[]{3, 5, 2};
+	/** Indexes used for coloring excel cells when in color blind mode */
+	private static final short[] COLOR_BLIND_INDEXES = new short[]{3, 5, 4};
+
+	/** Workbook that the styles are created in */
+	private Workbook workbook;
+	/** Colored styles keyed by original style index, urgency and color blind mode */
+	private Map<Integer, CellStyle> styles = new HashMap<Integer, CellStyle>();
+	/** Index of the original style that each colored style was created from */
+	private Map<Short, Short> originalIndexes = new HashMap<Short, Short>();
+
+	/**
+	 * Creates an empty style cache for the given workbook
+	 *
+	 * @param workbook that the styles are created in
+	 */
+	public CellStyleCache(Workbook workbook){
+		this.workbook = workbook;
+	}
+
+	/**
+	 * Returns the style to give a cell that currently has the given style when
+	 * coloring it for the given urgency. UrgencyLevel.NONE yields white cells.
+	 * Recoloring a cell that was already colored by this cache starts from the
+	 * cell's original style, so styles are not derived from each other.
+	 *
+	 * @param current style of the cell, may be null
+	 * @param urgency to color for
+	 * @param colorBlind if the color blind colors should be used
+	 * @return the shared style for the cell
+	 */
+	public CellStyle getStyle(CellStyle current, UrgencyLevel urgency, boolean colorBlind){
+		//Find the style the cell had before it was colored
+		short originalIndex = current == null ? 0 : current.getIndex();
+		if ( originalIndexes.containsKey(originalIndex) ){
+			originalIndex = originalIndexes.get(originalIndex);
+		}
+		if ( urgency == UrgencyLevel.NONE ){
+			colorBlind = false;
+		}
+
+		int key = (originalIndex*UrgencyLevel.values().length + urgency.ordinal())*2
+				+ (colorBlind ? 1 : 0);
+		CellStyle style = styles.get(key);
+		if ( style == null ){
+			style = createStyle(originalIndex, urgency, colorBlind);
+			styles.put(key, style);
+			originalIndexes.put(style.getIndex(), originalIndex);
+		}
+		return style;
+	}
+
+	/**
+	 * Creates a new style in the workbook, copied from the style at the original
+	 * index and colored for the urgency.
+	 *
+	 * @param originalIndex of the style to copy
+	 * @param urgency to color for
+	 * @param colorBlind if the color blind colors should be used
+	 * @return the new style
+	 */
+	private CellStyle createStyle(short originalIndex, UrgencyLevel urgency, boolean colorBlind){
+		CellStyle style = workbook.createCellStyle();
+		CellStyle original = workbook.getCellStyleAt(originalIndex);
+		if ( original != null ){
+			style.cloneStyleFrom(original);
+		}
+
+		//Set the color
+		switch( urgency ){
+			case NONE:
+				style.setFillPattern(CellStyle.NO_FILL);
+				style.setFillForegroundColor(IndexedColors.WHITE.getIndex());
+				break;
+			default:
+				if ( colorBlind ){
+					style.setFillForegroundColor(
+							COLOR_BLIND_INDEXES[urgency.ordinal()]);
+				} else {
+					style.setFillForegroundColor(
+							COLOR_INDEXES[urgency.ordinal()]);
+				}
+
+				style.setFillPattern(CellStyle.SOLID_FOREGROUND);
+				break;
+		}
+		return style;
+	}
+}
@@ -0,0 +1,413 @@
+package patcher;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import utils.Logger;
+
+/**
+ * Counters and timings of the checks made on each column during a run, used
+ * to find out which column or rule makes a run slow. Every rule of every column
+ * counts how often it was evaluated, failed and fixed a cell, and the total
+ * time spent in it. Times are inclusive, so the time of a cell's checks
+ * includes the time of the conditions they evaluate.
+ * <p>
+ * At the end of a run the metrics are written as JSON and in the Prometheus
+ * text format. The counters are atomic, so the metrics may be shared by
+ * checkers running on several threads.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class CheckMetrics {
+	/** Prefix of the names of the exported Prometheus metrics */
+	private static final String METRIC_PREFIX = "excel_patcher_";
+
+	/** The checks that are counted and timed */
+	public enum Rule {
+		/** The whole check and fix of a cell */
+		PATCH ("patch"),
+		/** The Required specification */
+		REQUIRED ("required"),
+		/** The Value specification */
+		VALUE ("value"),
+		/** The MaxPossibleCharacters specification */
+		MAX_CHARACTERS ("max_characters"),
+		/** The Type specification */
+		DATA_TYPE ("data_type"),
+		/** Filling a cell from its Value specification */
+		FILL ("fill"),
+		/** Evaluating the condition of the Required specification */
+		REQUIRED_CONDITION ("required_condition"),
+		/** Evaluating the conditional value of the Value specification */
+		VALUE_CONDITION ("value_condition");
+
+		/** Name used for the rule in the exported metrics */
+		private final String label;
+
+		Rule(String label){
+			this.label = label;
+		}
+
+		/**
+		 * Returns the name of the rule in the exported metrics
+		 * @return the name of the rule in the exported metrics
+		 */
+		public String getLabel(){
+			return label;
+		}
+	}
+
+	/** Name of the file being checked, used to tell runs apart */
+	private final String fileName;
+	/** Metrics of each column, by sheet name and column title */
+	private final ConcurrentHashMap<String, ColumnMetrics> columns = new ConcurrentHashMap<String, ColumnMetrics>();
+	/** Number of rows that were checked */
+	private final AtomicLong checkedRows = new AtomicLong();
+	/** Number of rows whose results were copied from an identical row */
+	private final AtomicLong reusedRows = new AtomicLong();
+	/** When the run started */
+	private final long startNanos = System.nanoTime();
+	/** How long the run took, set when it finishes */
+	private volatile long runNanos = -1;
+
+	/**
+	 * Creates empty metrics for a run checking the named file
+	 *
+	 * @param fileName of the file being checked
+	 */
+	public CheckMetrics(String fileName){
+		this.fileName = fileName;
+	}
+
+	/**
+	 * Returns the metrics of the column of the named sheet, creating them if
+	 * they do not exist yet
+	 *
+	 * @param sheetName of the sheet the column is in
+	 * @param columnTitle of the column
+	 * @return the metrics of the column
+	 */
+	public ColumnMetrics getColumn(String sheetName, String columnTitle){
+		String key = sheetName+"\u0000"+columnTitle;
+		ColumnMetrics metrics = columns.get(key);
+		if ( metrics == null ){
+			ColumnMetrics created = new ColumnMetrics(sheetName, columnTitle);
+			metrics = columns.putIfAbsent(key, created);
+			if ( metrics == null ){
+				metrics = created;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Counts a row that was checked
+	 */
+	void countCheckedRow(){
+		checkedRows.incrementAndGet();
+	}
+
+	/**
+	 * Counts a row whose results were copied rather than checked
+	 */
+	void countReusedRow(){
+		reusedRows.incrementAndGet();
+	}
+
+	/**
+	 * Marks the end of the run, so that its duration is exported
+	 */
+	public void finish(){
+		runNanos = System.nanoTime() - startNanos;
+	}
+
+	// ####################################################
+	// ### Exporting
+	// ####################################################
+	/**
+	 * Writes the metrics as JSON and in the Prometheus text format to files
+	 * starting with the given path. Each file is written under a temporary
+	 * name and then moved into place, so a scraper never reads half a file.
+	 *
+	 * @param basePath that the file extensions are added to
+	 * @return if both files were written
+	 */
+	public boolean export(String basePath){
+		return write(basePath+".metrics.json", toJson())
+				&& write(basePath+".prom", toPrometheus());
+	}
+
+	/**
+	 * Returns the metrics as a JSON document
+	 * @return the metrics as JSON
+	 */
+	public String toJson(){
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"file\": ").append(jsonString(fileName)).append(",\n");
+		json.append("  \"runSeconds\": ").append(seconds(runNanos)).append(",\n");
+		json.append("  \"checkedRows\": ").append(checkedRows.get()).append(",\n");
+		json.append("  \"reusedRows\": ").append(reusedRows.get()).append(",\n");
+		json.append("  \"columns\": [");
+		List<ColumnMetrics> sorted = sortedColumns();
+		for ( int c = 0 ; c < sorted.size() ; c++ ){
+			ColumnMetrics column = sorted.get(c);
+			json.append(c == 0 ? "\n" : ",\n");
+			json.append("    {\"sheet\": ").append(jsonString(column.sheetName));
+			json.append(", \"column\": ").append(jsonString(column.title));
+			json.append(", \"seconds\": ").append(seconds(column.getNanos(Rule.PATCH)));
+			json.append(", \"rules\": {");
+			boolean first = true;
+			for ( Rule rule : Rule.values() ){
+				if ( column.getEvaluations(rule) == 0 ){
+					continue;
+				}
+				json.append(first ? "\n" : ",\n");
+				first = false;
+				json.append("      ").append(jsonString(rule.getLabel())).append(": {");
+				json.append("\"evaluations\": ").append(column.getEvaluations(rule));
+				json.append(", \"failures\": ").append(column.getFailures(rule));
+				json.append(", \"fixes\": ").append(column.getFixes(rule));
+				json.append(", \"seconds\": ").append(seconds(column.getNanos(rule)));
+				json.append("}");
+			}
+			json.append(first ? "}}" : "\n    }}");
+		}
+		json.append(sorted.isEmpty() ? "]\n" : "\n  ]\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Returns the metrics in the Prometheus text exposition format
+	 * @return the metrics in the Prometheus text format
+	 */
+	public String toPrometheus(){
+		StringBuilder prom = new StringBuilder();
+		String fileLabel = "file=\""+promLabel(fileName)+"\"";
+
+		header(prom, "run_seconds", "gauge", "Time the last run of the file took");
+		prom.append(METRIC_PREFIX).append("run_seconds{").append(fileLabel).append("} ")
+				.append(seconds(runNanos)).append('\n');
+		header(prom, "rows_total", "counter", "Rows of the file by whether they were checked or copied");
+		prom.append(METRIC_PREFIX).append("rows_total{").append(fileLabel)
+				.append(",result=\"checked\"} ").append(checkedRows.get()).append('\n');
+		prom.append(METRIC_PREFIX).append("rows_total{").append(fileLabel)
+				.append(",result=\"reused\"} ").append(reusedRows.get()).append('\n');
+
+		List<ColumnMetrics> sorted = sortedColumns();
+		String[] names = { "rule_evaluations_total", "rule_failures_total", "rule_fixes_total", "rule_seconds_total" };
+		String[] helps = { "Times a rule was evaluated on a cell of the column",
+				"Times a rule found a problem with a cell of the column",
+				"Times a rule changed a cell of the column to fix it",
+				"Total time spent evaluating a rule on the column, including nested rules" };
+		for ( int metric = 0 ; metric < names.length ; metric++ ){
+			header(prom, names[metric], "counter", helps[metric]);
+			for ( ColumnMetrics column : sorted ){
+				for ( Rule rule : Rule.values() ){
+					if ( column.getEvaluations(rule) == 0 ){
+						continue;
+					}
+					prom.append(METRIC_PREFIX).append(names[metric]).append('{').append(fileLabel);
+					prom.append(",sheet=\"").append(promLabel(column.sheetName)).append('"');
+					prom.append(",column=\"").append(promLabel(column.title)).append('"');
+					prom.append(",rule=\"").append(rule.getLabel()).append("\"} ");
+					switch ( metric ){
+						case 0: prom.append(column.getEvaluations(rule)); break;
+						case 1: prom.append(column.getFailures(rule)); break;
+						case 2: prom.append(column.getFixes(rule)); break;
+						default: prom.append(seconds(column.getNanos(rule))); break;
+					}
+					prom.append('\n');
+				}
+			}
+		}
+		return prom.toString();
+	}
+
+	/**
+	 * Returns the columns ordered by the time spent checking them, slowest first
+	 * @return the columns, slowest first
+	 */
+	private List<ColumnMetrics> sortedColumns(){
+		List<ColumnMetrics> sorted = new ArrayList<ColumnMetrics>(columns.values());
+		Collections.sort(sorted, new Comparator<ColumnMetrics>(){
+			@Override
+			public int compare(ColumnMetrics a, ColumnMetrics b) {
+				return Long.compare(b.getNanos(Rule.PATCH), a.getNanos(Rule.PATCH));
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Appends the HELP and TYPE lines of a Prometheus metric
+	 *
+	 * @param prom to append to
+	 * @param name of the metric without the prefix
+	 * @param type of the metric
+	 * @param help text of the metric
+	 */
+	private static void header(StringBuilder prom, String name, String type, String help){
+		prom.append("# HELP ").append(METRIC_PREFIX).append(name).append(' ').append(help).append('\n');
+		prom.append("# TYPE ").append(METRIC_PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	/**
+	 * Returns the nanoseconds as seconds, or -1 if they were never measured
+	 *
+	 * @param nanos to convert
+	 * @return the time in seconds
+	 */
+	private static String seconds(long nanos){
+		return nanos < 0 ? "-1" : String.valueOf(nanos / 1e9);
+	}
+
+	/**
+	 * Returns the text as a quoted and escaped JSON string
+	 *
+	 * @param text to quote
+	 * @return the JSON string
+	 */
+	static String jsonString(String text){
+		StringBuilder quoted = new StringBuilder("\"");
+		for ( int i = 0 ; i < text.length() ; i++ ){
+			char c = text.charAt(i);
+			if ( c == '"' || c == '\\' ){
+				quoted.append('\\').append(c);
+			} else if ( c < 0x20 ){
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * Returns the text escaped for use as a Prometheus label value
+	 *
+	 * @param text to escape
+	 * @return the escaped label value
+	 */
+	private static String promLabel(String text){
+		return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Writes the text to a temporary file next to the path, then moves it to
+	 * the path. Returns if the file was written.
+	 *
+	 * @param filePath to write to
+	 * @param text to write
+	 * @return if the file was written
+	 */
+	private static boolean write(String filePath, String text){
+		Path path = Paths.get(filePath);
+		Path temporary = Paths.get(filePath+".tmp");
+		try {
+			try ( Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8) ){
+				writer.write(text);
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException e) {
+			Logger.log("Error", "Could not write the metrics to "+filePath+": "+e.getMessage());
+			return false;
+		}
+	}
+
+	// ####################################################
+	// ### Column metrics
+	// ####################################################
+	/**
+	 * Counters and timings of the rules of a single column
+	 */
+	public static class ColumnMetrics {
+		/** Number of counters kept for each rule */
+		private static final int COUNTERS = 4;
+		/** Offsets of each counter of a rule */
+		private static final int EVALUATIONS = 0, FAILURES = 1, FIXES = 2, NANOS = 3;
+
+		/** Name of the sheet the column is in */
+		private final String sheetName;
+		/** Title of the column */
+		private final String title;
+		/** The counters of every rule, COUNTERS to a rule in Rule order */
+		private final AtomicLongArray counters = new AtomicLongArray(Rule.values().length*COUNTERS);
+
+		private ColumnMetrics(String sheetName, String title){
+			this.sheetName = sheetName;
+			this.title = title;
+		}
+
+		/**
+		 * Records one evaluation of the rule
+		 *
+		 * @param rule that was evaluated
+		 * @param nanos the evaluation took
+		 * @param failed if the rule found a problem
+		 * @param fixed if the rule changed the cell
+		 */
+		public void record(Rule rule, long nanos, boolean failed, boolean fixed){
+			int base = rule.ordinal()*COUNTERS;
+			counters.incrementAndGet(base+EVALUATIONS);
+			if ( failed ){
+				counters.incrementAndGet(base+FAILURES);
+			}
+			if ( fixed ){
+				counters.incrementAndGet(base+FIXES);
+			}
+			counters.addAndGet(base+NANOS, nanos);
+		}
+
+		/**
+		 * Returns how often the rule was evaluated
+		 * @param rule to get the count of
+		 * @return how often the rule was evaluated
+		 */
+		public long getEvaluations(Rule rule){
+			return counters.get(rule.ordinal()*COUNTERS+EVALUATIONS);
+		}
+
+		/**
+		 * Returns how often the rule found a problem
+		 * @param rule to get the count of
+		 * @return how often the rule found a problem
+		 */
+		public long getFailures(Rule rule){
+			return counters.get(rule.ordinal()*COUNTERS+FAILURES);
+		}
+
+		/**
+		 * Returns how often the rule changed a cell
+		 * @param rule to get the count of
+		 * @return how often the rule changed a cell
+		 */
+		public long getFixes(Rule rule){
+			return counters.get(rule.ordinal()*COUNTERS+FIXES);
+		}
+
+		/**
+		 * Returns the total time spent evaluating the rule
+		 * @param rule to get the time of
+		 * @return the total time spent evaluating the rule in nanoseconds
+		 */
+		public long getNanos(Rule rule){
+			return counters.get(rule.ordinal()*COUNTERS+NANOS);
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package patcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import patcher.format.DataType;
+
+/**
+ * A copy of the cells the checks of a sheet read, taken once before the sheet
+ * is checked. Each column is kept as plain arrays: the type of each cell in a
+ * byte array, the value of numeric, date and boolean cells in a double array,
+ * and the text of each cell as an id into a string pool shared by all the
+ * columns. The checks can then read a cell's contents straight from the arrays
+ * instead of going through its POI cell and turning it into text again every
+ * time a rule looks at it. Repeated values, such as the same state or lender
+ * name on every row, are stored once in the pool.
+ * <p>
+ * Columns with a data type have the data type of all their numeric cells
+ * checked when the snapshot is taken, a column at a time over the column's
+ * values, rather than a cell at a time as the rows are checked.
+ * <p>
+ * The snapshot never changes once taken, so it can be read by several threads.
+ * Cells changed while a row is checked are read from the row instead, see
+ * RowContext.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+final class ColumnSnapshot {
+	/** Type of a blank or missing cell */
+	static final byte BLANK = 0;
+	/** Type of a text cell */
+	static final byte STRING = 1;
+	/** Type of a numeric cell */
+	static final byte NUMBER = 2;
+	/** Type of a numeric cell formatted as a date */
+	static final byte DATE = 3;
+	/** Type of a boolean cell */
+	static final byte BOOLEAN = 4;
+	/** Type of a formula cell, whose text is the formula */
+	static final byte FORMULA = 5;
+
+	/** Sheet row index of each snapshot row, in ascending order */
+	private final int[] rowIndexes;
+	/** Position of each sheet column in the arrays below, -1 if not taken */
+	private final int[] slots;
+	/** Type of each cell, by column slot and row position */
+	private final byte[][] types;
+	/** Value of each numeric, date and boolean cell, by column slot and row
+	 * position. Booleans are 1 or 0. */
+	private final double[][] numbers;
+	/** Pool id of the text of each cell, by column slot and row position */
+	private final int[][] strings;
+	/** Text of the cells by pool id. Id 0 is the empty string. */
+	private final String[] pool;
+	/** If each numeric cell has its column's data type, by column slot and row
+	 * position. Null for columns without a data type. */
+	private final boolean[][] validNumbers;
+
+	/**
+	 * Takes a snapshot of the given columns of the given rows of the sheet
+	 *
+	 * @param sheet to copy the cells of
+	 * @param rowIndexes of the rows to copy
+	 * @param columnIndexes of the columns to copy
+	 * @param dataTypes to check the numbers of each column against, by column
+	 * slot. Null entries, or a null array, for columns without a data type.
+	 */
+	ColumnSnapshot(Sheet sheet, List<Integer> rowIndexes, int[] columnIndexes, DataType[] dataTypes){
+		this.rowIndexes = new int[rowIndexes.size()];
+		for ( int i = 0 ; i < this.rowIndexes.length ; i++ ){
+			this.rowIndexes[i] = rowIndexes.get(i);
+		}
+		Arrays.sort(this.rowIndexes);
+
+		int maxColumnIndex = -1;
+		for ( int columnIndex : columnIndexes ){
+			maxColumnIndex = Math.max(maxColumnIndex, columnIndex);
+		}
+		slots = new int[maxColumnIndex+1];
+		Arrays.fill(slots, -1);
+		for ( int slot = 0 ; slot < columnIndexes.length ; slot++ ){
+			slots[columnIndexes[slot]] = slot;
+		}
+
+		int rowCount = this.rowIndexes.length;
+		types = new byte[columnIndexes.length][rowCount];
+		numbers = new double[columnIndexes.length][rowCount];
+		strings = new int[columnIndexes.length][rowCount];
+
+		//Fill the columns a row at a time, since POI stores cells by row
+		StringPool stringPool = new StringPool();
+		for ( int position = 0 ; position < rowCount ; position++ ){
+			Row row = sheet.getRow(this.rowIndexes[position]);
+			if ( row == null ){
+				continue;
+			}
+			for ( int slot = 0 ; slot < columnIndexes.length ; slot++ ){
+				Cell cell = row.getCell(columnIndexes[slot]);
+				if ( cell == null ){
+					continue;
+				}
+				types[slot][position] = getType(cell);
+				numbers[slot][position] = getNumber(cell, types[slot][position]);
+				strings[slot][position] = stringPool.intern(ExcelUtils.getCellContentsAsString(cell));
+			}
+		}
+		pool = stringPool.toArray();
+
+		//Check the numbers of each typed column in one pass over its values
+		validNumbers = new boolean[columnIndexes.length][];
+		for ( int slot = 0 ; slot < columnIndexes.length ; slot++ ){
+			if ( dataTypes != null && slot < dataTypes.length && dataTypes[slot] != null ){
+				validNumbers[slot] = new boolean[rowCount];
+				dataTypes[slot].checkNumbers(numbers[slot], validNumbers[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the snapshot type of the cell
+	 *
+	 * @param cell to get the type of
+	 * @return the snapshot type of the cell
+	 */
+	static byte getType(Cell cell){
+		switch ( cell.getCellType() ){
+			case Cell.CELL_TYPE_STRING:
+				return STRING;
+			case Cell.CELL_TYPE_NUMERIC:
+				return DateUtil.isCellDateFormatted(cell) ? DATE : NUMBER;
+			case Cell.CELL_TYPE_BOOLEAN:
+				return BOOLEAN;
+			case Cell.CELL_TYPE_FORMULA:
+				return FORMULA;
+			default:
+				return BLANK;
+		}
+	}
+
+	/**
+	 * Returns the numeric value of the cell, or 0 if it has none
+	 *
+	 * @param cell to get the value of
+	 * @param type of the cell in the snapshot
+	 * @return the numeric value of the cell
+	 */
+	static double getNumber(Cell cell, byte type){
+		switch ( type ){
+			case NUMBER:
+			case DATE:
+				return cell.getNumericCellValue();
+			case BOOLEAN:
+				return cell.getBooleanCellValue() ? 1 : 0;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Returns the position of the sheet row in the snapshot, or -1 if the row
+	 * was not copied
+	 *
+	 * @param rowIndex of the row in the sheet
+	 * @return the position of the row, or -1
+	 */
+	int getPosition(int rowIndex){
+		int position = Arrays.binarySearch(rowIndexes, rowIndex);
+		return position < 0 ? -1 : position;
+	}
+
+	/**
+	 * Returns the position of the sheet column in the snapshot, or -1 if the
+	 * column was not copied
+	 *
+	 * @param columnIndex of the column in the sheet
+	 * @return the slot of the column, or -1
+	 */
+	int getSlot(int columnIndex){
+		return columnIndex < slots.length ? slots[columnIndex] : -1;
+	}
+
+	/**
+	 * Returns the type of the cell
+	 *
+	 * @param slot of the cell's column
+	 * @param position of the cell's row
+	 * @return the type of the cell, such as STRING or DATE
+	 */
+	byte getType(int slot, int position){
+		return types[slot][position];
+	}
+
+	/**
+	 * Returns the value of a numeric, date or boolean cell
+	 *
+	 * @param slot of the cell's column
+	 * @param position of the cell's row
+	 * @return the value of the cell, 0 if it is of another type
+	 */
+	double getNumber(int slot, int position){
+		return numbers[slot][position];
+	}
+
+	/**
+	 * Returns if the numbers of the column were checked against a data type
+	 * when the snapshot was taken
+	 *
+	 * @param slot of the column
+	 * @return if the column's numbers were checked
+	 */
+	boolean hasNumberChecks(int slot){
+		return validNumbers[slot] != null;
+	}
+
+	/**
+	 * Returns if the numeric cell has its column's data type, as
+	 * DataType.checkCell gives it. Only meaningful for NUMBER cells of columns
+	 * with number checks.
+	 *
+	 * @param slot of the cell's column
+	 * @param position of the cell's row
+	 * @return if the cell's number has its column's data type
+	 */
+	boolean isValidNumber(int slot, int position){
+		return validNumbers[slot][position];
+	}
+
+	/**
+	 * Returns the contents of the cell as ExcelUtils.getCellContentsAsString
+	 * gives them
+	 *
+	 * @param slot of the cell's column
+	 * @param position of the cell's row
+	 * @return the contents of the cell as a string
+	 */
+	String getString(int slot, int position){
+		return pool[strings[slot][position]];
+	}
+
+	/**
+	 * Returns the number of different strings the snapshot holds
+	 * @return the size of the string pool
+	 */
+	int getPoolSize(){
+		return pool.length;
+	}
+
+	/**
+	 * Gives each different string an id while a snapshot is taken
+	 */
+	private static class StringPool {
+		/** Ids of the strings seen so far */
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+		/** Strings seen so far, by id */
+		private final List<String> strings = new ArrayList<String>();
+
+		private StringPool(){
+			intern("");
+		}
+
+		/**
+		 * Returns the id of the string, giving it the next id if it is new
+		 *
+		 * @param text to get the id of
+		 * @return the id of the string
+		 */
+		private int intern(String text){
+			Integer id = ids.get(text);
+			if ( id == null ){
+				id = strings.size();
+				ids.put(text, id);
+				strings.add(text);
+			}
+			return id;
+		}
+
+		/**
+		 * Returns the strings by id
+		 * @return the strings by id
+		 */
+		private String[] toArray(){
+			return strings.toArray(new String[strings.size()]);
+		}
+	}
+}
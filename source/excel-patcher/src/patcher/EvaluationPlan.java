@@ -0,0 +1,136 @@
+package patcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import patcher.format.ColumnFormatData;
+import patcher.format.FormatData;
+import utils.Logger;
+import utils.Utils;
+
+/**
+ * The order in which the columns of a row are checked, worked out once from
+ * the format data's dependency graph. Every column comes after the columns it
+ * depends on, so a row can be checked with a single pass over the plan.
+ * Columns with circular dependencies are found here and can never be resolved.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+class EvaluationPlan {
+	/** Titles of the columns to check, in the order they are checked */
+	final String[] titles;
+	/** Format data of each column in the plan */
+	final ColumnFormatData[] formats;
+	/** Sheet column index of each column in the plan */
+	final int[] columnIndexes;
+	/** Plan positions of the checked columns that each column depends on */
+	final int[][] dependencies;
+	/** If each column is part of a circular dependency */
+	final boolean[] cyclic;
+	/** Titles of every column that checking a row reads. The checked columns
+	 * come first in plan order, followed by any other columns they depend on. */
+	final String[] inputTitles;
+	/** Sheet column index of each column in inputTitles */
+	final int[] inputColumnIndexes;
+
+	/**
+	 * Creates the evaluation plan for the columns in the format data, using the
+	 * sheet data to find their column indexes.
+	 *
+	 * @param formatData to plan the checking of
+	 * @param sheetData of the sheet being checked
+	 */
+	EvaluationPlan(FormatData formatData, SheetData sheetData){
+		Set<String> columnTitles = formatData.getColumnTitles();
+
+		//Columns in the dependency graph come children first, then any
+		// columns that are not in the graph at all
+		List<String> order = new ArrayList<String>();
+		for ( String title : formatData.dependencyGraph.getEvaluationOrder() ){
+			if ( columnTitles.contains(title) ){
+				order.add(title);
+			}
+		}
+		List<String> independent = new ArrayList<String>(columnTitles);
+		independent.removeAll(order);
+		Collections.sort(independent);
+		order.addAll(independent);
+
+		//Store each column's data by position
+		int size = order.size();
+		titles = order.toArray(new String[size]);
+		formats = new ColumnFormatData[size];
+		columnIndexes = new int[size];
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		for ( int i = 0 ; i < size ; i++ ){
+			formats[i] = formatData.getColumnFormat(titles[i]);
+			columnIndexes[i] = sheetData.getColumnIndex(titles[i]);
+			positions.put(titles[i], i);
+		}
+
+		//Dependencies on columns that are not checked are always resolved,
+		// so only checked columns are kept
+		dependencies = new int[size][];
+		for ( int i = 0 ; i < size ; i++ ){
+			List<Integer> deps = new ArrayList<Integer>();
+			for ( String dep : formats[i].getDependencies() ){
+				if ( positions.containsKey(dep) ){
+					deps.add(positions.get(dep));
+				}
+			}
+			dependencies[i] = new int[deps.size()];
+			for ( int j = 0 ; j < deps.size() ; j++ ){
+				dependencies[i][j] = deps.get(j);
+			}
+		}
+
+		//Columns that are read but not checked, such as constants from other
+		// systems that conditions compare against
+		Set<String> readOnly = new TreeSet<String>();
+		for ( int i = 0 ; i < size ; i++ ){
+			for ( String dep : formats[i].getDependencies() ){
+				if ( !positions.containsKey(dep) && sheetData.hasHeader(dep) ){
+					readOnly.add(dep);
+				}
+			}
+		}
+		inputTitles = new String[size+readOnly.size()];
+		inputColumnIndexes = new int[inputTitles.length];
+		System.arraycopy(titles, 0, inputTitles, 0, size);
+		System.arraycopy(columnIndexes, 0, inputColumnIndexes, 0, size);
+		int position = size;
+		for ( String title : readOnly ){
+			inputTitles[position] = title;
+			inputColumnIndexes[position] = sheetData.getColumnIndex(title);
+			position++;
+		}
+
+		//Find circular dependencies up front
+		cyclic = new boolean[size];
+		Set<String> cyclicTitles = new TreeSet<String>();
+		for ( String title : formatData.dependencyGraph.getCyclicNodes() ){
+			if ( positions.containsKey(title) ){
+				cyclic[positions.get(title)] = true;
+				cyclicTitles.add(title);
+			}
+		}
+		if ( !cyclicTitles.isEmpty() ){
+			Logger.log("Error", "Columns "+Utils.nicePrint(cyclicTitles)+" depend on"
+					+" themselves through a circular dependency and will not be checked");
+		}
+	}
+
+	/**
+	 * Returns the number of columns in the plan
+	 * @return the number of columns in the plan
+	 */
+	int size(){
+		return titles.length;
+	}
+}
@@ -1,25 +1,34 @@
 package patcher;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.RichTextString;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 
+import patcher.CheckMetrics.Rule;
 import patcher.ExcelUtils.UrgencyLevel;
+import patcher.FindingsReport.Finding;
+import patcher.FindingsReport.Kind;
 import patcher.format.ColumnFormatData;
 import patcher.format.DataType;
 import patcher.format.FormatData;
 import settings.Settings;
 import settings.Settings.BooleanSetting;
+import settings.SettingsSnapshot;
 import utils.Logger;
 import utils.Utils;
 
@@ -31,15 +40,6 @@ import utils.Utils;
  * @author Ashton Dyer (WabashCannon)
  */
 public class ExcelChecker {
-	/** Global instance */
-	public static ExcelChecker checker = null;
-	
-	// State data used while checking
-	/** Current row to query */
-	private Row currentRow;
-	/** Current cell to query. */
-	private Cell currentCell;
-	
 	/** Enum for indexing the status of dependency resolution for
 	 * a column */
 	public enum ResolvedStatus{ RESOLVED, UNRESOLVED, NOT_CHECKED };
@@ -51,6 +51,33 @@ public class ExcelChecker {
 	private SheetData sheetData;
 	/** The format data loaded from the format file */
 	private FormatData formatData;
+	/** The order in which the columns of each row are checked */
+	private EvaluationPlan plan;
+	/** Lock held while reading or changing the workbook. POI workbooks are not
+	 * thread safe, so all changes to cells, comments and styles, and all reads of
+	 * cells outside the column snapshot, are made while holding it. The workbook
+	 * itself is used, so checkers on the same workbook share the lock. */
+	private final Object workbookLock;
+	/** Shared styles used when coloring cells */
+	private CellStyleCache styleCache;
+	/** Settings taken when the check started, read without locking for every cell */
+	private final SettingsSnapshot settings;
+	/** Fingerprints of the rows from the last check, null if there were none */
+	private RowFingerprints previousFingerprints = null;
+	/** Fingerprints of the rows of this check, null if not checking incrementally */
+	private RowFingerprints fingerprints = null;
+	/** Results of recently checked rows, null if duplicate rows are checked again */
+	private RowMemo rowMemo = null;
+	/** Counters and timings of the checks, null if they are not kept */
+	private CheckMetrics metrics = null;
+	/** Metrics of each checked column by its format data, null if they are not kept */
+	private Map<ColumnFormatData, CheckMetrics.ColumnMetrics> columnMetrics = null;
+	/** Tracker told about each finished row, null if progress is not tracked */
+	private ProgressTracker progress = null;
+	/** Report the findings of each row are written to, null if there is none */
+	private FindingsReport report = null;
+	/** Snapshot of the columns the checks read, null if they read the cells */
+	private ColumnSnapshot snapshot = null;
 	
 	/**
 	 * Constructs a new checker for the given workbook and format data
@@ -58,19 +85,87 @@ public class ExcelChecker {
 	 * @param data
 	 */
 	public ExcelChecker(Workbook wb, FormatData data){
-		//Store the global instance
-		ExcelChecker.checker = this;
-		
 		//Always run on the first sheet of the workbook
-		this.sheet = wb.getSheetAt(0);
-		
-		//Create the sheet data and format data
-		this.sheetData = new SheetData(sheet);
+		this(wb.getSheetAt(0), data);
+	}
+	
+	/**
+	 * Constructs a new checker for the given sheet and format data, using the
+	 * current settings
+	 * 
+	 * @param sheet to check
+	 * @param data format data to check with
+	 */
+	public ExcelChecker(Sheet sheet, FormatData data){
+		this(sheet, data, Settings.snapshot());
+	}
+	
+	/**
+	 * Constructs a new checker for the given sheet and format data that checks
+	 * with the given settings
+	 * 
+	 * @param sheet to check
+	 * @param data format data to check with
+	 * @param settings to check with
+	 */
+	public ExcelChecker(Sheet sheet, FormatData data, SettingsSnapshot settings){
+		this(sheet, data, new CellStyleCache(sheet.getWorkbook()), settings);
+	}
+	
+	/**
+	 * Constructs a new checker for the given sheet that colors cells with the
+	 * given style cache. Checkers of different sheets in the same workbook share
+	 * a cache so that each colored style is only created once.
+	 * 
+	 * @param sheet to check
+	 * @param data format data to check with
+	 * @param styleCache of the sheet's workbook
+	 * @param settings to check with
+	 */
+	ExcelChecker(Sheet sheet, FormatData data, CellStyleCache styleCache, SettingsSnapshot settings){
+		this(sheet, new SheetData(sheet), data, styleCache, settings);
+	}
+	
+	/**
+	 * Constructs a new checker for rows that are streamed in rather than read
+	 * from a loaded sheet. Only patchRow(Row) may be used on such a checker.
+	 * 
+	 * @param sheetData created from the header row of the streamed sheet
+	 * @param data format data to check with
+	 * @param settings to check with
+	 */
+	public ExcelChecker(SheetData sheetData, FormatData data, SettingsSnapshot settings){
+		this(null, sheetData, data, new CellStyleCache(sheetData.getSheet().getWorkbook()), settings);
+	}
+	
+	/**
+	 * Constructs a new checker for the given sheet, its sheet data and the format data
+	 * @param sheet to check, null when rows are streamed
+	 * @param sheetData of the sheet
+	 * @param data format data to check with
+	 * @param styleCache of the sheet's workbook
+	 * @param settings to check with
+	 */
+	private ExcelChecker(Sheet sheet, SheetData sheetData, FormatData data, CellStyleCache styleCache,
+			SettingsSnapshot settings){
+		//Store the sheet data and format data
+		this.sheet = sheet;
+		this.sheetData = sheetData;
 		this.formatData = data;
+		this.workbookLock = sheetData.getSheet().getWorkbook();
+		this.styleCache = styleCache;
+		this.settings = settings;
 		
 		//Rough validation check of the format data
 		checkFormatData();
 		Logger.log("Format file was most likely valid");
+		
+		//Work out the order to check columns in once, rather than per row
+		plan = new EvaluationPlan(formatData, sheetData);
+		
+		if ( settings.get(BooleanSetting.MEMOIZE) ){
+			rowMemo = new RowMemo(RowMemo.DEFAULT_CAPACITY);
+		}
 	}
 	
 	/**
@@ -112,6 +207,25 @@ public class ExcelChecker {
 		}
 	}
 
+	/**
+	 * Checks incrementally, recording the fingerprint of every row into the given
+	 * fingerprints and reusing the findings of the rows that have not changed
+	 * since the previous fingerprints were recorded. Must be called before any
+	 * rows are checked.
+	 * 
+	 * @param previous fingerprints of the last check, or null if there was none
+	 * @param current fingerprints to record this check's rows into
+	 */
+	public void setFingerprints(RowFingerprints previous, RowFingerprints current){
+		if ( !sheetData.hasHeader(current.getKeyColumn()) ){
+			Logger.log("Warning: The key column "+current.getKeyColumn()+" was not found"
+					+" in sheet "+getSheetName()+", so every row will be checked.");
+			return;
+		}
+		this.previousFingerprints = previous;
+		this.fingerprints = current;
+	}
+	
 	/**
 	 * Cleans the excel sheet of any comments and coloring
 	 */
@@ -119,14 +233,13 @@ public class ExcelChecker {
 		for ( int rowIndex : sheetData.getLoanRowIndexes() ){
 			Row row = sheet.getRow(rowIndex);
 			
-			for ( String header : formatData.getColumnTitles() ){
-				int columnIndex = sheetData.getColumnIndex(header);
+			for ( int columnIndex : plan.columnIndexes ){
 				Cell cell = row.getCell(columnIndex);
 				if ( cell == null ){
 					continue;
 				}
 				
-				ExcelUtils.cleanCell(cell);
+				ExcelUtils.cleanCell(cell, styleCache);
 			}
 		}
 	}
@@ -139,185 +252,396 @@ public class ExcelChecker {
 	 * excel sheet.
 	 */
 	public void patchAllLoans(){
-		for ( int rowIndex : sheetData.getLoanRowIndexes() ){
-			patchRow(rowIndex);
+		takeSnapshot();
+		try {
+			for ( int rowIndex : sheetData.getLoanRowIndexes() ){
+				patchRow(sheet.getRow(rowIndex));
+			}
+		} finally {
+			snapshot = null;
+		}
+		logMemoStatistics();
+	}
+	
+	/** Number of row batches given to each worker thread, so that threads which
+	 * finish early can pick up remaining work */
+	private static final int BATCHES_PER_THREAD = 4;
+	
+	/**
+	 * Checks and patches all of the rows in the excel sheet using the given
+	 * number of worker threads. The rows are split into batches which the workers
+	 * check independently. Reads and changes of cells are serialized through
+	 * the workbook lock, as both go through the workbook's shared strings and
+	 * styles, so only the evaluation of the rows runs concurrently. Rows read
+	 * from a column snapshot need no lock.
+	 * <p>
+	 * If a worker fails or the wait for them is interrupted, the rows left are
+	 * not checked and an IllegalStateException is thrown, so the half checked
+	 * sheet is not saved.
+	 * 
+	 * @param threadCount number of worker threads to use
+	 * @throws IllegalStateException if the rows could not all be checked
+	 */
+	public void patchAllLoans(int threadCount){
+		final Vector<Integer> rowIndexes = sheetData.getLoanRowIndexes();
+		if ( threadCount <= 1 || rowIndexes.size() < 2 ){
+			patchAllLoans();
+			return;
+		}
+		takeSnapshot();
+		try {
+			patchBatches(rowIndexes, threadCount);
+		} finally {
+			snapshot = null;
 		}
 	}
 	
 	/**
-	 * Checks and patches an individual row.
+	 * Checks the rows in batches on the given number of worker threads and
+	 * waits for them to finish
 	 * 
-	 * @param rowIndex of row to check
+	 * @param rowIndexes of the rows to check
+	 * @param threadCount number of worker threads to use
+	 * @throws IllegalStateException if a worker failed or the wait was interrupted
 	 */
-	private void patchRow(int rowIndex){
-		currentRow = sheet.getRow(rowIndex);
+	private void patchBatches(final Vector<Integer> rowIndexes, int threadCount){
+		//Split the rows into contiguous batches
+		int batchCount = Math.min(rowIndexes.size(), threadCount*BATCHES_PER_THREAD);
+		int batchSize = (rowIndexes.size()+batchCount-1) / batchCount;
 		
-		// Create a map to store the status of each column in the row
-		Set<String> columnNames = formatData.getColumnTitles();
-		Map<String, ResolvedStatus> columnStatuses = 
-				new HashMap<String, ResolvedStatus>();
-		for ( String columnName : columnNames ){
-			columnStatuses.put(columnName, ResolvedStatus.NOT_CHECKED);
-		}
-		LinkedList<String> parentStack = new LinkedList<String>();
+		ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+		List<Future<?>> batches = new ArrayList<Future<?>>();
+		for ( int start = 0 ; start < rowIndexes.size() ; start += batchSize ){
+			final int first = start;
+			final int last = Math.min(start+batchSize, rowIndexes.size());
+			batches.add( pool.submit(new Runnable(){
+				@Override
+				public void run() {
+					for ( int i = first ; i < last ; i++ ){
+						patchRow(sheet.getRow(rowIndexes.get(i)));
+					}
+				}
+			}) );
+		}
+		pool.shutdown();
 		
-		//Check all the cells, since names to check is all column names
-		checkCellsWithNames(columnNames, columnStatuses, parentStack);
+		//Wait for all the batches to finish
+		for ( Future<?> batch : batches ){
+			try {
+				batch.get();
+			} catch (InterruptedException e) {
+				Logger.log("Error", "Interrupted while waiting for rows to be checked");
+				stopWorkers(pool);
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while checking the rows of sheet "
+						+getSheetName(), e);
+			} catch (ExecutionException e) {
+				Logger.log("Error", "A worker failed while checking rows: "+e.getCause());
+				stopWorkers(pool);
+				throw new IllegalStateException("A worker failed while checking the rows of sheet "
+						+getSheetName(), e.getCause());
+			}
+		}
+		logMemoStatistics();
+	}
+	
+	/**
+	 * Stops the workers of a failed check. Tasks not yet started are dropped,
+	 * and the ones already running are waited for, so none of them touches the
+	 * workbook after it is closed. Keeps the interrupted status of the calling
+	 * thread if it is interrupted while waiting.
+	 * 
+	 * @param pool of the workers to stop
+	 */
+	static void stopWorkers(ExecutorService pool){
+		pool.shutdownNow();
+		boolean interrupted = false;
+		while ( true ){
+			try {
+				if ( pool.awaitTermination(1, TimeUnit.SECONDS) ){
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if ( interrupted ){
+			Thread.currentThread().interrupt();
+		}
 	}
 	
 	/**
-	 * Checks all of the cells in the column's with titles in namesToCheck.
-	 * Returns if all of the cells to check had successfully met their
-	 * dependencies.
+	 * Checks and patches an individual row. This is called directly for
+	 * each row when the input is streamed.
+	 * <p>
+	 * When checking incrementally, a row whose key and fingerprint match a row
+	 * of the previous check gets that row's changes and findings copied instead
+	 * of being checked. Likewise, a row with the same contents as a recently
+	 * checked row gets that row's changes and findings when rows are memoized.
 	 * 
-	 * @param namesToCheck set of names to check
-	 * @param allStatuses the map of names to resolved statuses for all columns
-	 * @param parentStack stack of names of parents traversed
-	 * @return a set of the names of unresolved columns
+	 * @param row to check
 	 */
-	private Set<String> checkCellsWithNames(Set<String> namesToCheck,
-			Map<String, ResolvedStatus> allStatuses, 
-			LinkedList<String> parentStack) {
-		//Create set to track unresolved columns
-		Set<String> unresolvedNames = new HashSet<String>();
+	public void patchRow(Row row){
+		RowContext context = new RowContext(row, sheetData, snapshot);
 		
-		//Add any already unresolved names to the list
-		for ( String name : namesToCheck ){
-			if ( allStatuses.get(name) == ResolvedStatus.UNRESOLVED ){
-				unresolvedNames.add(name);
+		String key = null;
+		CellContents[] inputs = null;
+		byte[] fingerprint = null;
+		if ( fingerprints != null ){
+			inputs = readInputs(context);
+			fingerprint = RowFingerprints.fingerprint(plan.inputTitles, inputs);
+			key = context.getString(fingerprints.getKeyColumn());
+			if ( key.isEmpty() ){
+				key = null;
+			} else {
+				RowFingerprints.RowRecord previous = previousFingerprints == null ? 
+						null : previousFingerprints.getRecord(getSheetName(), key);
+				if ( previous != null && previous.matches(fingerprint) ){
+					replayRecord(context, previous);
+					fingerprints.putReusedRecord(getSheetName(), key, previous);
+					countRow(true);
+					writeFindings(context);
+					return;
+				}
 			}
 		}
 		
-		//Now check all names with status NOT_CHECKED
+		if ( rowMemo != null ){
+			if ( inputs == null ){
+				inputs = readInputs(context);
+			}
+			RowFingerprints.RowRecord duplicate = rowMemo.get(inputs);
+			if ( duplicate != null ){
+				replayRecord(context, duplicate);
+				if ( key != null ){
+					fingerprints.putRecord(getSheetName(), key, duplicate);
+				}
+				countRow(true);
+				writeFindings(context);
+				return;
+			}
+		}
 		
-		// Tracks if all names in namesToCheck have been checked
-		boolean checkedAll = false;
+		checkRow(context);
+		countRow(false);
 		
-		while ( !checkedAll ){
-			//find next name to check
-			String nameToCheck = getNextName(namesToCheck, allStatuses);
-			
-			//Check the name if one was found
-			if ( nameToCheck != null ){
-				//First check that the cell is not a parent of itself
-				// otherwise, it is circularly dependent
-				if ( parentStack.contains(nameToCheck) ){
-					//Mark cell as unresolvable and continue
-					allStatuses.remove(nameToCheck);
-					allStatuses.put(nameToCheck, ResolvedStatus.UNRESOLVED);
-					
-					unresolvedNames.add(nameToCheck);
-					continue;
-				}
-				
-				//Check children if they exists
-				Set<String> childrenNames = formatData.getColumnFormat(nameToCheck).getDependencies();
-				if ( !childrenNames.isEmpty() ){
-					parentStack.push(nameToCheck);
-					Set<String> unresolvedChildren = 
-							checkCellsWithNames(childrenNames, allStatuses, parentStack);
-					parentStack.pop();
-					//If the children did not resolve, the parent won't
-					//so we should abort
-					if ( unresolvedChildren.size() != 0 ){
-						//Modify cell status
-						allStatuses.remove(nameToCheck);
-						allStatuses.put(nameToCheck, ResolvedStatus.UNRESOLVED);
-						
-						//Comment on the cells
-						addCellComment(nameToCheck, 
-								"Could not check cell because it depends on poorly filled cells. This cell depended on cells "+Utils.nicePrint(unresolvedChildren),
-								UrgencyLevel.WARNING);
-						for ( String childName : unresolvedChildren ){
-							addCellComment(childName, "", UrgencyLevel.CRITICAL);
-							addCellComment(childName, "--- Critical Errors", UrgencyLevel.CRITICAL);
-							addCellComment(childName, "Cell "+nameToCheck+" needs this cell to be nicely filled before it can be checked", UrgencyLevel.CRITICAL);
-						}
-						
-						//Add to unresolved list and continue
-						unresolvedNames.add(nameToCheck);
-						continue;
+		if ( key != null || rowMemo != null ){
+			RowFingerprints.RowRecord record = recordRow(context, fingerprint, inputs);
+			if ( key != null ){
+				fingerprints.putRecord(getSheetName(), key, record);
+			}
+			if ( rowMemo != null ){
+				rowMemo.put(inputs, record);
+			}
+		}
+		writeFindings(context);
+	}
+	
+	/**
+	 * Checks and patches the columns of a row, recording its findings in the
+	 * context.
+	 * <p>
+	 * The columns are checked in the order of the evaluation plan, so every
+	 * column's dependencies have already been checked when it is reached. A
+	 * column is only checked if all of its dependencies resolved.
+	 * 
+	 * @param context of the row to check
+	 */
+	private void checkRow(RowContext context){
+		// Track the status of each column in the row by plan position
+		ResolvedStatus[] statuses = new ResolvedStatus[plan.size()];
+		for ( int i = 0 ; i < statuses.length ; i++ ){
+			statuses[i] = plan.cyclic[i] ? 
+					ResolvedStatus.UNRESOLVED : ResolvedStatus.NOT_CHECKED;
+		}
+		
+		for ( int i = 0 ; i < statuses.length ; i++ ){
+			//Find any dependencies that did not resolve
+			Set<String> unresolvedChildren = null;
+			for ( int dep : plan.dependencies[i] ){
+				if ( statuses[dep] == ResolvedStatus.UNRESOLVED ){
+					if ( unresolvedChildren == null ){
+						unresolvedChildren = new HashSet<String>();
 					}
+					unresolvedChildren.add(plan.titles[dep]);
 				}
+			}
+			
+			//If the children did not resolve, the parent won't
+			if ( unresolvedChildren != null ){
+				statuses[i] = ResolvedStatus.UNRESOLVED;
 				
-				//Now check the cell itself
-				boolean resolved = patchCell(nameToCheck);
-				
-				//And update the results of the check
-				allStatuses.remove(nameToCheck);
-				if ( resolved ){
-					allStatuses.put(nameToCheck, ResolvedStatus.RESOLVED);
-				} else {
-					allStatuses.put(nameToCheck, ResolvedStatus.UNRESOLVED);
-					unresolvedNames.add(nameToCheck);
+				//Comment on the cells
+				String name = plan.titles[i];
+				addFinding(context, getSafeCell(context, plan.columnIndexes[i]), Kind.UNCHECKED,
+						"Could not check cell because it depends on poorly filled cells. This cell depended on cells "+Utils.nicePrint(unresolvedChildren),
+						UrgencyLevel.WARNING);
+				for ( int dep : plan.dependencies[i] ){
+					if ( statuses[dep] == ResolvedStatus.UNRESOLVED ){
+						Cell depCell = getSafeCell(context, plan.columnIndexes[dep]);
+						addCellComment(context, depCell, "", UrgencyLevel.CRITICAL);
+						addCellComment(context, depCell, "--- Critical Errors", UrgencyLevel.CRITICAL);
+						addFinding(context, depCell, Kind.BLOCKING,
+								"Cell "+name+" needs this cell to be nicely filled before it can be checked",
+								UrgencyLevel.CRITICAL);
+					}
 				}
-				
-			} else { //nameToCheck == null
-				checkedAll = true;
+				continue;
 			}
+			
+			//Columns in a circular dependency can never be checked
+			if ( statuses[i] == ResolvedStatus.UNRESOLVED ){
+				continue;
+			}
+			
+			//Now check the cell itself
+			Cell cell = getSafeCell(context, plan.columnIndexes[i]);
+			boolean resolved = patchCell(context, cell, plan.formats[i]);
+			statuses[i] = resolved ? ResolvedStatus.RESOLVED : ResolvedStatus.UNRESOLVED;
 		}
-		
-		return unresolvedNames;
-		
 	}
 	
+	// ####################################################
+	// ### Incremental checking and duplicate rows
+	// ####################################################
 	/**
-	 * Returns a name in the list of namesToCheck if allStatuses has
-	 * that name's ResolvedStatus as NOT_CHECKED. null is returned
-	 * if no such name is found.
+	 * Returns the name of the sheet being checked, which the row fingerprints
+	 * are stored under
 	 * 
-	 * @param namesToCheck
-	 * @param allStatuses
-	 * @return a name in namesToCheck that has a resolved status of
-	 * NOT_CHECKED. null if none is found
+	 * @return the name of the sheet being checked
 	 */
-	private String getNextName(Set<String> namesToCheck, 
-			Map<String, ResolvedStatus> allStatuses){
-		String nameToCheck = null;
-		for ( String name : namesToCheck ){
-			if ( allStatuses.get(name) == ResolvedStatus.NOT_CHECKED ){
-				nameToCheck = name;
-				break;
-			}
+	private String getSheetName(){
+		return sheetData.getSheet().getSheetName();
+	}
+	
+	/**
+	 * Copies the columns the checks read into a snapshot, if the settings ask
+	 * for one, so the rows are read from it rather than from their cells. The
+	 * data types of the numbers in each checked column are checked while it is
+	 * taken. Streamed rows are not in the sheet ahead of time, so they have none.
+	 * <p>
+	 * A new snapshot is taken for every run and dropped when the run ends, so a
+	 * later run reads the cells as they are then rather than as the first run
+	 * found them.
+	 */
+	private void takeSnapshot(){
+		snapshot = null;
+		if ( sheet == null || !settings.get(BooleanSetting.SNAPSHOT) ){
+			return;
+		}
+		Vector<Integer> rowIndexes = sheetData.getLoanRowIndexes();
+		DataType[] dataTypes = new DataType[plan.inputColumnIndexes.length];
+		for ( int i = 0 ; i < plan.size() ; i++ ){
+			dataTypes[i] = plan.formats[i].getType();
 		}
-		return nameToCheck;
+		snapshot = new ColumnSnapshot(sheet, rowIndexes, plan.inputColumnIndexes, dataTypes);
+		Logger.logVerbose("Took a snapshot of "+plan.inputColumnIndexes.length+" columns and "
+				+rowIndexes.size()+" rows of sheet "+getSheetName()+", holding "
+				+snapshot.getPoolSize()+" different values");
 	}
 	
+	/**
+	 * Logs how many rows were copied from a duplicate row rather than checked
+	 */
+	private void logMemoStatistics(){
+		if ( rowMemo != null ){
+			Logger.log("Copied the results of "+rowMemo.getHitCount()+" duplicate rows and checked "
+					+rowMemo.getMissCount()+" distinct rows of sheet "+getSheetName());
+		}
+	}
 	
-	private boolean patchCell(String cellName){
-		int columnIndex = sheetData.getColumnIndex(cellName);
-		Cell cell = ExcelUtils.getSafeCell(currentRow, columnIndex);
-		
-		ColumnFormatData data = formatData.getColumnFormat(cellName);
-		return patchCell(cell, data);
+	/**
+	 * Returns the typed contents of the cells of the row that checking it reads,
+	 * in the order of the plan's input columns
+	 * 
+	 * @param context of the row to read
+	 * @return the contents of the row's input cells
+	 */
+	private CellContents[] readInputs(RowContext context){
+		CellContents[] inputs = new CellContents[plan.inputColumnIndexes.length];
+		for ( int i = 0 ; i < inputs.length ; i++ ){
+			inputs[i] = context.getContents(plan.inputColumnIndexes[i]);
+		}
+		return inputs;
+	}
+	
+	/**
+	 * Creates the record of a row that was just checked, holding the cells that
+	 * checking changed and the findings not yet written.
+	 * 
+	 * @param context of the checked row
+	 * @param fingerprint of the row before it was checked, null if not checking
+	 * incrementally
+	 * @param inputs typed contents of the row's input cells before it was checked
+	 * @return the record of the row
+	 */
+	private RowFingerprints.RowRecord recordRow(RowContext context, byte[] fingerprint, CellContents[] inputs){
+		RowFingerprints.RowRecord record = new RowFingerprints.RowRecord(fingerprint);
+		//Checked columns come first in the inputs, so they line up with the plan
+		for ( int i = 0 ; i < plan.size() ; i++ ){
+			CellContents contents = context.getContents(plan.columnIndexes[i]);
+			if ( !contents.equals(inputs[i]) ){
+				record.addEdit(plan.titles[i], contents);
+			}
+		}
+		context.getFindings().copyTo(record, sheetData);
+		return record;
+	}
+	
+	/**
+	 * Applies the changes and findings of a recorded row to a row with the same
+	 * fingerprint, as if the row had been checked.
+	 * 
+	 * @param context of the row to apply the record to
+	 * @param record of the matching row from the last check
+	 */
+	private void replayRecord(RowContext context, RowFingerprints.RowRecord record){
+		for ( Map.Entry<String, CellContents> edit : record.getEdits().entrySet() ){
+			Cell cell = getSafeCell(context, sheetData.getColumnIndex(edit.getKey()));
+			synchronized ( workbookLock ){
+				edit.getValue().applyTo(cell);
+			}
+			context.cellChanged(cell.getColumnIndex());
+		}
+		for ( RowFingerprints.CellFinding finding : record.getFindings() ){
+			Cell cell = getSafeCell(context, sheetData.getColumnIndex(finding.title));
+			addCellComment(context, cell, finding.comment, finding.urgency);
+		}
+		for ( Finding finding : record.getReported() ){
+			context.getFindings().addReported(finding);
+		}
 	}
 	
 	/**
 	 * Checks and patches the specified cells using the given column format data.
 	 * 
+	 * @param context of the row being checked
 	 * @param cell to check
 	 * @param format data to check with
 	 */
-	private boolean patchCell(Cell cell, ColumnFormatData format){
-		//Store the current cell
-		currentCell = cell;
+	private boolean patchCell(RowContext context, Cell cell, ColumnFormatData format){
+		long start = startTiming();
 		
 		//Check it and get any error messages
-		Vector<String> errors = checkCellFormat(cell, format);
+		Vector<String> errors = checkCellFormat(context, cell, format);
 		
 		//If there are no errors
 		if ( errors.size() == 0 ){
+			recordRule(format, Rule.PATCH, start, false, false);
 			return true;
 		} else {
-			fillCell(cell, format);
-			errors = checkCellFormat(cell, format);
+			fillCell(context, cell, format);
+			Vector<Kind> kinds = new Vector<Kind>();
+			errors = checkCellFormat(context, cell, format, kinds);
 			
 			if ( errors.size() > 0 ){
 				//Comment on a cell that had errors and was not fillable
-				addCellComment(cell, "--- Format Errors", UrgencyLevel.WARNING);
-				addCellComments(cell, errors, UrgencyLevel.WARNING);
+				addCellComment(context, cell, "--- Format Errors", UrgencyLevel.WARNING);
+				addCellComments(context, cell, errors, kinds, UrgencyLevel.WARNING);
+				recordRule(format, Rule.PATCH, start, true, false);
 				return false;
 			}
+			recordRule(format, Rule.PATCH, start, false, true);
 			return true;
 		}
 		/*
@@ -345,7 +669,7 @@ public class ExcelChecker {
 				
 			} else { //Cell could not be filled
 				//Comment on a cell that had errors and was not fillable
-				addCellComments(cell, errors, UrgencyLevel.WARNING);
+				addCellComments(context, cell, errors, UrgencyLevel.WARNING);
 				return false;
 			}
 		}
@@ -354,21 +678,38 @@ public class ExcelChecker {
 	
 	/**
 	 * Checks that the cell's format matches that specified in the column
-	 * format data.
+	 * format data. Package visible so it can be benchmarked on its own.
 	 * 
+	 * @param context of the row being checked
 	 * @param cell to check
 	 * @param format data to check against
 	 * @return a list of the errors
 	 */
-	private Vector<String> checkCellFormat(Cell cell, ColumnFormatData format){
+	Vector<String> checkCellFormat(RowContext context, Cell cell, ColumnFormatData format){
+		return checkCellFormat(context, cell, format, null);
+	}
+	
+	/**
+	 * Checks that the cell's format matches that specified in the column
+	 * format data, also listing the kind of each error.
+	 * 
+	 * @param context of the row being checked
+	 * @param cell to check
+	 * @param format data to check against
+	 * @param kinds list the kind of each error is added to, null for errors
+	 * that only add detail to the error before them. May be null.
+	 * @return a list of the errors
+	 */
+	private Vector<String> checkCellFormat(RowContext context, Cell cell, ColumnFormatData format,
+			Vector<Kind> kinds){
 		Vector<String> errors = new Vector<String>();
 		
-		if ( !checkIsRequired(cell, format) ){
-			errors.add("This cell is required and should not be blank.");
+		if ( !checkIsRequired(context, cell, format) ){
+			addError(errors, kinds, "This cell is required and should not be blank.", Kind.REQUIRED);
 		}
 		
-		boolean deleteIfNotRequired = Settings.getSetting(BooleanSetting.DELETE);
-		if ( !format.isRequired() && deleteIfNotRequired ){
+		boolean deleteIfNotRequired = settings.get(BooleanSetting.DELETE);
+		if ( !isRequired(context, format) && deleteIfNotRequired ){
 			return errors;
 		}
 		/*
@@ -377,54 +718,80 @@ public class ExcelChecker {
 			return errors;
 		}
 		*/
-		if ( !checkValue(cell, format) ){
-			errors.add("Has the wrong value filled in.");
+		if ( !checkValue(context, cell, format) ){
+			addError(errors, kinds, "Has the wrong value filled in.", Kind.WRONG_VALUE);
 		}
 		
-		if ( !checkMaxCharacterCount(cell, format) ){
+		if ( !checkMaxCharacterCount(context, cell, format) ){
 			String error = "Exceeds max character count of ";
 			error += format.getMaxCharacterCount();
-			error += " with value "+ExcelUtils.getCellContentsAsString(cell)+".";
-			errors.add(error);
+			error += " with value "+context.getString(cell.getColumnIndex())+".";
+			addError(errors, kinds, error, Kind.TOO_LONG);
 		}
-		if ( !checkDataType(cell, format) ){
+		if ( !checkDataType(context, cell, format) ){
 			String error = "Should have the data type of ";
 			error += format.getType().toString() + " but was a value of \"";
-			error += ExcelUtils.getCellContentsAsString(cell) + "\".";
-			errors.add(error);
+			error += context.getString(cell.getColumnIndex()) + "\".";
+			addError(errors, kinds, error, Kind.WRONG_TYPE);
 			if ( format.getType().toString().equals("Enumerable") ){
 				String error2 = "Should be one of the following strings: "+format.getType().getEnumValues();
-				errors.add(error2);
+				addError(errors, kinds, error2, null);
 			}
 		}
 		
 		return errors;
 	}
 	
+	/**
+	 * Adds an error to the list of errors, and its kind to the list of kinds
+	 * if there is one
+	 * 
+	 * @param errors to add the error to
+	 * @param kinds to add the kind to, may be null
+	 * @param error to add
+	 * @param kind of the error, or null if it only adds detail
+	 */
+	private static void addError(Vector<String> errors, Vector<Kind> kinds, String error, Kind kind){
+		errors.add(error);
+		if ( kinds != null ){
+			kinds.add(kind);
+		}
+	}
+	
 	// ####################################################
 	// ### 4 checkers for cell
 	// ####################################################
 	/**
 	 * Checks that the format data's "Required" condition is met
 	 * 
+	 * @param context of the row being checked
 	 * @param cell to check
 	 * @param format data to check against
 	 * @return if the condition is met
 	 */
-	private boolean checkIsRequired(Cell cell, ColumnFormatData format){
-		boolean isRequired = format.isRequired();
-		boolean deleteIfNotRequired = Settings.getSetting(BooleanSetting.DELETE);
+	private boolean checkIsRequired(RowContext context, Cell cell, ColumnFormatData format){
+		long start = startTiming();
+		boolean isRequired = isRequired(context, format);
+		boolean deleteIfNotRequired = settings.get(BooleanSetting.DELETE);
 		
 		if ( isRequired ){
-			return !ExcelUtils.isCellEmpty(cell);
+			boolean filled = !context.isEmpty(cell.getColumnIndex());
+			recordRule(format, Rule.REQUIRED, start, !filled, false);
+			return filled;
 		} else {
-			if ( deleteIfNotRequired && !ExcelUtils.isCellEmpty(cell) ){
-				String oldValue = ExcelUtils.getCellContentsAsString(cell);
-				cell.setCellValue("");
-				addCellComment(cell, 
+			boolean deleted = false;
+			if ( deleteIfNotRequired && !context.isEmpty(cell.getColumnIndex()) ){
+				String oldValue = context.getString(cell.getColumnIndex());
+				synchronized ( workbookLock ){
+					cell.setCellValue("");
+				}
+				context.cellChanged(cell.getColumnIndex());
+				addFinding(context, cell, Kind.DELETED,
 						"Deleted content since not required. Value was "+oldValue, 
-						UrgencyLevel.MINOR);
+						UrgencyLevel.MINOR, oldValue, "");
+				deleted = true;
 			}
+			recordRule(format, Rule.REQUIRED, start, false, deleted);
 			return true;
 		}
 	}
@@ -432,57 +799,86 @@ public class ExcelChecker {
 	/**
 	 * Checks that the format data's "MaxPossibleCharacters" condition is met
 	 * 
+	 * @param context of the row being checked
 	 * @param cell to check
 	 * @param format data to check against
 	 * @return if the condition is met
 	 */
-	private boolean checkMaxCharacterCount(Cell cell, ColumnFormatData format){
+	private boolean checkMaxCharacterCount(RowContext context, Cell cell, ColumnFormatData format){
+		long start = startTiming();
 		//Get the max character count
 		int maxCharCount = format.getMaxCharacterCount();
+		boolean fits;
 		
 		// Need special handling for dates
-		if (cell.getCellType() == Cell.CELL_TYPE_NUMERIC 
-				&& DateUtil.isCellDateFormatted(cell)) {
-			return maxCharCount >= 10;
-		}
-		
-		//For "formula" boolean contents, we want the length of "false"
-		// or "true" not "TRUE()" or "FALSE()". Ignores difference in 4 and 5
-		// characters.
-		String contents = ExcelUtils.getCellContentsAsString(cell);
-		if ( contents.equals("TRUE()") || contents.equals("FALSE()") ){
-			return maxCharCount > 5;
+		if ( context.isDate(cell.getColumnIndex()) ) {
+			fits = maxCharCount >= 10;
+		} else {
+			//For "formula" boolean contents, we want the length of "false"
+			// or "true" not "TRUE()" or "FALSE()". Ignores difference in 4 and 5
+			// characters.
+			String contents = context.getString(cell.getColumnIndex());
+			if ( contents.equals("TRUE()") || contents.equals("FALSE()") ){
+				fits = maxCharCount > 5;
+			} else {
+				//If the above don't apply, just check the contents
+				fits = contents.length() <= maxCharCount;
+			}
 		}
-		
-		//If the above don't apply, just check the contents
-		return contents.length() <= maxCharCount;
+		recordRule(format, Rule.MAX_CHARACTERS, start, !fits, false);
+		return fits;
 	}
 	
 	/**
 	 * Checks that the format data's "Type" condition is met
 	 * 
+	 * @param context of the row being checked
 	 * @param cell to check
 	 * @param format data to check against
 	 * @return if the condition is met
 	 */
-	private boolean checkDataType(Cell cell, ColumnFormatData format){
+	private boolean checkDataType(RowContext context, Cell cell, ColumnFormatData format){
+		long start = startTiming();
 		DataType dataType = format.getType();
 		if ( dataType == null ){
+			recordRule(format, Rule.DATA_TYPE, start, false, false);
 			return true;
 		} else if ( cell == null ){
+			recordRule(format, Rule.DATA_TYPE, start, true, false);
 			return false;
 		} else {
-			boolean goodType = dataType.checkCell(cell);
+			//Numbers were already checked a column at a time with the snapshot
+			int columnIndex = cell.getColumnIndex();
+			boolean goodType;
+			if ( context.hasCheckedNumber(columnIndex) ){
+				goodType = context.isValidNumber(columnIndex);
+			} else {
+				synchronized ( workbookLock ){
+					goodType = dataType.checkCell(cell);
+				}
+			}
+			boolean changed = false;
 			if ( !goodType ){
-				RichTextString newContent = dataType.fixDataType(cell);
+				String oldValue = context.getString(cell.getColumnIndex());
+				RichTextString newContent;
+				synchronized ( workbookLock ){
+					newContent = dataType.fixDataType(cell);
+					if ( newContent != null ){
+						cell.setCellType(Cell.CELL_TYPE_BLANK);
+						cell.setCellValue(newContent);
+					}
+				}
+				context.cellChanged(cell.getColumnIndex());
 				if ( newContent != null ){
-					cell.setCellType(Cell.CELL_TYPE_BLANK);
-					cell.setCellValue(newContent);
-					goodType = dataType.checkCell(cell);
-					addCellComment(cell, "Changed to try and fix data type.", 
-							UrgencyLevel.MINOR);
+					synchronized ( workbookLock ){
+						goodType = dataType.checkCell(cell);
+					}
+					addFinding(context, cell, Kind.FIXED_TYPE, "Changed to try and fix data type.", 
+							UrgencyLevel.MINOR, oldValue, newContent.toString());
+					changed = true;
 				}
 			}
+			recordRule(format, Rule.DATA_TYPE, start, !goodType, changed);
 			return goodType;
 		}
 	}
@@ -490,25 +886,32 @@ public class ExcelChecker {
 	/**
 	 * Checks that the format data's "Value" condition is met
 	 * 
+	 * @param context of the row being checked
 	 * @param cell to check
 	 * @param format data to check against
 	 * @return if the condition is met
 	 */
-	private boolean checkValue(Cell cell, ColumnFormatData format){
-		RichTextString desiredValue = format.getValue();
+	private boolean checkValue(RowContext context, Cell cell, ColumnFormatData format){
+		long start = startTiming();
+		RichTextString desiredValue = getValue(context, format);
 		if ( desiredValue == null ){
+			//Counted as a passed evaluation, as the other rules count theirs
+			recordRule(format, Rule.VALUE, start, false, false);
 			return true;
 		} else {
-			String value = ExcelUtils.getCellContentsAsString(cell);
+			String value = context.getString(cell.getColumnIndex());
 			String desired = desiredValue.toString();
+			boolean matches;
 			
-			if ( Utils.isNumber(value) && Utils.isNumber(desired) ){
-				Double a = Double.parseDouble(value);
-				Double b = Double.parseDouble(value);
-				return (a-b)<0.000001;
+			double a = Utils.parseNumber(value);
+			double b = Utils.parseNumber(desired);
+			if ( !Double.isNaN(a) && !Double.isNaN(b) ){
+				matches = Math.abs(a-b)<0.000001;
+			} else {
+				matches = value.equals(desired);
 			}
-			
-			return value.equals(desired);
+			recordRule(format, Rule.VALUE, start, !matches, false);
+			return matches;
 		}
 	}
 	
@@ -516,94 +919,270 @@ public class ExcelChecker {
 	 * Attempts to auto-fill the cell based on the given format data. Returns 
 	 * if the auto-fill was successful.
 	 * 
+	 * @param context of the row being checked
 	 * @param cell to try to fill
 	 * @param format data to use when trying to fill
 	 * @return if the cell was filled successfully
 	 */
-	private boolean fillCell(Cell cell, ColumnFormatData format){
+	private boolean fillCell(RowContext context, Cell cell, ColumnFormatData format){
 		assert( cell != null );
-		RichTextString autofillValue = format.getValue();
+		long start = startTiming();
+		RichTextString autofillValue = getValue(context, format);
 		if ( autofillValue != null ){			
 			//Comment on the change
+			String oldValue = context.getString(cell.getColumnIndex());
 			String comm = "Changed to fix a wrong value. Had value of \"" 
-					+ ExcelUtils.getCellContentsAsString(cell) + "\".";
-			addCellComment(cell, comm , UrgencyLevel.MINOR);
+					+ oldValue + "\".";
 			
 			//Clear the cell and set the new value
-			cell.setCellType(Cell.CELL_TYPE_BLANK);
-			cell.setCellValue( autofillValue );
-			format.getType().fixDataType(cell);
+			String newValue;
+			synchronized ( workbookLock ){
+				cell.setCellType(Cell.CELL_TYPE_BLANK);
+				cell.setCellValue( autofillValue );
+				format.getType().fixDataType(cell);
+				newValue = ExcelUtils.getCellContentsAsString(cell);
+			}
+			context.cellChanged(cell.getColumnIndex());
+			addFinding(context, cell, Kind.FILLED, comm, UrgencyLevel.MINOR, oldValue, newValue);
 			
+			recordRule(format, Rule.FILL, start, false, true);
 			return true;
 		} else {
+			recordRule(format, Rule.FILL, start, true, false);
 			return false;
 		}
 	}
 	
 	// ####################################################
-	// ### public cell checker methods for dependencies
+	// ### Metrics and reports
 	// ####################################################
 	/**
-	 * Returns the cell in the column with the given title that is in the row of
-	 * the currentCell. This method is a bit of a visibility hack, so that other classes
-	 * can query the sheet. Ideally I will fix this for encapsulation purposes.
+	 * Counts and times the checks of every column into the given metrics. Must
+	 * be called before any rows are checked.
 	 * 
-	 * @param title of the column that the desired cell is in
-	 * @return the cell in the column with the specified title and the current cell's row
+	 * @param metrics to record into
 	 */
-	public Cell getColumnForCurrentCellRow(String title){
-		if ( currentCell == null ){
-			Logger.log("Warning: Attempted to query currentCell when it was null");
-			return null;
+	public void setMetrics(CheckMetrics metrics){
+		columnMetrics = new IdentityHashMap<ColumnFormatData, CheckMetrics.ColumnMetrics>();
+		for ( int i = 0 ; i < plan.size() ; i++ ){
+			columnMetrics.put(plan.formats[i], metrics.getColumn(getSheetName(), plan.titles[i]));
 		}
-		int columnIndex =  sheetData.getColumnIndex(title);
-		Row row = currentCell.getRow();
-		Cell cell = row.getCell(columnIndex);
-		return cell;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Writes the findings of every row to the given report, whether or not
+	 * they are also written to the workbook. Must be called before any rows
+	 * are checked.
+	 * 
+	 * @param report to write the findings to
+	 */
+	public void setReport(FindingsReport report){
+		this.report = report;
+	}
+	
+	/**
+	 * Reports each finished row to the given progress tracker, and adds the
+	 * rows of the sheet to its total unless they are streamed. Must be called
+	 * before any rows are checked.
+	 * 
+	 * @param progress tracker to report to
+	 */
+	public void setProgressTracker(ProgressTracker progress){
+		if ( sheet != null ){
+			progress.addTotalRows(sheetData.getLoanRowIndexes().size());
+		}
+		this.progress = progress;
+	}
+	
+	/**
+	 * Counts a finished row in the metrics and progress, if they are kept
+	 * 
+	 * @param reused if the row's results were copied rather than checked
+	 */
+	private void countRow(boolean reused){
+		if ( progress != null ){
+			progress.rowDone();
+		}
+		if ( metrics == null ){
+			return;
+		}
+		if ( reused ){
+			metrics.countReusedRow();
+		} else {
+			metrics.countCheckedRow();
+		}
+	}
+	
+	/**
+	 * Returns the time to measure a rule from, or 0 if metrics are not kept
+	 * @return the current time in nanoseconds, or 0
+	 */
+	private long startTiming(){
+		return metrics == null ? 0 : System.nanoTime();
+	}
+	
+	/**
+	 * Records an evaluation of a rule of the column in the metrics, if they
+	 * are kept
+	 * 
+	 * @param format of the column the rule belongs to
+	 * @param rule that was evaluated
+	 * @param start time returned by startTiming before the rule was evaluated
+	 * @param failed if the rule found a problem
+	 * @param fixed if the rule changed the cell
+	 */
+	private void recordRule(ColumnFormatData format, Rule rule, long start, boolean failed, boolean fixed){
+		if ( metrics == null ){
+			return;
+		}
+		CheckMetrics.ColumnMetrics column = columnMetrics.get(format);
+		if ( column != null ){
+			column.record(rule, System.nanoTime()-start, failed, fixed);
+		}
+	}
+	
+	/**
+	 * Returns if the column's Required specification holds for the row,
+	 * timing the evaluation of its condition
+	 * 
+	 * @param context of the row being checked
+	 * @param format of the column
+	 * @return if the column is required in the row
+	 */
+	private boolean isRequired(RowContext context, ColumnFormatData format){
+		long start = startTiming();
+		boolean required = format.isRequired(context);
+		recordRule(format, Rule.REQUIRED_CONDITION, start, false, false);
+		return required;
+	}
+	
+	/**
+	 * Returns the value the column's Value specification gives for the row,
+	 * timing the evaluation of its conditions
+	 * 
+	 * @param context of the row being checked
+	 * @param format of the column
+	 * @return the value of the column in the row, or null if it has none
+	 */
+	private RichTextString getValue(RowContext context, ColumnFormatData format){
+		long start = startTiming();
+		RichTextString value = format.getValue(context);
+		recordRule(format, Rule.VALUE_CONDITION, start, false, false);
+		return value;
 	}
 	
 	// ####################################################
 	// ### private utility methods
 	// ####################################################
-	private void addCellComment(String cellName, String comment, 
-			UrgencyLevel urgency){
-		int cellIndex = sheetData.getColumnIndex(cellName);
-		Cell cell = ExcelUtils.getSafeCell(currentRow, cellIndex);
-		addCellComment(cell, comment, urgency);
+	/**
+	 * Returns the cell of the row at the column index, creating it if it does
+	 * not exist yet.
+	 * 
+	 * @param context of the row being checked
+	 * @param columnIndex of the cell
+	 * @return the cell of the row at the column index
+	 */
+	private Cell getSafeCell(RowContext context, int columnIndex){
+		Cell cell = context.getRow().getCell(columnIndex);
+		if ( cell == null ){
+			synchronized ( workbookLock ){
+				cell = ExcelUtils.getSafeCell(context.getRow(), columnIndex);
+			}
+		}
+		return cell;
 	}
 	
 	/**
-	 * Wrapper method to call ExcelUtils' comment method if the settings permit 
-	 * it.
+	 * Records the errors of a cell in the row's findings.
 	 * 
+	 * @param context of the row being checked
 	 * @param cell to comment on
 	 * @param comments to put in the comment
+	 * @param kinds of the comments, null for comments that only add detail
 	 * @param urgency used in coloring the cell
 	 */
-	private void addCellComments(Cell cell, Vector<String> comments, 
-			UrgencyLevel urgency){
-		for ( String comment : comments ){
-			addCellComment(cell, comment, urgency);
+	private void addCellComments(RowContext context, Cell cell, Vector<String> comments, 
+			Vector<Kind> kinds, UrgencyLevel urgency){
+		String value = context.getString(cell.getColumnIndex());
+		for ( int i = 0 ; i < comments.size() ; i++ ){
+			if ( kinds.get(i) == null ){
+				addCellComment(context, cell, comments.get(i), urgency);
+			} else {
+				addFinding(context, cell, kinds.get(i), comments.get(i), urgency, value, null);
+			}
 		}
 	}
 	
 	/**
-	 * Wrapper method to call ExcelUtils' comment method if the settings permit 
-	 * it.
+	 * Records a comment on the cell in the row's findings. They are written
+	 * to the workbook by writeFindings once the whole row has been checked.
 	 * 
+	 * @param context of the row being checked
 	 * @param cell to comment on
 	 * @param comment text to put in the comment
 	 * @param urgency used in coloring the cell
 	 */
-	private void addCellComment(Cell cell, String comment, 
+	private void addCellComment(RowContext context, Cell cell, String comment, 
+			UrgencyLevel urgency){
+		context.getFindings().add(cell, comment, urgency);
+	}
+	
+	/**
+	 * Records a finding on the cell in the row's findings, commenting on the
+	 * cell and keeping it for the findings report.
+	 * 
+	 * @param context of the row being checked
+	 * @param cell the finding is about
+	 * @param kind of finding
+	 * @param comment text to put in the comment
+	 * @param urgency used in coloring the cell
+	 * @param oldValue of the cell before it was changed
+	 * @param newValue of the cell, or null if it was not changed
+	 */
+	private void addFinding(RowContext context, Cell cell, Kind kind, String comment, 
+			UrgencyLevel urgency, String oldValue, String newValue){
+		context.getFindings().add(cell, new Finding(sheetData.getHeader(cell.getColumnIndex()), 
+				kind, urgency, comment, oldValue, newValue));
+	}
+	
+	/**
+	 * Records a finding on the cell in the row's findings, as addFinding above
+	 * does, about a cell that was not changed
+	 * 
+	 * @param context of the row being checked
+	 * @param cell the finding is about
+	 * @param kind of finding
+	 * @param comment text to put in the comment
+	 * @param urgency used in coloring the cell
+	 */
+	private void addFinding(RowContext context, Cell cell, Kind kind, String comment, 
 			UrgencyLevel urgency){
-		boolean colorFaultyCells = Settings.getSetting(BooleanSetting.COLOR);
-		boolean commentOnFaultyCells = Settings.getSetting(BooleanSetting.COMMENT);
-		if ( colorFaultyCells ){
-			ExcelUtils.setCellColor(cell, urgency);
+		addFinding(context, cell, kind, comment, urgency, 
+				context.getString(cell.getColumnIndex()), null);
+	}
+	
+	/**
+	 * Writes the findings recorded for the row to the findings report, and the
+	 * comments and coloring to the workbook if the settings permit it. Each
+	 * cell gets a single comment and fill. With coloring and commenting both
+	 * off, the workbook is not touched.
+	 * 
+	 * @param context of the row that was checked
+	 */
+	private void writeFindings(RowContext context){
+		RowFindings findings = context.getFindings();
+		if ( findings.isEmpty() ){
+			return;
+		}
+		if ( report != null ){
+			report.write(getSheetName(), context.getRow().getRowNum()+1, findings.getReported());
+		}
+		if ( !settings.get(BooleanSetting.COLOR) && !settings.get(BooleanSetting.COMMENT) ){
+			return;
 		}
-		if ( commentOnFaultyCells ){
-			ExcelUtils.addCellComment(cell, comment);
+		synchronized ( workbookLock ){
+			findings.flush(styleCache, settings);
 		}
 	}
 }
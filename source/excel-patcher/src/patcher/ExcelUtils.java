@@ -1,19 +1,15 @@
 package patcher;
 
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.ClientAnchor;
 import org.apache.poi.ss.usermodel.Comment;
 import org.apache.poi.ss.usermodel.CreationHelper;
 import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Drawing;
-import org.apache.poi.ss.usermodel.IndexedColors;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 
-import settings.Settings;
-import settings.Settings.BooleanSetting;
 import utils.Logger;
 
 /**
@@ -29,11 +25,6 @@ public class ExcelUtils {
 	public enum UrgencyLevel { 
 		MINOR, WARNING, CRITICAL, NONE 
 	};
-	/** Indexes used for coloring excel cells. 3=Green, 5=Yellow, 2=Red */
-	private static final short[] COLOR_INDEXES = new short[]{3, 5, 2};
-	/** Indexes used for coloring excel cells when in color blind mode */
-	private static final short[] COLOR_BLIND_INDEXES = new short[]{3, 5, 4};
-	
 	//TODO: implement rbg colors for cross platform purposes (Libre doesn't seem to match Excel color indexes)
 	
 	/**
@@ -84,29 +75,28 @@ public class ExcelUtils {
 	}
 	
 	/**
-	 * Adds a cell comment and colors the cell based on the urgency level.
+	 * Adds a cell comment containting the commentText to the specified cell. If
+	 * the cell already has a comment, it simply appends the comment.
 	 * 
 	 * @param cell to comment on
 	 * @param commentText the text the should be in the excel comment
-	 * @param urgency level used for setting the cell color
 	 */
-	public static void addCellComment(Cell cell, String commentText, UrgencyLevel urgency){
-		addCellComment(cell, commentText);
-		setCellColor(cell, urgency);
+	public static void addCellComment(Cell cell, String commentText){
+		addCellComment(cell.getSheet().createDrawingPatriarch(), cell, commentText);
 	}
 	
 	/**
-	 * Adds a cell comment containting the commentText to the specified cell. If
-	 * the cell already has a comment, it simply appends the comment.
+	 * Adds a cell comment containting the commentText to the specified cell, using
+	 * the given drawing of the cell's sheet. If the cell already has a comment, it 
+	 * simply appends the comment.
 	 * 
+	 * @param drawing of the cell's sheet, used to create new comments
 	 * @param cell to comment on
 	 * @param commentText the text the should be in the excel comment
 	 */
-	public static void addCellComment(Cell cell, String commentText){
+	public static void addCellComment(Drawing drawing, Cell cell, String commentText){
 		Comment comment = cell.getCellComment();
 		if ( comment == null ){
-			Drawing drawing = cell.getSheet().createDrawingPatriarch();
-			
 			// When the comment box is visible, have it show in a 1x3 space
 			CreationHelper factory = cell.getSheet().getWorkbook().getCreationHelper();
 		    ClientAnchor anchor = factory.createClientAnchor();
@@ -129,51 +119,33 @@ public class ExcelUtils {
 	
 	/**
 	 * Sets the foreground color of the cell based on the urgency level.
-	 * UrgencyLevel.NONE yields white cell.
+	 * UrgencyLevel.NONE yields white cell. The style is taken from the style
+	 * cache, so cells colored the same way share a single style.
 	 * 
 	 * Defaults to 
-	 * MINOR = GREEN, WARNING = YELLOW, CRITICAL = RED
+	 * MINOR = GREEN, WARNING = YELLOW, CRITICAL = RED, with blue instead of
+	 * red in color blind mode
 	 * 
 	 * @param cell to color
 	 * @param urgency The urgency to color for
+	 * @param styleCache to get the cell's new style from
+	 * @param colorBlind if blue should be used instead of red
 	 */
-	public static void setCellColor(Cell cell, UrgencyLevel urgency){
-		//Saftely get the cell's style
-		CellStyle style = cell.getSheet().getWorkbook().createCellStyle();
-		if ( cell.getCellStyle() != null ){
-			style.cloneStyleFrom( cell.getCellStyle() );
-		}
-		
-		//Set the color
-		switch( urgency ){
-			case NONE:
-				style.setFillPattern(CellStyle.NO_FILL);
-				style.setFillForegroundColor(IndexedColors.WHITE.getIndex());
-				break;
-			default:
-				if ( Settings.getSetting(BooleanSetting.COLOR_BLIND) ){
-					style.setFillForegroundColor(
-							COLOR_BLIND_INDEXES[urgency.ordinal()]);
-				} else {
-					style.setFillForegroundColor(
-							COLOR_INDEXES[urgency.ordinal()]);
-				}
-				
-			    style.setFillPattern(CellStyle.SOLID_FOREGROUND);
-				break;
-		}
-		cell.setCellStyle(style);
+	public static void setCellColor(Cell cell, UrgencyLevel urgency, CellStyleCache styleCache,
+			boolean colorBlind){
+		cell.setCellStyle( styleCache.getStyle(cell.getCellStyle(), urgency, colorBlind) );
 	}
 	
 	/**
 	 * Clears any comments and foreground coloring from the cell.
 	 * @param cell to clean
+	 * @param styleCache to get the cell's new style from
 	 */
-	public static void cleanCell(Cell cell){
+	public static void cleanCell(Cell cell, CellStyleCache styleCache){
 		//Clear the cell comment
 		cell.setCellComment(null);
 		//Give the cell a white background
-		setCellColor(cell, UrgencyLevel.NONE);
+		setCellColor(cell, UrgencyLevel.NONE, styleCache, false);
 	}
 	
 	/**
@@ -0,0 +1,326 @@
+package patcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Workbook;
+
+import patcher.format.FormatData;
+import settings.Settings;
+import settings.Settings.BooleanSetting;
+import settings.Settings.StringSetting;
+import settings.SettingsSnapshot;
+import utils.FileManager;
+import utils.Logger;
+
+/**
+ * Checks and patches a single input file into an output file. This is the
+ * work done by the Check button, shared with the command line batch mode so
+ * both patch files the same way.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class FilePatcher {
+	/**
+	 * Suppress default constructor
+	 */
+	private FilePatcher(){
+	}
+
+	/**
+	 * Checks the input file with the format file and saves the patched result
+	 * to the output file. Returns if the output file was saved.
+	 * <p>
+	 * Only the first sheet is checked unless sheetFormatFilePaths is given, in
+	 * which case every sheet is checked with the format file mapped to its name,
+	 * or the default format file if it has none. The threads then check whole
+	 * sheets at once rather than rows. Streaming always checks the first sheet.
+	 * <p>
+	 * If a key column is given, the file is checked incrementally. The rows'
+	 * fingerprints are saved next to the output file, and the next check to the
+	 * same output file only checks the rows that changed, identifying them by
+	 * the key column. The other rows get the changes and findings they had.
+	 * <p>
+	 * If the metrics setting is on, the counts and timings of every column's
+	 * checks are written next to the output file as .metrics.json and .prom.
+	 *
+	 * @param inputFilePath of the xlsx file to check
+	 * @param outputFilePath to save the patched file to
+	 * @param formatFilePath of the format file to check with
+	 * @param sheetFormatFilePaths format files by sheet name to check every
+	 * sheet, or null to check only the first sheet
+	 * @param streaming if the file should be read and written one row at a time
+	 * @param threadCount number of threads to check with when not streaming
+	 * @param keyColumn title of the column identifying each row to check
+	 * incrementally, or null to check every row
+	 * @return if the patched file was saved
+	 */
+	public static boolean patchFile(String inputFilePath, String outputFilePath,
+			String formatFilePath, Map<String, String> sheetFormatFilePaths,
+			boolean streaming, int threadCount, String keyColumn){
+		return patchFile(inputFilePath, outputFilePath, formatFilePath, sheetFormatFilePaths,
+				streaming, threadCount, keyColumn, null, 0);
+	}
+	
+	/**
+	 * Checks the input file as patchFile above does, while reporting its
+	 * progress to the listener. The listener is told when loading, checking and
+	 * saving start and when the check is done, and every intervalMillis while
+	 * checking with the rows done, the throughput and the time left. The number
+	 * of rows is not known while streaming, so then no time left is given.
+	 *
+	 * @param inputFilePath of the xlsx file to check
+	 * @param outputFilePath to save the patched file to
+	 * @param formatFilePath of the format file to check with
+	 * @param sheetFormatFilePaths format files by sheet name to check every
+	 * sheet, or null to check only the first sheet
+	 * @param streaming if the file should be read and written one row at a time
+	 * @param threadCount number of threads to check with when not streaming
+	 * @param keyColumn title of the column identifying each row to check
+	 * incrementally, or null to check every row
+	 * @param listener to report progress to, or null to report none
+	 * @param intervalMillis time between reports while checking
+	 * @return if the patched file was saved
+	 */
+	public static boolean patchFile(String inputFilePath, String outputFilePath,
+			String formatFilePath, Map<String, String> sheetFormatFilePaths,
+			boolean streaming, int threadCount, String keyColumn,
+			ProgressTracker.Listener listener, long intervalMillis){
+		//Every row of the file is checked with the settings as they are now
+		return patchFile(inputFilePath, outputFilePath, formatFilePath, sheetFormatFilePaths,
+				streaming, threadCount, keyColumn, listener, intervalMillis, Settings.snapshot());
+	}
+	
+	/**
+	 * Checks the input file as patchFile above does, with the given settings
+	 * rather than the current ones.
+	 * <p>
+	 * If the findings report setting is on, every finding is also written
+	 * next to the output file in the report format setting's format. The
+	 * report is only kept if the output file is saved.
+	 *
+	 * @param inputFilePath of the xlsx file to check
+	 * @param outputFilePath to save the patched file to
+	 * @param formatFilePath of the format file to check with
+	 * @param sheetFormatFilePaths format files by sheet name to check every
+	 * sheet, or null to check only the first sheet
+	 * @param streaming if the file should be read and written one row at a time
+	 * @param threadCount number of threads to check with when not streaming
+	 * @param keyColumn title of the column identifying each row to check
+	 * incrementally, or null to check every row
+	 * @param listener to report progress to, or null to report none
+	 * @param intervalMillis time between reports while checking
+	 * @param settings to check with
+	 * @return if the patched file was saved
+	 * @throws IllegalStateException if checking in parallel failed part way, in
+	 * which case neither the output file nor the report is saved
+	 */
+	public static boolean patchFile(String inputFilePath, String outputFilePath,
+			String formatFilePath, Map<String, String> sheetFormatFilePaths,
+			boolean streaming, int threadCount, String keyColumn,
+			ProgressTracker.Listener listener, long intervalMillis, SettingsSnapshot settings){
+		ProgressTracker progress = null;
+		if ( listener != null ){
+			progress = new ProgressTracker(listener, intervalMillis);
+		}
+		FindingsReport report = null;
+		if ( settings.get(BooleanSetting.FINDINGS_REPORT) ){
+			report = createReport(outputFilePath, settings.get(StringSetting.REPORT_FORMAT));
+		}
+		boolean saved = false;
+		try {
+			saved = patch(inputFilePath, outputFilePath, formatFilePath, sheetFormatFilePaths,
+					streaming, threadCount, keyColumn, progress, report, settings);
+			return saved;
+		} finally {
+			if ( report != null ){
+				if ( saved ){
+					report.finish();
+				} else {
+					report.discard();
+				}
+			}
+			if ( progress != null ){
+				progress.setPhase(ProgressTracker.Phase.DONE);
+			}
+		}
+	}
+	
+	/**
+	 * Starts the findings report of the output file. Returns null if it could
+	 * not be created, so the file is checked without one.
+	 *
+	 * @param outputFilePath of the patched file the report is about
+	 * @param formatName name of the report's format, csv or jsonl
+	 * @return the report, or null
+	 */
+	private static FindingsReport createReport(String outputFilePath, String formatName){
+		FindingsReport.Format format = FindingsReport.Format.fromName(formatName);
+		if ( format == null ){
+			Logger.log("Error", "Unknown findings report format "+formatName
+					+", writing JSON Lines instead");
+			format = FindingsReport.Format.JSON_LINES;
+		}
+		try {
+			return new FindingsReport(outputFilePath, format);
+		} catch (IOException e) {
+			Logger.log("Error", "Could not create the findings report for "+outputFilePath
+					+": "+e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Checks the input file as patchFile does, reporting to the tracker and
+	 * writing the findings to the report
+	 *
+	 * @param inputFilePath of the xlsx file to check
+	 * @param outputFilePath to save the patched file to
+	 * @param formatFilePath of the format file to check with
+	 * @param sheetFormatFilePaths format files by sheet name, or null
+	 * @param streaming if the file should be read and written one row at a time
+	 * @param threadCount number of threads to check with when not streaming
+	 * @param keyColumn title of the column identifying each row, or null
+	 * @param progress tracker to report to, or null
+	 * @param report to write the findings to, or null
+	 * @param settings to check with
+	 * @return if the patched file was saved
+	 */
+	private static boolean patch(String inputFilePath, String outputFilePath,
+			String formatFilePath, Map<String, String> sheetFormatFilePaths,
+			boolean streaming, int threadCount, String keyColumn, ProgressTracker progress,
+			FindingsReport report, SettingsSnapshot settings){
+		CheckMetrics metrics = settings.get(BooleanSetting.METRICS) ? 
+				new CheckMetrics(new File(inputFilePath).getName()) : null;
+		
+		//Load the fingerprints of the last check, if they can be reused
+		String fingerprintFilePath = outputFilePath+RowFingerprints.FILE_EXTENSION;
+		RowFingerprints previousFingerprints = null;
+		RowFingerprints fingerprints = null;
+		if ( keyColumn != null ){
+			//Streaming only checks the first sheet, with the default format file
+			fingerprints = new RowFingerprints(formatFilePath, streaming ? null : sheetFormatFilePaths,
+					keyColumn, settings);
+			previousFingerprints = RowFingerprints.load(fingerprintFilePath);
+			if ( previousFingerprints != null && !previousFingerprints.isCompatible(fingerprints) ){
+				Logger.log("The format files, key column or settings changed since "
+						+outputFilePath+" was last checked, so every row will be checked");
+				previousFingerprints = null;
+			}
+		}
+		
+		//The workbook is closed on every way out, so a failed file does not keep
+		// its file open or leave its temporary files behind
+		Workbook wb = null;
+		try {
+			if ( streaming ){
+				if ( sheetFormatFilePaths != null ){
+					Logger.log("Warning: Only the first sheet can be checked when streaming");
+				}
+				FormatData formatData = new FormatData(formatFilePath);
+				
+				//Check the input file row by row as it is read, and write
+				// the patched rows out the same way
+				wb = FileManager.createStreamingWorkbook();
+				setPhase(progress, ProgressTracker.Phase.CHECK);
+				if ( !StreamingPatcher.patchFile(inputFilePath, wb, formatData, 
+						previousFingerprints, fingerprints, settings, metrics, progress, report) ){
+					return false;
+				}
+			} else if ( sheetFormatFilePaths != null ){
+				//Load the input excel file
+				setPhase(progress, ProgressTracker.Phase.LOAD);
+				wb = FileManager.loadExcelFile(inputFilePath);
+				if ( wb == null ){
+					return false;
+				}
+				
+				//Check the sheets side by side
+				WorkbookChecker checker = new WorkbookChecker(wb, formatFilePath, sheetFormatFilePaths, settings);
+				if ( fingerprints != null ){
+					checker.setFingerprints(previousFingerprints, fingerprints);
+				}
+				if ( metrics != null ){
+					checker.setMetrics(metrics);
+				}
+				if ( progress != null ){
+					checker.setProgressTracker(progress);
+				}
+				if ( report != null ){
+					checker.setReport(report);
+				}
+				setPhase(progress, ProgressTracker.Phase.CHECK);
+				checker.patchAllSheets(threadCount);
+			} else {
+				//Load the input excel file
+				setPhase(progress, ProgressTracker.Phase.LOAD);
+				wb = FileManager.loadExcelFile(inputFilePath);
+				if ( wb == null ){
+					return false;
+				}
+
+				//Create the checker for the first sheet
+				FormatData formatData = new FormatData(formatFilePath);
+				ExcelChecker checker = new ExcelChecker(wb.getSheetAt(0), formatData, settings);
+				if ( fingerprints != null ){
+					checker.setFingerprints(previousFingerprints, fingerprints);
+				}
+				if ( metrics != null ){
+					checker.setMetrics(metrics);
+				}
+				if ( progress != null ){
+					checker.setProgressTracker(progress);
+				}
+				if ( report != null ){
+					checker.setReport(report);
+				}
+				setPhase(progress, ProgressTracker.Phase.CHECK);
+				if ( threadCount > 1 ){
+					checker.patchAllLoans(threadCount);
+				} else {
+					checker.patchAllLoans();
+				}
+			}
+
+			//Save the output. Saving closes the workbook whether or not it succeeds.
+			setPhase(progress, ProgressTracker.Phase.SAVE);
+			Workbook saved = wb;
+			wb = null;
+			if ( !FileManager.saveExcelFile(outputFilePath, saved) ){
+				return false;
+			}
+			
+			//The run includes saving, which can take as long as checking
+			if ( metrics != null ){
+				metrics.finish();
+				metrics.export(outputFilePath);
+			}
+			
+			//Only save the fingerprints once they match the saved output
+			if ( fingerprints != null ){
+				if ( previousFingerprints != null ){
+					Logger.log("Reused the findings of "+fingerprints.getReusedRowCount()
+							+" unchanged rows of "+outputFilePath);
+				}
+				fingerprints.save(fingerprintFilePath);
+			}
+			return true;
+		} finally {
+			FileManager.closeExcelFile(wb);
+		}
+	}
+	
+	/**
+	 * Moves the tracker to the given phase, if there is one
+	 *
+	 * @param progress tracker to update, or null
+	 * @param phase the check has moved to
+	 */
+	private static void setPhase(ProgressTracker progress, ProgressTracker.Phase phase){
+		if ( progress != null ){
+			progress.setPhase(phase);
+		}
+	}
+}
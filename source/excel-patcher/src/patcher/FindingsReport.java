@@ -0,0 +1,368 @@
+package patcher;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import patcher.ExcelUtils.UrgencyLevel;
+import utils.FileManager;
+import utils.Logger;
+
+/**
+ * Writes every finding of a check to a file, one finding per line, as CSV or
+ * JSON Lines. Other programs can read the findings from the report instead of
+ * opening the patched workbook to read its comments, and with coloring and
+ * commenting turned off the report is the only thing the check writes besides
+ * the fixed cells.
+ * <p>
+ * Findings are written as each row finishes, so rows checked on several
+ * threads may be out of order. The report is written under a temporary name
+ * and moved into place when it is finished, so a half written report is
+ * never left behind.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class FindingsReport {
+	/** The kinds of findings */
+	public enum Kind {
+		/** A required cell is blank */
+		REQUIRED,
+		/** The cell does not have the value the format file gives */
+		WRONG_VALUE,
+		/** The cell has more characters than allowed */
+		TOO_LONG,
+		/** The cell does not have the column's data type */
+		WRONG_TYPE,
+		/** The cell was changed to fix its data type */
+		FIXED_TYPE,
+		/** The cell was filled with the value the format file gives */
+		FILLED,
+		/** The cell was cleared since it is not required */
+		DELETED,
+		/** The cell was not checked since cells it depends on have errors */
+		UNCHECKED,
+		/** The cell has errors that keep other cells from being checked */
+		BLOCKING
+	};
+
+	/** The file formats a report can be written in */
+	public enum Format {
+		CSV ("csv"),
+		JSON_LINES ("jsonl");
+
+		/** Name of the format, also used as the file extension */
+		private final String name;
+
+		Format(String name){
+			this.name = name;
+		}
+
+		/**
+		 * Returns the name of the format, which is also its file extension
+		 * @return the name of the format
+		 */
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * Returns the format with the given name, or null if there is none
+		 *
+		 * @param name of the format, such as csv or jsonl
+		 * @return the format with the name, or null
+		 */
+		public static Format fromName(String name){
+			for ( Format format : values() ){
+				if ( format.name.equalsIgnoreCase(name) ){
+					return format;
+				}
+			}
+			return null;
+		}
+	}
+
+	/** Column names of a CSV report */
+	private static final String CSV_HEADER = "sheet,row,column,urgency,kind,message,old_value,new_value";
+
+	/** Path the finished report is moved to */
+	private final Path path;
+	/** Path the report is written to until it is finished */
+	private final Path temporary;
+	/** The format the report is written in */
+	private final Format format;
+	/** Writer of the temporary file, null once closed */
+	private Writer writer;
+	/** If writing the report failed */
+	private boolean failed = false;
+	/** Number of findings written */
+	private long findingCount = 0;
+
+	/**
+	 * Creates a report for the output file, named after it with the format's
+	 * extension, and starts writing it
+	 *
+	 * @param outputFilePath of the patched file the report is about
+	 * @param format to write the report in
+	 * @throws IOException if the report could not be created
+	 */
+	public FindingsReport(String outputFilePath, Format format) throws IOException {
+		this.format = format;
+		path = Paths.get(getReportFilePath(outputFilePath, format));
+		temporary = Paths.get(path+".tmp");
+		writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8);
+		if ( format == Format.CSV ){
+			writer.write(CSV_HEADER);
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * Returns the path of the report about the output file
+	 *
+	 * @param outputFilePath of the patched file
+	 * @param format the report is written in
+	 * @return the path of the report
+	 */
+	public static String getReportFilePath(String outputFilePath, Format format){
+		return outputFilePath+".findings."+format.getName();
+	}
+
+	/**
+	 * Writes the findings of a row to the report
+	 *
+	 * @param sheetName of the sheet the row is in
+	 * @param rowNumber of the row as shown in Excel, starting from 1
+	 * @param findings of the row
+	 */
+	public synchronized void write(String sheetName, int rowNumber, List<Finding> findings){
+		if ( writer == null || failed ){
+			return;
+		}
+		try {
+			for ( Finding finding : findings ){
+				if ( format == Format.CSV ){
+					writeCsv(sheetName, rowNumber, finding);
+				} else {
+					writeJson(sheetName, rowNumber, finding);
+				}
+				findingCount++;
+			}
+		} catch (IOException e) {
+			Logger.log("Error", "Could not write the findings report "+path+": "+e.getMessage());
+			failed = true;
+		}
+	}
+
+	/**
+	 * Finishes the report and moves it into place, or deletes it if writing
+	 * it failed. Returns if the report was written.
+	 *
+	 * @return if the report was written
+	 */
+	public synchronized boolean finish(){
+		if ( writer == null ){
+			return !failed;
+		}
+		try {
+			writer.close();
+			writer = null;
+			if ( !failed ){
+				FileManager.moveIntoPlace(temporary, path);
+				Logger.log("Wrote "+findingCount+" findings to "+path);
+				return true;
+			}
+		} catch (IOException e) {
+			Logger.log("Error", "Could not write the findings report "+path+": "+e.getMessage());
+			failed = true;
+		}
+		discard();
+		return false;
+	}
+
+	/**
+	 * Stops writing the report and deletes it, such as when the check failed
+	 */
+	public synchronized void discard(){
+		try {
+			if ( writer != null ){
+				writer.close();
+				writer = null;
+			}
+			Files.deleteIfExists(temporary);
+		} catch (IOException e) {
+			Logger.log("Error", "Could not delete the findings report "+temporary+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes a finding as a line of CSV
+	 *
+	 * @param sheetName of the sheet the finding's row is in
+	 * @param rowNumber of the finding's row
+	 * @param finding to write
+	 * @throws IOException if the line could not be written
+	 */
+	private void writeCsv(String sheetName, int rowNumber, Finding finding) throws IOException {
+		StringBuilder line = new StringBuilder();
+		line.append(csvField(sheetName)).append(',');
+		line.append(rowNumber).append(',');
+		line.append(csvField(finding.title)).append(',');
+		line.append(finding.urgency).append(',');
+		line.append(finding.kind).append(',');
+		line.append(csvField(finding.message)).append(',');
+		line.append(csvField(finding.oldValue)).append(',');
+		line.append(csvField(finding.newValue)).append('\n');
+		writer.write(line.toString());
+	}
+
+	/**
+	 * Writes a finding as a line of JSON
+	 *
+	 * @param sheetName of the sheet the finding's row is in
+	 * @param rowNumber of the finding's row
+	 * @param finding to write
+	 * @throws IOException if the line could not be written
+	 */
+	private void writeJson(String sheetName, int rowNumber, Finding finding) throws IOException {
+		StringBuilder line = new StringBuilder();
+		line.append("{\"sheet\": ").append(CheckMetrics.jsonString(sheetName));
+		line.append(", \"row\": ").append(rowNumber);
+		line.append(", \"column\": ").append(CheckMetrics.jsonString(finding.title));
+		line.append(", \"urgency\": \"").append(finding.urgency).append('"');
+		line.append(", \"kind\": \"").append(finding.kind).append('"');
+		line.append(", \"message\": ").append(CheckMetrics.jsonString(finding.message));
+		line.append(", \"oldValue\": ").append(jsonValue(finding.oldValue));
+		line.append(", \"newValue\": ").append(jsonValue(finding.newValue));
+		line.append("}\n");
+		writer.write(line.toString());
+	}
+
+	/**
+	 * Returns the text as a CSV field, quoted if it needs to be. Null is
+	 * written as an empty field.
+	 *
+	 * @param text to write
+	 * @return the CSV field
+	 */
+	private static String csvField(String text){
+		if ( text == null ){
+			return "";
+		}
+		for ( int i = 0 ; i < text.length() ; i++ ){
+			char c = text.charAt(i);
+			if ( c == ',' || c == '"' || c == '\n' || c == '\r' ){
+				return "\""+text.replace("\"", "\"\"")+"\"";
+			}
+		}
+		return text;
+	}
+
+	/**
+	 * Returns the text as a JSON string, or null if there is no text
+	 *
+	 * @param text to write, may be null
+	 * @return the JSON value
+	 */
+	private static String jsonValue(String text){
+		return text == null ? "null" : CheckMetrics.jsonString(text);
+	}
+
+	// ####################################################
+	// ### Findings
+	// ####################################################
+	/**
+	 * A single finding about a cell, kept with a row's fingerprint so it can be
+	 * reported again when the row is not checked again
+	 */
+	public static class Finding implements Serializable {
+		/** Default serial UID */
+		private static final long serialVersionUID = 1L;
+
+		/** Title of the cell's column */
+		private final String title;
+		/** What kind of finding it is */
+		private final Kind kind;
+		/** How urgent the finding is */
+		private final UrgencyLevel urgency;
+		/** Description of the finding, as written in the cell's comment */
+		private final String message;
+		/** Contents of the cell before it was changed, or when it was checked */
+		private final String oldValue;
+		/** Contents the cell was changed to, or null if it was not changed */
+		private final String newValue;
+
+		/**
+		 * Creates a new finding
+		 *
+		 * @param title of the cell's column
+		 * @param kind of finding
+		 * @param urgency of the finding
+		 * @param message describing the finding
+		 * @param oldValue of the cell
+		 * @param newValue of the cell, or null if it was not changed
+		 */
+		public Finding(String title, Kind kind, UrgencyLevel urgency, String message,
+				String oldValue, String newValue){
+			this.title = title;
+			this.kind = kind;
+			this.urgency = urgency;
+			this.message = message;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+
+		/**
+		 * Returns the title of the cell's column
+		 * @return the title of the cell's column
+		 */
+		public String getTitle(){
+			return title;
+		}
+
+		/**
+		 * Returns what kind of finding it is
+		 * @return the kind of finding
+		 */
+		public Kind getKind(){
+			return kind;
+		}
+
+		/**
+		 * Returns how urgent the finding is
+		 * @return the urgency of the finding
+		 */
+		public UrgencyLevel getUrgency(){
+			return urgency;
+		}
+
+		/**
+		 * Returns the description of the finding
+		 * @return the description of the finding
+		 */
+		public String getMessage(){
+			return message;
+		}
+
+		/**
+		 * Returns the contents of the cell before it was changed
+		 * @return the old contents of the cell
+		 */
+		public String getOldValue(){
+			return oldValue;
+		}
+
+		/**
+		 * Returns the contents the cell was changed to, or null if it was not
+		 * @return the new contents of the cell, or null
+		 */
+		public String getNewValue(){
+			return newValue;
+		}
+	}
+}
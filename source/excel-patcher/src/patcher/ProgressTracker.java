@@ -0,0 +1,290 @@
+package patcher;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the progress of checking a file and reports it to a listener. The
+ * checking threads only count the rows they finish. A background thread reads
+ * the count at a fixed interval and tells the listener the rows done, the
+ * throughput and the time left, so the listener can be as slow as it likes
+ * without slowing checking down. Changes of phase are reported right away.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class ProgressTracker {
+	/** The stages of checking a file */
+	public enum Phase {
+		LOAD ("Loading"),
+		CHECK ("Checking"),
+		SAVE ("Saving"),
+		DONE ("Done");
+
+		/** Name of the phase, used for display */
+		private final String name;
+
+		Phase(String name){
+			this.name = name;
+		}
+
+		/**
+		 * Returns the name of the phase for display
+		 * @return the name of the phase
+		 */
+		public String getName(){
+			return name;
+		}
+	}
+
+	/**
+	 * Receives progress reports. Reports come from a background thread, or
+	 * from the checking thread when the phase changes.
+	 */
+	public interface Listener {
+		/**
+		 * Called with the latest progress
+		 * @param progress of the check
+		 */
+		void progressChanged(Progress progress);
+	}
+
+	/** Listener told about the progress */
+	private final Listener listener;
+	/** Time between reports while checking, in milliseconds */
+	private final long intervalMillis;
+	/** Number of rows finished */
+	private final AtomicLong rowsDone = new AtomicLong();
+	/** Number of rows to check, or -1 if not known */
+	private final AtomicLong rowsTotal = new AtomicLong(-1);
+	/** The current phase */
+	private volatile Phase phase = Phase.LOAD;
+	/** When the check phase started */
+	private volatile long checkStartNanos = 0;
+	/** When the check phase ended, 0 while it has not */
+	private volatile long checkEndNanos = 0;
+	/** Thread that sends the reports, running while checking */
+	private ScheduledExecutorService reporter = null;
+
+	/**
+	 * Creates a tracker that reports to the listener every intervalMillis
+	 * while rows are checked
+	 *
+	 * @param listener to report to
+	 * @param intervalMillis time between reports
+	 */
+	public ProgressTracker(Listener listener, long intervalMillis){
+		this.listener = listener;
+		this.intervalMillis = intervalMillis;
+	}
+
+	/**
+	 * Adds rows to the number of rows to check. Sheets checked together each
+	 * add their own rows.
+	 *
+	 * @param rows to add
+	 */
+	public void addTotalRows(long rows){
+		if ( !rowsTotal.compareAndSet(-1, rows) ){
+			rowsTotal.addAndGet(rows);
+		}
+	}
+
+	/**
+	 * Counts a finished row. Called for every row, so does nothing else.
+	 */
+	public void rowDone(){
+		rowsDone.incrementAndGet();
+	}
+
+	/**
+	 * Moves to the given phase and reports it. Reports are sent regularly
+	 * during the check phase.
+	 *
+	 * @param newPhase the check has moved to
+	 */
+	public synchronized void setPhase(Phase newPhase){
+		if ( phase == Phase.CHECK && newPhase != Phase.CHECK ){
+			checkEndNanos = System.nanoTime();
+		}
+		phase = newPhase;
+		if ( newPhase == Phase.CHECK ){
+			checkStartNanos = System.nanoTime();
+			checkEndNanos = 0;
+			startReporting();
+		} else {
+			stopReporting();
+		}
+		report();
+	}
+
+	/**
+	 * Returns the progress right now
+	 * @return the current progress
+	 */
+	public Progress getProgress(){
+		long done = rowsDone.get();
+		long total = rowsTotal.get();
+		double rowsPerSecond = 0;
+		long start = checkStartNanos;
+		if ( start != 0 ){
+			long end = checkEndNanos == 0 ? System.nanoTime() : checkEndNanos;
+			double seconds = (end - start) / 1e9;
+			if ( seconds > 0 ){
+				rowsPerSecond = done / seconds;
+			}
+		}
+		long secondsLeft = -1;
+		if ( phase == Phase.CHECK && total >= 0 && rowsPerSecond > 0 ){
+			secondsLeft = (long) Math.ceil(Math.max(0, total - done) / rowsPerSecond);
+		}
+		return new Progress(phase, done, total, rowsPerSecond, secondsLeft);
+	}
+
+	/**
+	 * Sends the current progress to the listener
+	 */
+	private void report(){
+		listener.progressChanged(getProgress());
+	}
+
+	/**
+	 * Starts sending reports at the interval
+	 */
+	private void startReporting(){
+		if ( reporter != null ){
+			return;
+		}
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Progress");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable(){
+			@Override
+			public void run() {
+				report();
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops sending reports at the interval
+	 */
+	private void stopReporting(){
+		if ( reporter != null ){
+			reporter.shutdownNow();
+			reporter = null;
+		}
+	}
+
+	// ####################################################
+	// ### Progress reports
+	// ####################################################
+	/**
+	 * The progress of a check at one moment
+	 */
+	public static class Progress {
+		/** The phase the check is in */
+		private final Phase phase;
+		/** Number of rows finished */
+		private final long rowsDone;
+		/** Number of rows to check, or -1 if not known */
+		private final long rowsTotal;
+		/** Rows finished per second since checking started */
+		private final double rowsPerSecond;
+		/** Estimated seconds until checking is done, or -1 if not known */
+		private final long secondsLeft;
+
+		private Progress(Phase phase, long rowsDone, long rowsTotal, double rowsPerSecond,
+				long secondsLeft){
+			this.phase = phase;
+			this.rowsDone = rowsDone;
+			this.rowsTotal = rowsTotal;
+			this.rowsPerSecond = rowsPerSecond;
+			this.secondsLeft = secondsLeft;
+		}
+
+		/**
+		 * Returns the phase the check is in
+		 * @return the phase the check is in
+		 */
+		public Phase getPhase(){
+			return phase;
+		}
+
+		/**
+		 * Returns the number of rows finished
+		 * @return the number of rows finished
+		 */
+		public long getRowsDone(){
+			return rowsDone;
+		}
+
+		/**
+		 * Returns the number of rows to check, or -1 if it is not known, such as
+		 * while streaming
+		 * @return the number of rows to check, or -1
+		 */
+		public long getRowsTotal(){
+			return rowsTotal;
+		}
+
+		/**
+		 * Returns the rows finished per second since checking started
+		 * @return the rows finished per second
+		 */
+		public double getRowsPerSecond(){
+			return rowsPerSecond;
+		}
+
+		/**
+		 * Returns the estimated seconds until checking is done, or -1 if it
+		 * cannot be estimated
+		 * @return the estimated seconds left, or -1
+		 */
+		public long getSecondsLeft(){
+			return secondsLeft;
+		}
+
+		/**
+		 * Returns the percentage of rows finished, or -1 if the total is not known
+		 * @return the percentage of rows finished, or -1
+		 */
+		public int getPercentDone(){
+			if ( rowsTotal <= 0 ){
+				return rowsTotal == 0 ? 100 : -1;
+			}
+			return (int) Math.min(100, rowsDone*100/rowsTotal);
+		}
+
+		@Override
+		public String toString(){
+			StringBuilder text = new StringBuilder(phase.getName());
+			if ( phase == Phase.LOAD ){
+				return text.toString();
+			}
+			text.append(": ").append(rowsDone);
+			if ( rowsTotal >= 0 ){
+				text.append(" of ").append(rowsTotal);
+			}
+			text.append(" rows");
+			if ( getPercentDone() >= 0 ){
+				text.append(" (").append(getPercentDone()).append("%)");
+			}
+			if ( rowsPerSecond > 0 ){
+				text.append(String.format(", %.0f rows/s", rowsPerSecond));
+			}
+			if ( phase == Phase.CHECK && secondsLeft >= 0 ){
+				text.append(String.format(", about %d:%02d left", secondsLeft / 60, secondsLeft % 60));
+			}
+			return text.toString();
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package patcher;
+
+import java.util.BitSet;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+
+/**
+ * The state needed to evaluate format specifications against a single row.
+ * One is created for every row that is checked and passed down to anything
+ * that needs to look at other cells of the row, so rows can be checked on
+ * several threads at once.
+ * <p>
+ * When the sheet has a column snapshot, the contents of the row's cells are
+ * read from it. Cells changed while the row is checked must be reported with
+ * cellChanged, after which they are read from the row itself.
+ * <p>
+ * Cells read from the row are read under the workbook lock. Reading a cell's
+ * text or date format goes through the workbook's shared strings and styles,
+ * which other threads change under that lock while rows are checked at once.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class RowContext {
+	/** The row being checked */
+	private Row row;
+	/** Sheet data of the sheet the row is in, used to find columns by title */
+	private SheetData sheetData;
+	/** Lock held while reading the row's cells, the workbook as ExcelChecker
+	 * uses it */
+	private final Object workbookLock;
+	/** Comments and coloring for the row's cells, written once the row is checked */
+	private RowFindings findings = new RowFindings();
+	/** Snapshot of the sheet's columns, null if cells are read from the row */
+	private ColumnSnapshot snapshot;
+	/** Position of the row in the snapshot, -1 if it is not in one */
+	private int position = -1;
+	/** Column indexes of the cells changed since the snapshot was taken,
+	 * created on the first change */
+	private BitSet changed = null;
+
+	/**
+	 * Creates a new context for checking the given row
+	 *
+	 * @param row being checked
+	 * @param sheetData of the sheet the row is in
+	 */
+	public RowContext(Row row, SheetData sheetData){
+		this(row, sheetData, null);
+	}
+
+	/**
+	 * Creates a new context for checking the given row, reading its cells from
+	 * the snapshot where it can
+	 *
+	 * @param row being checked
+	 * @param sheetData of the sheet the row is in
+	 * @param snapshot of the sheet's columns, may be null
+	 */
+	RowContext(Row row, SheetData sheetData, ColumnSnapshot snapshot){
+		this.row = row;
+		this.sheetData = sheetData;
+		this.workbookLock = sheetData.getSheet().getWorkbook();
+		if ( snapshot != null ){
+			position = snapshot.getPosition(row.getRowNum());
+			if ( position >= 0 ){
+				this.snapshot = snapshot;
+			}
+		}
+	}
+
+	/**
+	 * Returns the row being checked
+	 * @return the row being checked
+	 */
+	public Row getRow(){
+		return row;
+	}
+
+	/**
+	 * Returns the findings recorded for this row's cells
+	 * @return the findings recorded for this row's cells
+	 */
+	public RowFindings getFindings(){
+		return findings;
+	}
+	
+	/**
+	 * Returns the cell of this row in the column with the given title. Returns
+	 * null if the row has no such cell.
+	 *
+	 * @param title of the column that the desired cell is in
+	 * @return the cell in this row and the column with the specified title
+	 */
+	public Cell getCell(String title){
+		int columnIndex = sheetData.getColumnIndex(title);
+		return row.getCell(columnIndex);
+	}
+	
+	/**
+	 * Returns the contents of this row's cell in the column with the given
+	 * title, as ExcelUtils.getCellContentsAsString gives them
+	 *
+	 * @param title of the column of the cell
+	 * @return the contents of the cell, empty if there is no cell
+	 */
+	public String getString(String title){
+		return getString(sheetData.getColumnIndex(title));
+	}
+	
+	/**
+	 * Returns the contents of this row's cell in the column, as
+	 * ExcelUtils.getCellContentsAsString gives them
+	 *
+	 * @param columnIndex of the cell
+	 * @return the contents of the cell, empty if there is no cell
+	 */
+	public String getString(int columnIndex){
+		int slot = getSlot(columnIndex);
+		if ( slot < 0 ){
+			synchronized ( workbookLock ){
+				return ExcelUtils.getCellContentsAsString(row.getCell(columnIndex));
+			}
+		}
+		return snapshot.getString(slot, position);
+	}
+
+	/**
+	 * Returns the typed contents of this row's cell in the column
+	 *
+	 * @param columnIndex of the cell
+	 * @return the contents of the cell, blank if there is no cell
+	 */
+	CellContents getContents(int columnIndex){
+		int slot = getSlot(columnIndex);
+		if ( slot < 0 ){
+			synchronized ( workbookLock ){
+				return CellContents.of(row.getCell(columnIndex));
+			}
+		}
+		return new CellContents(snapshot.getType(slot, position),
+				snapshot.getNumber(slot, position), snapshot.getString(slot, position));
+	}
+
+	/**
+	 * Returns if this row's cell in the column is empty, as
+	 * ExcelUtils.isCellEmpty does
+	 *
+	 * @param columnIndex of the cell
+	 * @return if the cell is empty
+	 */
+	public boolean isEmpty(int columnIndex){
+		return getString(columnIndex).isEmpty();
+	}
+	
+	/**
+	 * Returns if this row's cell in the column is a date
+	 *
+	 * @param columnIndex of the cell
+	 * @return if the cell is a numeric cell formatted as a date
+	 */
+	public boolean isDate(int columnIndex){
+		int slot = getSlot(columnIndex);
+		if ( slot < 0 ){
+			Cell cell = row.getCell(columnIndex);
+			synchronized ( workbookLock ){
+				return cell != null && cell.getCellType() == Cell.CELL_TYPE_NUMERIC 
+						&& DateUtil.isCellDateFormatted(cell);
+			}
+		}
+		return snapshot.getType(slot, position) == ColumnSnapshot.DATE;
+	}
+	
+	/**
+	 * Returns if this row's cell in the column is a number whose data type was
+	 * already checked when the snapshot was taken, so isValidNumber can be used
+	 * instead of checking the cell
+	 *
+	 * @param columnIndex of the cell
+	 * @return if the cell's data type was already checked
+	 */
+	boolean hasCheckedNumber(int columnIndex){
+		int slot = getSlot(columnIndex);
+		return slot >= 0 && snapshot.hasNumberChecks(slot)
+				&& snapshot.getType(slot, position) == ColumnSnapshot.NUMBER;
+	}
+	
+	/**
+	 * Returns if this row's cell in the column had its column's data type when
+	 * the snapshot was taken. Only meaningful if hasCheckedNumber is true.
+	 *
+	 * @param columnIndex of the cell
+	 * @return if the cell's number has its column's data type
+	 */
+	boolean isValidNumber(int columnIndex){
+		return snapshot.isValidNumber(getSlot(columnIndex), position);
+	}
+	
+	/**
+	 * Returns this row's cell in the column with the given title as a
+	 * boolean, as ExcelUtils.cellToBoolean does
+	 *
+	 * @param title of the column of the cell
+	 * @return the cell as a boolean
+	 */
+	public boolean getBoolean(String title){
+		int columnIndex = sheetData.getColumnIndex(title);
+		int slot = getSlot(columnIndex);
+		if ( slot < 0 ){
+			synchronized ( workbookLock ){
+				return ExcelUtils.cellToBoolean(row.getCell(columnIndex));
+			}
+		}
+		if ( snapshot.getType(slot, position) == ColumnSnapshot.BOOLEAN ){
+			return snapshot.getNumber(slot, position) != 0;
+		}
+		return !snapshot.getString(slot, position).isEmpty();
+	}
+	
+	/**
+	 * Records that this row's cell in the column was changed, so it is read
+	 * from the row rather than the snapshot from now on
+	 *
+	 * @param columnIndex of the changed cell
+	 */
+	public void cellChanged(int columnIndex){
+		if ( snapshot == null ){
+			return;
+		}
+		if ( changed == null ){
+			changed = new BitSet();
+		}
+		changed.set(columnIndex);
+	}
+	
+	/**
+	 * Returns the snapshot slot to read the cell in the column from, or -1 if
+	 * it must be read from the row
+	 *
+	 * @param columnIndex of the cell
+	 * @return the slot of the column, or -1
+	 */
+	private int getSlot(int columnIndex){
+		if ( snapshot == null || ( changed != null && changed.get(columnIndex) ) ){
+			return -1;
+		}
+		return snapshot.getSlot(columnIndex);
+	}
+}
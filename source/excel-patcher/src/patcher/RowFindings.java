@@ -0,0 +1,163 @@
+package patcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Drawing;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import patcher.ExcelUtils.UrgencyLevel;
+import settings.SettingsSnapshot;
+import settings.Settings.BooleanSetting;
+
+/**
+ * Collects the comments and coloring for the cells of a single row while the
+ * row is checked. Nothing is written to the workbook until flush is called, so
+ * each cell gets exactly one comment and one fill no matter how many findings
+ * it has, rather than rebuilding its comment for every message.
+ * <p>
+ * Findings given a kind are also kept as they are, for the findings report.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class RowFindings {
+	/** Findings of each cell, by column index */
+	private Map<Integer, CellFindings> cells = new TreeMap<Integer, CellFindings>();
+	/** Findings for the report, in the order they were recorded. Created on
+	 * the first one, since most rows have none. */
+	private List<FindingsReport.Finding> reported = null;
+
+	/**
+	 * Records a finding on the given cell. The cell will be colored for the
+	 * urgency of the last finding recorded on it.
+	 *
+	 * @param cell the finding is about
+	 * @param comment text to add to the cell's comment
+	 * @param urgency used in coloring the cell
+	 */
+	public void add(Cell cell, String comment, UrgencyLevel urgency){
+		CellFindings findings = cells.get(cell.getColumnIndex());
+		if ( findings == null ){
+			findings = new CellFindings(cell);
+			cells.put(cell.getColumnIndex(), findings);
+		} else {
+			findings.comment.append("\n");
+		}
+		findings.comment.append(comment);
+		findings.urgency = urgency;
+	}
+
+	/**
+	 * Records a finding on the given cell, as add does, and keeps it for the
+	 * findings report.
+	 *
+	 * @param cell the finding is about
+	 * @param finding to record, whose message is added to the cell's comment
+	 */
+	public void add(Cell cell, FindingsReport.Finding finding){
+		add(cell, finding.getMessage(), finding.getUrgency());
+		addReported(finding);
+	}
+
+	/**
+	 * Keeps a finding for the findings report without commenting on a cell,
+	 * for findings whose comments were recorded separately
+	 *
+	 * @param finding to keep
+	 */
+	void addReported(FindingsReport.Finding finding){
+		if ( reported == null ){
+			reported = new ArrayList<FindingsReport.Finding>();
+		}
+		reported.add(finding);
+	}
+
+	/**
+	 * Returns the findings kept for the findings report
+	 * @return the findings kept for the report, which may be empty
+	 */
+	public List<FindingsReport.Finding> getReported(){
+		if ( reported == null ){
+			return Collections.emptyList();
+		}
+		return reported;
+	}
+
+	/**
+	 * Returns if no findings have been recorded
+	 * @return if no findings have been recorded
+	 */
+	public boolean isEmpty(){
+		return cells.isEmpty();
+	}
+
+	/**
+	 * Copies the findings into the row's fingerprint record, so they can be
+	 * written again without checking the row if it has not changed next time.
+	 *
+	 * @param record of the row to copy the findings into
+	 * @param sheetData of the sheet the row is in, to find column titles
+	 */
+	void copyTo(RowFingerprints.RowRecord record, SheetData sheetData){
+		for ( Map.Entry<Integer, CellFindings> entry : cells.entrySet() ){
+			CellFindings findings = entry.getValue();
+			record.addFinding(sheetData.getHeader(entry.getKey()), 
+					findings.comment.toString(), findings.urgency);
+		}
+		if ( reported != null ){
+			for ( FindingsReport.Finding finding : reported ){
+				record.addReported(finding);
+			}
+		}
+	}
+
+	/**
+	 * Writes the recorded findings to the workbook, giving each cell a single
+	 * comment and fill, then clears them. This changes the workbook, so it
+	 * must be called while holding the workbook lock.
+	 *
+	 * @param styleCache to get the cells' new styles from
+	 * @param settings of the check, which say if the cells are colored and
+	 * commented on
+	 */
+	public void flush(CellStyleCache styleCache, SettingsSnapshot settings){
+		boolean color = settings.get(BooleanSetting.COLOR);
+		boolean comment = settings.get(BooleanSetting.COMMENT);
+		boolean colorBlind = settings.get(BooleanSetting.COLOR_BLIND);
+		Drawing drawing = null;
+		for ( CellFindings findings : cells.values() ){
+			if ( color ){
+				ExcelUtils.setCellColor(findings.cell, findings.urgency, styleCache, colorBlind);
+			}
+			if ( comment ){
+				if ( drawing == null ){
+					Sheet sheet = findings.cell.getSheet();
+					drawing = sheet.createDrawingPatriarch();
+				}
+				ExcelUtils.addCellComment(drawing, findings.cell, findings.comment.toString());
+			}
+		}
+		cells.clear();
+	}
+
+	/**
+	 * The findings recorded for a single cell
+	 */
+	private static class CellFindings {
+		/** The cell the findings are about */
+		private Cell cell;
+		/** Lines of the cell's comment, separated by newlines */
+		private StringBuilder comment = new StringBuilder();
+		/** Urgency of the last finding */
+		private UrgencyLevel urgency;
+
+		private CellFindings(Cell cell){
+			this.cell = cell;
+		}
+	}
+}
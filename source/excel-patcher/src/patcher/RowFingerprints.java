@@ -0,0 +1,440 @@
+package patcher;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import patcher.ExcelUtils.UrgencyLevel;
+import settings.Settings.BooleanSetting;
+import settings.SettingsSnapshot;
+import utils.Logger;
+
+/**
+ * The fingerprints of the loan rows of a checked file, saved next to the
+ * output file so that the next check of a resubmitted file only re-checks the
+ * rows that changed. Each row is found by the value of its key column, such
+ * as the loan number, and stores a hash of the cells its checks read along
+ * with the changes and findings that checking it produced. Rows whose hash
+ * still matches get those copied instead of being checked again.
+ * <p>
+ * The fingerprints also hold a hash of the format files and the settings that
+ * change the results, and are only reused if those are the same.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class RowFingerprints implements Serializable {
+	/** Serial UID, changed whenever the saved form or the fingerprints change
+	 * so fingerprint files of an older form are not read */
+	private static final long serialVersionUID = 3L;
+
+	/** Extension added to the output file path to get the fingerprint file path */
+	public static final String FILE_EXTENSION = ".fingerprints";
+
+	/** Hash of the format files and the settings that change the results */
+	private String formatHash;
+	/** Title of the column that identifies each row */
+	private String keyColumn;
+	/** Records of each row by key, for each sheet by name */
+	private Map<String, Map<String, RowRecord>> sheets = new HashMap<String, Map<String, RowRecord>>();
+	/** Keys found on more than one row of a sheet, which are always re-checked */
+	private transient Set<String> duplicateKeys = new HashSet<String>();
+	/** Number of rows recorded from the previous check's records */
+	private transient int reusedRowCount = 0;
+
+	/**
+	 * Creates empty fingerprints for checking with the given format files,
+	 * finding rows by the value of the key column.
+	 *
+	 * @param formatFilePath of the format file the rows are checked with
+	 * @param sheetFormatFilePaths format files by sheet name the sheets named
+	 * in it are checked with instead, or null if only the first sheet is checked
+	 * @param keyColumn title of the column that identifies each row
+	 * @param settings the rows are checked with
+	 */
+	public RowFingerprints(String formatFilePath, Map<String, String> sheetFormatFilePaths,
+			String keyColumn, SettingsSnapshot settings){
+		this.formatHash = hashFormat(formatFilePath, sheetFormatFilePaths, settings);
+		this.keyColumn = keyColumn;
+	}
+
+	/**
+	 * Returns the title of the column that identifies each row
+	 * @return the title of the key column
+	 */
+	public String getKeyColumn(){
+		return keyColumn;
+	}
+
+	/**
+	 * Returns if rows recorded in these fingerprints can be reused when checking
+	 * with the other fingerprints' format files and key column.
+	 *
+	 * @param other fingerprints of the current check
+	 * @return if these fingerprints can be reused by the other's check
+	 */
+	public boolean isCompatible(RowFingerprints other){
+		return formatHash != null && formatHash.equals(other.formatHash)
+				&& keyColumn.equals(other.keyColumn);
+	}
+
+	/**
+	 * Returns the record of the row with the given key in the named sheet, or
+	 * null if there is none.
+	 *
+	 * @param sheetName of the sheet the row is in
+	 * @param key of the row
+	 * @return the record of the row, or null
+	 */
+	synchronized RowRecord getRecord(String sheetName, String key){
+		Map<String, RowRecord> records = sheets.get(sheetName);
+		return records == null ? null : records.get(key);
+	}
+
+	/**
+	 * Stores the record of the row with the given key in the named sheet. If
+	 * another row already used the key, neither is stored, since a later check
+	 * could not tell which of them a record belongs to.
+	 *
+	 * @param sheetName of the sheet the row is in
+	 * @param key of the row
+	 * @param record of the row
+	 */
+	synchronized void putRecord(String sheetName, String key, RowRecord record){
+		Map<String, RowRecord> records = sheets.get(sheetName);
+		if ( records == null ){
+			records = new HashMap<String, RowRecord>();
+			sheets.put(sheetName, records);
+		}
+		String sheetKey = sheetName+"\u0000"+key;
+		if ( duplicateKeys.contains(sheetKey) ){
+			return;
+		}
+		if ( records.put(key, record) != null ){
+			Logger.log("Warning: More than one row of sheet "+sheetName+" has the "
+					+keyColumn+" "+key+". These rows will always be checked in full.");
+			records.remove(key);
+			duplicateKeys.add(sheetKey);
+		}
+	}
+
+	/**
+	 * Stores the record of a row that was not checked because it matched the
+	 * record of the previous check. See putRecord.
+	 *
+	 * @param sheetName of the sheet the row is in
+	 * @param key of the row
+	 * @param record of the row from the previous check
+	 */
+	synchronized void putReusedRecord(String sheetName, String key, RowRecord record){
+		putRecord(sheetName, key, record);
+		reusedRowCount++;
+	}
+
+	/**
+	 * Returns the number of rows whose records were reused from the previous
+	 * check instead of being checked
+	 *
+	 * @return the number of reused rows
+	 */
+	public synchronized int getReusedRowCount(){
+		return reusedRowCount;
+	}
+
+	/**
+	 * Returns the number of rows recorded across all sheets
+	 * @return the number of rows recorded
+	 */
+	public synchronized int size(){
+		int size = 0;
+		for ( Map<String, RowRecord> records : sheets.values() ){
+			size += records.size();
+		}
+		return size;
+	}
+
+	// ####################################################
+	// ### Saving and loading
+	// ####################################################
+	/**
+	 * Saves the fingerprints to the file at the given path. Returns if the
+	 * save was successful.
+	 *
+	 * @param filePath to save the fingerprints to
+	 * @return if the save was successful
+	 */
+	public synchronized boolean save(String filePath){
+		try ( ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filePath)) ){
+			out.writeObject(this);
+			return true;
+		} catch (IOException e) {
+			Logger.log("Error", "Could not save the row fingerprints to "+filePath+": "+e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Loads the fingerprints saved at the given path. Returns null if there are
+	 * none or they cannot be read, in which case every row is checked.
+	 *
+	 * @param filePath the fingerprints were saved to
+	 * @return the loaded fingerprints, or null
+	 */
+	public static RowFingerprints load(String filePath){
+		if ( !Files.isRegularFile(Paths.get(filePath)) ){
+			return null;
+		}
+		try ( ObjectInputStream in = new ObjectInputStream(new FileInputStream(filePath)) ){
+			RowFingerprints fingerprints = (RowFingerprints) in.readObject();
+			fingerprints.duplicateKeys = new HashSet<String>();
+			return fingerprints;
+		} catch (IOException | ClassNotFoundException | ClassCastException e){
+			Logger.log("Warning: Could not read the row fingerprints at "+filePath
+					+", so every row will be checked");
+			return null;
+		}
+	}
+
+	// ####################################################
+	// ### Hashing
+	// ####################################################
+	/**
+	 * Returns the fingerprint of a row from the typed contents of the cells its
+	 * checks read. Each value is hashed along with its column title, so moving
+	 * columns around does not change the fingerprint but moving a value between
+	 * columns does. The type and number of each cell are hashed with its text,
+	 * so the number 12 and the text "12.0" give different fingerprints.
+	 *
+	 * @param titles of the columns read
+	 * @param values of the row's cells in those columns
+	 * @return the fingerprint of the row
+	 */
+	static byte[] fingerprint(String[] titles, CellContents[] values){
+		MessageDigest digest = createDigest();
+		ByteBuffer number = ByteBuffer.allocate(8);
+		for ( int i = 0 ; i < titles.length ; i++ ){
+			digest.update(titles[i].getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(values[i].getType());
+			number.clear();
+			number.putLong(Double.doubleToLongBits(values[i].getNumber()));
+			digest.update(number.array());
+			digest.update(values[i].getText().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 1);
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Returns a hash of the contents of the format files and the settings that
+	 * change what checking a row does. Each sheet's own format file is hashed
+	 * along with the sheet's name, so editing any format file that is used, or
+	 * giving a sheet another one, changes the hash. Returns null if a format
+	 * file cannot be read.
+	 *
+	 * @param formatFilePath of the format file
+	 * @param sheetFormatFilePaths format files by sheet name, or null
+	 * @param settings the rows are checked with
+	 * @return the hash, or null
+	 */
+	private static String hashFormat(String formatFilePath, Map<String, String> sheetFormatFilePaths,
+			SettingsSnapshot settings){
+		MessageDigest digest = createDigest();
+		if ( !hashFile(digest, formatFilePath) ){
+			return null;
+		}
+		if ( sheetFormatFilePaths != null ){
+			//Every sheet is checked, so that is hashed too. Sorted so the order
+			// the sheets were given in does not change the hash.
+			digest.update((byte) 1);
+			for ( Map.Entry<String, String> sheet : new TreeMap<String, String>(sheetFormatFilePaths).entrySet() ){
+				digest.update(sheet.getKey().getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+				if ( !hashFile(digest, sheet.getValue()) ){
+					return null;
+				}
+			}
+		}
+		digest.update((byte) (settings.get(BooleanSetting.DELETE) ? 1 : 0));
+
+		StringBuilder hex = new StringBuilder();
+		for ( byte b : digest.digest() ){
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Adds the contents of the format file and its length to the digest.
+	 * Returns if the file could be read.
+	 *
+	 * @param digest to add the file to
+	 * @param formatFilePath of the format file
+	 * @return if the file could be read
+	 */
+	private static boolean hashFile(MessageDigest digest, String formatFilePath){
+		byte[] contents;
+		try {
+			contents = Files.readAllBytes(Paths.get(formatFilePath));
+		} catch (IOException e) {
+			Logger.log("Warning: Could not read the format file at "+formatFilePath
+					+" to fingerprint it");
+			return false;
+		}
+		digest.update(ByteBuffer.allocate(8).putLong(contents.length).array());
+		digest.update(contents);
+		return true;
+	}
+
+	/**
+	 * Returns a new message digest for fingerprinting
+	 * @return a new message digest
+	 */
+	private static MessageDigest createDigest(){
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// ####################################################
+	// ### Row records
+	// ####################################################
+	/**
+	 * What checking a single row did, and the fingerprint of the cells it read
+	 */
+	static class RowRecord implements Serializable {
+		/** Serial UID, changed whenever the saved form of a record changes so
+		 * records of an older form are not read */
+		private static final long serialVersionUID = 2L;
+
+		/** Fingerprint of the cells the row's checks read */
+		private byte[] fingerprint;
+		/** New typed contents of the cells that checking changed, by column title */
+		private Map<String, CellContents> edits = new HashMap<String, CellContents>();
+		/** Comments and coloring of the cells, in the order they were written */
+		private List<CellFinding> findings = new ArrayList<CellFinding>();
+		/** Findings kept for the findings report. Null in records saved before
+		 * there were reports, or if there are none. */
+		private List<FindingsReport.Finding> reported = null;
+
+		/**
+		 * Creates a new record of a row with the given fingerprint
+		 * @param fingerprint of the cells the row's checks read
+		 */
+		RowRecord(byte[] fingerprint){
+			this.fingerprint = fingerprint;
+		}
+
+		/**
+		 * Returns if the record was made from a row with the given fingerprint
+		 *
+		 * @param otherFingerprint of the row being checked
+		 * @return if the fingerprints are the same
+		 */
+		boolean matches(byte[] otherFingerprint){
+			return Arrays.equals(fingerprint, otherFingerprint);
+		}
+
+		/**
+		 * Records that checking changed the contents of the cell in the column
+		 *
+		 * @param title of the cell's column
+		 * @param contents the cell was changed to
+		 */
+		void addEdit(String title, CellContents contents){
+			edits.put(title, contents);
+		}
+
+		/**
+		 * Returns the new typed contents of the changed cells, by column title
+		 * @return the new contents of the changed cells
+		 */
+		Map<String, CellContents> getEdits(){
+			return edits;
+		}
+
+		/**
+		 * Records the comment and coloring of the cell in the column
+		 *
+		 * @param title of the cell's column
+		 * @param comment of the cell
+		 * @param urgency the cell is colored for
+		 */
+		void addFinding(String title, String comment, UrgencyLevel urgency){
+			findings.add(new CellFinding(title, comment, urgency));
+		}
+
+		/**
+		 * Returns the comments and coloring of the cells
+		 * @return the comments and coloring of the cells
+		 */
+		List<CellFinding> getFindings(){
+			return findings;
+		}
+
+		/**
+		 * Records a finding for the findings report
+		 *
+		 * @param finding to record
+		 */
+		void addReported(FindingsReport.Finding finding){
+			if ( reported == null ){
+				reported = new ArrayList<FindingsReport.Finding>();
+			}
+			reported.add(finding);
+		}
+
+		/**
+		 * Returns the findings for the findings report
+		 * @return the findings for the report, which may be empty
+		 */
+		List<FindingsReport.Finding> getReported(){
+			if ( reported == null ){
+				return Collections.emptyList();
+			}
+			return reported;
+		}
+	}
+
+	/**
+	 * The comment and coloring of a single cell of a recorded row
+	 */
+	static class CellFinding implements Serializable {
+		/** Default serial UID */
+		private static final long serialVersionUID = 1L;
+
+		/** Title of the cell's column */
+		final String title;
+		/** The cell's comment */
+		final String comment;
+		/** Urgency the cell is colored for */
+		final UrgencyLevel urgency;
+
+		private CellFinding(String title, String comment, UrgencyLevel urgency){
+			this.title = title;
+			this.comment = comment;
+			this.urgency = urgency;
+		}
+	}
+}
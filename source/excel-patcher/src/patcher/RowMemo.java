@@ -0,0 +1,92 @@
+package patcher;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers what checking recent rows did, by the typed contents of the cells
+ * the checks read. Checking only looks at the cells of its own row, so a row with
+ * the same contents in those cells as a remembered row gets exactly the same
+ * changes and findings, and can have them copied instead of being checked.
+ * Sheets of bulk generated loans often repeat the same row many times.
+ * <p>
+ * Only the most recently used rows are kept, so memory stays bounded however
+ * many different rows a sheet has.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+class RowMemo {
+	/** Number of different rows remembered unless told otherwise */
+	static final int DEFAULT_CAPACITY = 4096;
+
+	/** Records of the remembered rows by the typed contents of their input
+	 * cells, least recently used first */
+	private final Map<List<CellContents>, RowFingerprints.RowRecord> records;
+	/** Number of rows whose record was found */
+	private int hitCount = 0;
+	/** Number of rows whose record was not found */
+	private int missCount = 0;
+
+	/**
+	 * Creates a new memo that remembers up to capacity different rows
+	 *
+	 * @param capacity number of different rows to remember
+	 */
+	RowMemo(final int capacity){
+		records = new LinkedHashMap<List<CellContents>, RowFingerprints.RowRecord>(16, 0.75f, true){
+			/** Default serial UID */
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<CellContents>, RowFingerprints.RowRecord> eldest){
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the record of a row with the same input cell contents, or null if
+	 * no such row is remembered.
+	 *
+	 * @param inputs contents of the row's input cells, in plan order
+	 * @return the record of the matching row, or null
+	 */
+	synchronized RowFingerprints.RowRecord get(CellContents[] inputs){
+		RowFingerprints.RowRecord record = records.get(Arrays.asList(inputs));
+		if ( record == null ){
+			missCount++;
+		} else {
+			hitCount++;
+		}
+		return record;
+	}
+
+	/**
+	 * Remembers the record of a row that was just checked
+	 *
+	 * @param inputs contents of the row's input cells before it was checked
+	 * @param record of what checking the row did
+	 */
+	synchronized void put(CellContents[] inputs, RowFingerprints.RowRecord record){
+		records.put(Arrays.asList(inputs), record);
+	}
+
+	/**
+	 * Returns the number of rows whose record was found
+	 * @return the number of rows whose record was found
+	 */
+	synchronized int getHitCount(){
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of rows whose record was not found
+	 * @return the number of rows whose record was not found
+	 */
+	synchronized int getMissCount(){
+		return missCount;
+	}
+}
@@ -1,6 +1,9 @@
 package patcher;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Set;
 import java.util.Vector;
 
 import org.apache.poi.ss.usermodel.Cell;
@@ -15,6 +18,12 @@ public class SheetData {
 	private Sheet sheet;
 	/** Map of column headers or titles to that columns index */
 	private HashMap<String, Integer> headers = new HashMap<String, Integer>();
+	/** Map of column indexes to that column's header or title */
+	private HashMap<Integer, String> headerTitles = new HashMap<Integer, String>();
+	/** Unmodifiable view of the header titles */
+	private Set<String> headerSet = Collections.unmodifiableSet(headers.keySet());
+	/** Indexes of the header columns in ascending order, used to test for empty rows */
+	private int[] headerIndexes = new int[0];
 	/** Vector containing all the rows that are to be checked */
 	private Vector<Integer> loanRowIndexes = new Vector<Integer>();
 	
@@ -28,13 +37,34 @@ public class SheetData {
 		this.sheet = sheet;
 		
 		//load necessary data
-		loadHeaders();
+		loadHeaders(ExcelUtils.getSafeRow(sheet, 0));
 		countLoans();
 	}
 	
+	/**
+	 * Constructor to create a sheet data from only the header row of a sheet. This
+	 * is used when rows are streamed in one at a time, so no loan rows are counted
+	 * and rows should be tested with isRowEmpty as they arrive.
+	 * 
+	 * @param headerRow the row containing the column headers
+	 */
+	public SheetData(Row headerRow){
+		this.sheet = headerRow.getSheet();
+		
+		loadHeaders(headerRow);
+	}
+	
 	// ####################################################
 	// ### Getters and Setters
 	// ####################################################
+	/**
+	 * Returns the sheet that this data is based on
+	 * @return the sheet that this data is based on
+	 */
+	public Sheet getSheet(){
+		return sheet;
+	}
+	
 	/**
 	 * Returns if this SheetData has the specified header.
 	 * @param header to check
@@ -52,6 +82,14 @@ public class SheetData {
 		return headers.size();
 	}
 	
+	/**
+	 * Returns an unmodifiable set of the headers in the sheet
+	 * @return an unmodifiable set of the headers in the sheet
+	 */
+	public Set<String> getHeaders(){
+		return headerSet;
+	}
+	
 	/**
 	 * Returns a copy of the content row indexes in the sheet
 	 * @return a copy of the content row indexes in the sheet
@@ -71,12 +109,13 @@ public class SheetData {
 	 * @return index of the given header's column
 	 */
 	public int getColumnIndex(String header){
-		if ( !headers.containsKey(header) ){
+		Integer index = headers.get(header);
+		if ( index == null ){
 			Logger.log("Error", header+" is not a column header. Did you forget to "
 					+"put quotes around a constant in the format file?");
 		}
-		assert( headers.containsKey(header) );
-		return headers.get(header);
+		assert( index != null );
+		return index;
 	}
 	
 	/**
@@ -87,14 +126,28 @@ public class SheetData {
 	 * @return the header or title of the column with the given index
 	 */
 	public String getHeader(int columnIndex){
-		assert( headers.containsValue(columnIndex) );
-		for ( String header : headers.keySet() ){
-			if ( headers.get(header) == columnIndex ){
-				return header;
+		String header = headerTitles.get(columnIndex);
+		assert( header != null );
+		return header;
+	}
+	
+	/**
+	 * Returns if the row has no contents in any of the header columns
+	 * 
+	 * @param row to check
+	 * @return if the row is null or all of its header column cells are empty
+	 */
+	public boolean isRowEmpty(Row row){
+		if ( row == null ){
+			return true;
+		}
+		for ( int i : headerIndexes ){
+			Cell cell = row.getCell(i);
+			if ( !ExcelUtils.isCellEmpty(cell) ){
+				return false;
 			}
 		}
-		assert( false );
-		return null;
+		return true;
 	}
 	
 	// ####################################################
@@ -105,12 +158,12 @@ public class SheetData {
 	private final int MAX_BLANK_COLUMNS = 10;
 	
 	/**
-	 * Loads all of the headers it can find on the input sheet into headers map
+	 * Loads all of the headers it can find in the header row into headers map
+	 * 
+	 * @param row containing the headers, assumed to be row 0
 	 */
-	private void loadHeaders(){
-		// Assume headers are in row 0
-		Row row = ExcelUtils.getSafeRow(sheet, 0);
-		//And start at column 1 (not column 0)
+	private void loadHeaders(Row row){
+		//Start at column 1 (not column 0)
 		int columnCount = 0;
 		int emptyColumnCount = 0 ;
 		while ( emptyColumnCount < MAX_BLANK_COLUMNS ){
@@ -120,16 +173,28 @@ public class SheetData {
 			} else {
 				emptyColumnCount=0;
 				String contents = cell.getStringCellValue();
-				headers.put(contents, columnCount);
+				Integer replaced = headers.put(contents, columnCount);
+				if ( replaced != null ){
+					headerTitles.remove(replaced);
+				}
+				headerTitles.put(columnCount, contents);
 			}
 			columnCount++;
 		}
+		
+		headerIndexes = new int[headers.size()];
+		int i = 0;
+		for ( int index : headers.values() ){
+			headerIndexes[i++] = index;
+		}
+		Arrays.sort(headerIndexes);
 		Logger.logVerbose("Warning: Stopoped searching for headers after column "+ExcelUtils.intToLetter(columnCount));
 	}
 	
 	/** Maximum number of consecutive blank rows the program can find 
-	 * before determining there are no more rows */
-	private final int MAX_BLANK_ROWS = 10;
+	 * before determining there are no more rows. Streamed rows stop being
+	 * checked after as many. */
+	static final int MAX_BLANK_ROWS = 10;
 	/**
 	 * Counts the number of rows on the input sheet
 	 */
@@ -138,23 +203,19 @@ public class SheetData {
 		int emptyRowCount = 0;
 		while ( emptyRowCount <= MAX_BLANK_ROWS ){
 			Row row = sheet.getRow(rowNum);
-			boolean rowIsEmpty = true;
-			if ( row != null ){
-				for ( int i : headers.values() ){
-					Cell cell = row.getCell(i);
-					boolean cellIsEmpty = ExcelUtils.isCellEmpty(cell);
-					if ( !cellIsEmpty ){
-						rowIsEmpty = false;
-						break;
-					}
-				}
-			}
-			if ( rowIsEmpty ){
+			if ( isRowEmpty(row) ){
 				emptyRowCount++;
 			} else {
+				final int firstEmptyRow = rowNum-emptyRowCount;
 				for ( int i = 0 ; i < emptyRowCount ; i++ ){
-					Logger.logVerbose("Warning: Found an empty row in the input file at row number "
-							+(rowNum-emptyRowCount+i)+".");
+					final int emptyRow = firstEmptyRow+i;
+					Logger.logVerbose(new Logger.MessageSupplier(){
+						@Override
+						public String get() {
+							return "Warning: Found an empty row in the input file at row number "
+									+emptyRow+".";
+						}
+					});
 				}
 				emptyRowCount = 0;
 				loanRowIndexes.add(rowNum);
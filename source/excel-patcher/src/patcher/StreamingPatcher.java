@@ -0,0 +1,142 @@
+package patcher;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import patcher.format.FormatData;
+import settings.Settings;
+import settings.SettingsSnapshot;
+import utils.Logger;
+
+/**
+ * Connects a StreamingSheetReader to an ExcelChecker so that an input file
+ * is checked row by row as it is read, instead of being loaded as a whole
+ * workbook first. The header row creates the checker, and every following
+ * non-empty row is patched as soon as it arrives. As when a whole sheet is
+ * loaded, rows after more than SheetData.MAX_BLANK_ROWS blank rows in a row
+ * are not loans and are copied without being checked.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class StreamingPatcher implements StreamingSheetReader.RowHandler {
+	/** Format data to check the rows with */
+	private FormatData formatData;
+	/** Sheet data built from the header row, null until it is read */
+	private SheetData sheetData = null;
+	/** Checker created once the header row is read */
+	private ExcelChecker checker = null;
+	/** Fingerprints of the last check, null if there were none */
+	private RowFingerprints previousFingerprints;
+	/** Fingerprints to record the rows into, null if not checking incrementally */
+	private RowFingerprints fingerprints;
+	/** Settings to check the rows with */
+	private SettingsSnapshot settings;
+	/** Metrics to record the checks into, null if they are not kept */
+	private CheckMetrics metrics;
+	/** Tracker to report finished rows to, null if progress is not tracked */
+	private ProgressTracker progress;
+	/** Report to write the findings to, null if there is none */
+	private FindingsReport report;
+	/** Row number of the last non-empty row, the header row until a loan is read */
+	private int lastLoanRowNum = 0;
+	/** If a long enough run of blank rows was found to end the loans */
+	private boolean pastLastLoan = false;
+
+	/**
+	 * Creates a new streaming patcher that checks with the given format data
+	 *
+	 * @param formatData to check rows with
+	 * @param previousFingerprints of the last check, may be null
+	 * @param fingerprints to record the rows into, may be null
+	 * @param settings to check the rows with
+	 * @param metrics to record the checks into, may be null
+	 * @param progress tracker to report finished rows to, may be null
+	 * @param report to write the findings to, may be null
+	 */
+	private StreamingPatcher(FormatData formatData, RowFingerprints previousFingerprints,
+			RowFingerprints fingerprints, SettingsSnapshot settings, CheckMetrics metrics,
+			ProgressTracker progress, FindingsReport report){
+		this.formatData = formatData;
+		this.previousFingerprints = previousFingerprints;
+		this.fingerprints = fingerprints;
+		this.settings = settings;
+		this.metrics = metrics;
+		this.progress = progress;
+		this.report = report;
+	}
+
+	/**
+	 * Streams the first sheet of the xlsx file at inputFilePath into a new sheet
+	 * of the output workbook, checking and patching each row as it is read.
+	 * Returns if the input file was read successfully.
+	 *
+	 * @param inputFilePath of the xlsx file to check
+	 * @param output workbook that the patched rows are written to
+	 * @param formatData to check with
+	 * @return if the input was read successfully
+	 */
+	public static boolean patchFile(String inputFilePath, Workbook output, FormatData formatData){
+		return patchFile(inputFilePath, output, formatData, null, null, Settings.snapshot(), null, null, null);
+	}
+
+	/**
+	 * Streams the input file into the output workbook as patchFile does, but
+	 * checks with the given settings, incrementally against the previous
+	 * fingerprints, recording metrics, reporting progress and writing a
+	 * findings report.
+	 *
+	 * @param inputFilePath of the xlsx file to check
+	 * @param output workbook that the patched rows are written to
+	 * @param formatData to check with
+	 * @param previousFingerprints of the last check, may be null
+	 * @param fingerprints to record the rows into, or null to check every row
+	 * @param settings to check the rows with
+	 * @param metrics to record the checks into, or null to keep none
+	 * @param progress tracker to report finished rows to, or null
+	 * @param report to write the findings to, or null
+	 * @return if the input was read successfully
+	 */
+	public static boolean patchFile(String inputFilePath, Workbook output, FormatData formatData,
+			RowFingerprints previousFingerprints, RowFingerprints fingerprints,
+			SettingsSnapshot settings, CheckMetrics metrics, ProgressTracker progress,
+			FindingsReport report){
+		StreamingPatcher patcher = new StreamingPatcher(formatData, previousFingerprints, 
+				fingerprints, settings, metrics, progress, report);
+		StreamingSheetReader reader = new StreamingSheetReader(inputFilePath);
+		Sheet sheet = reader.read(output, patcher);
+		return sheet != null;
+	}
+
+	@Override
+	public void handleRow(Row row){
+		//Headers are in row 0
+		if ( row.getRowNum() == 0 ){
+			sheetData = new SheetData(row);
+			checker = new ExcelChecker(sheetData, formatData, settings);
+			if ( fingerprints != null ){
+				checker.setFingerprints(previousFingerprints, fingerprints);
+			}
+			if ( metrics != null ){
+				checker.setMetrics(metrics);
+			}
+			if ( progress != null ){
+				checker.setProgressTracker(progress);
+			}
+			if ( report != null ){
+				checker.setReport(report);
+			}
+		} else if ( checker != null && !pastLastLoan && !sheetData.isRowEmpty(row) ){
+			//Rows missing from the file between two rows are blank as well
+			if ( row.getRowNum() - lastLoanRowNum - 1 > SheetData.MAX_BLANK_ROWS ){
+				pastLastLoan = true;
+				Logger.logVerbose("Stopped checking at row "+row.getRowNum()+" after more than "
+						+SheetData.MAX_BLANK_ROWS+" blank rows");
+				return;
+			}
+			lastLoanRowNum = row.getRowNum();
+			checker.patchRow(row);
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package patcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.CommentsTable;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import utils.Logger;
+
+/**
+ * Reads the first sheet of an xlsx file using POI's event model rather than
+ * loading the whole workbook. Each row is parsed with SAX, copied into a row
+ * of a target workbook and handed to a RowHandler before the next row is
+ * read, so only the row being handled and the shared strings table need to be
+ * held from the input file.
+ * <p>
+ * Cell styles, column widths and merged regions are copied into the target
+ * sheet. Comments already in the input sheet are kept in a separate part of
+ * the file that is not read, so they are not carried over.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class StreamingSheetReader {
+	/**
+	 * Callback for rows as they are read from the input sheet.
+	 */
+	public interface RowHandler {
+		/**
+		 * Called once for every row read from the input sheet, in order.
+		 *
+		 * @param row the row that was just read into the target sheet
+		 */
+		public void handleRow(Row row);
+	}
+
+	/** Path of the xlsx file to read */
+	private String filePath;
+
+	/**
+	 * Creates a new reader for the xlsx file at the given path
+	 *
+	 * @param filePath of the xlsx file to read
+	 */
+	public StreamingSheetReader(String filePath){
+		this.filePath = filePath;
+	}
+
+	/**
+	 * Reads the first sheet of the input file into a new sheet of the target
+	 * workbook, passing each row to the handler as soon as it has been read.
+	 * The new sheet has the same name as the input sheet. Returns null and
+	 * logs an error if the file could not be read.
+	 *
+	 * @param target workbook to create the sheet in
+	 * @param handler to pass each row to
+	 * @return the sheet created in the target workbook, null if reading failed
+	 */
+	public Sheet read(Workbook target, RowHandler handler){
+		OPCPackage pkg = null;
+		try {
+			pkg = OPCPackage.open(filePath, PackageAccess.READ);
+			XSSFReader reader = new XSSFReader(pkg);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+			StylesTable styles = reader.getStylesTable();
+
+			XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+			if ( !sheets.hasNext() ){
+				Logger.log("Error", "Excel file at "+filePath+" has no sheets to check");
+				return null;
+			}
+			InputStream sheetStream = sheets.next();
+			Sheet sheet = target.createSheet(sheets.getSheetName());
+			CommentsTable comments = sheets.getSheetComments();
+			if ( comments != null && comments.getNumberOfComments() > 0 ){
+				Logger.log("Warning: The "+comments.getNumberOfComments()+" comments already in sheet "
+						+sheets.getSheetName()+" are not copied to the output when streaming");
+			}
+
+			try {
+				SAXParserFactory factory = SAXParserFactory.newInstance();
+				factory.setNamespaceAware(true);
+				XMLReader parser = factory.newSAXParser().getXMLReader();
+				parser.setContentHandler(new SheetHandler(sheet, strings, styles, handler));
+				parser.parse(new InputSource(sheetStream));
+			} finally {
+				sheetStream.close();
+			}
+			return sheet;
+		} catch (OpenXML4JException e) {
+			Logger.log("Error", "Excel file at "+filePath+" could not be streamed, it"
+					+" must be an xlsx file. Quitting");
+			Logger.logVerbose("Error", e.getMessage());
+		} catch (SAXException | ParserConfigurationException e) {
+			Logger.log("Error", "Could not parse the sheet in excel file at "+filePath);
+			Logger.logVerbose("Error", e.getMessage());
+		} catch (IOException e) {
+			Logger.log("Error", "IO Exception while streaming excel file from location "+filePath);
+			Logger.logVerbose("Error", e.getMessage());
+		} finally {
+			if ( pkg != null ){
+				pkg.revert();
+			}
+		}
+		return null;
+	}
+
+	//###########################################################
+	//##### SAX handler subclass
+	//###########################################################
+	/**
+	 * SAX handler for the sheet xml. Builds each row in the target sheet cell
+	 * by cell and hands it off when the row element closes.
+	 *
+	 * @author Ashton Dyer (WabashCannon)
+	 *
+	 */
+	private static class SheetHandler extends DefaultHandler {
+		/** Sheet that rows are read into */
+		private Sheet target;
+		/** Shared strings of the input file */
+		private ReadOnlySharedStringsTable strings;
+		/** Styles of the input file, copied into the target workbook */
+		private StylesTable styles;
+		/** Where each finished row is sent */
+		private RowHandler handler;
+		/** Styles created in the target workbook, keyed by input style index */
+		private Map<Integer, CellStyle> targetStyles = new HashMap<Integer, CellStyle>();
+
+		// State of the row and cell being parsed
+		/** Row currently being read */
+		private Row row = null;
+		/** Index of the last row read, for rows without a reference */
+		private int lastRowIndex = -1;
+		/** Column index of the cell being read */
+		private int columnIndex = -1;
+		/** Value of the t attribute of the cell being read */
+		private String cellType = null;
+		/** Value of the s attribute of the cell being read */
+		private String cellStyle = null;
+		/** Contents of the cell's v or inline t element */
+		private StringBuilder value = new StringBuilder();
+		/** Contents of the cell's f element */
+		private StringBuilder formula = new StringBuilder();
+		/** If characters should currently be collected into value */
+		private boolean inValue = false;
+		/** If characters should currently be collected into formula */
+		private boolean inFormula = false;
+
+		private SheetHandler(Sheet target, ReadOnlySharedStringsTable strings,
+				StylesTable styles, RowHandler handler){
+			this.target = target;
+			this.strings = strings;
+			this.styles = styles;
+			this.handler = handler;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes attributes) throws SAXException {
+			if ( localName.equals("col") ){
+				setColumnWidths(attributes);
+			} else if ( localName.equals("mergeCell") ){
+				String ref = attributes.getValue("ref");
+				if ( ref != null ){
+					target.addMergedRegion(CellRangeAddress.valueOf(ref));
+				}
+			} else if ( localName.equals("row") ){
+				String ref = attributes.getValue("r");
+				int rowIndex = ref == null ? lastRowIndex+1 : Integer.parseInt(ref)-1;
+				row = target.createRow(rowIndex);
+				lastRowIndex = rowIndex;
+				columnIndex = -1;
+			} else if ( localName.equals("c") ){
+				String ref = attributes.getValue("r");
+				columnIndex = ref == null ? columnIndex+1 : new CellReference(ref).getCol();
+				cellType = attributes.getValue("t");
+				cellStyle = attributes.getValue("s");
+				value.setLength(0);
+				formula.setLength(0);
+			} else if ( localName.equals("v") || localName.equals("t") ){
+				inValue = true;
+			} else if ( localName.equals("f") ){
+				inFormula = true;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			if ( inValue ){
+				value.append(ch, start, length);
+			} else if ( inFormula ){
+				formula.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName)
+				throws SAXException {
+			if ( localName.equals("v") || localName.equals("t") ){
+				inValue = false;
+			} else if ( localName.equals("f") ){
+				inFormula = false;
+			} else if ( localName.equals("c") ){
+				createCell();
+			} else if ( localName.equals("row") ){
+				handler.handleRow(row);
+				row = null;
+			}
+		}
+
+		/**
+		 * Creates the cell that was just parsed in the current row
+		 */
+		private void createCell(){
+			Cell cell = row.createCell(columnIndex);
+			String text = value.toString();
+
+			//Formulas are kept as formulas, like in a loaded workbook
+			if ( formula.length() > 0 ){
+				try {
+					cell.setCellFormula(formula.toString());
+					return;
+				} catch ( RuntimeException e ){
+					//Fall back on the cached value
+					Logger.logVerbose("Warning: Could not copy formula "+formula
+							+" in row "+(row.getRowNum()+1)+", using its value instead");
+				}
+			}
+
+			if ( "s".equals(cellType) ){
+				cell.setCellValue(strings.getEntryAt(Integer.parseInt(text)));
+			} else if ( "inlineStr".equals(cellType) || "str".equals(cellType) ){
+				cell.setCellValue(text);
+			} else if ( "b".equals(cellType) ){
+				cell.setCellValue(text.equals("1"));
+			} else if ( "e".equals(cellType) ){
+				try {
+					cell.setCellErrorValue(FormulaError.forString(text).getCode());
+				} catch ( IllegalArgumentException e ){
+					cell.setCellType(Cell.CELL_TYPE_BLANK);
+				}
+			} else if ( !text.isEmpty() ){
+				cell.setCellValue(Double.parseDouble(text));
+			}
+
+			CellStyle style = getTargetStyle();
+			if ( style != null ){
+				cell.setCellStyle(style);
+			}
+		}
+
+		/**
+		 * Sets the widths of the target sheet's columns from a col element of
+		 * the input sheet
+		 *
+		 * @param attributes of the col element
+		 */
+		private void setColumnWidths(Attributes attributes){
+			String min = attributes.getValue("min");
+			String max = attributes.getValue("max");
+			String width = attributes.getValue("width");
+			if ( min == null || max == null || width == null ){
+				return;
+			}
+			//Widths are in characters, POI takes 256ths of a character
+			int units = (int) Math.min(Double.parseDouble(width)*256, 255*256);
+			int last = Math.min(Integer.parseInt(max), SpreadsheetVersion.EXCEL2007.getMaxColumns());
+			for ( int column = Integer.parseInt(min) ; column <= last ; column++ ){
+				target.setColumnWidth(column-1, units);
+			}
+		}
+
+		/**
+		 * Returns a style in the target workbook copied from the current cell's
+		 * style in the input, with its number format, font, fill, borders and
+		 * alignment. Returns null if the cell has no style.
+		 *
+		 * @return the target style for the current cell, or null
+		 */
+		private CellStyle getTargetStyle(){
+			if ( cellStyle == null ){
+				return null;
+			}
+			int styleIndex = Integer.parseInt(cellStyle);
+			if ( targetStyles.containsKey(styleIndex) ){
+				return targetStyles.get(styleIndex);
+			}
+
+			CellStyle style = null;
+			XSSFCellStyle sourceStyle = styles.getStyleAt(styleIndex);
+			if ( sourceStyle != null ){
+				Workbook wb = target.getWorkbook();
+				style = wb.createCellStyle();
+				try {
+					style.cloneStyleFrom(sourceStyle);
+				} catch ( RuntimeException e ){
+					//Keep at least the number format, so dates stay dates
+					Logger.logVerbose("Warning: Could not copy cell style "+styleIndex
+							+", only its number format is kept");
+					style.setDataFormat(wb.createDataFormat().getFormat(
+							sourceStyle.getDataFormatString()));
+				}
+			}
+			targetStyles.put(styleIndex, style);
+			return style;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package patcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import patcher.format.FormatData;
+import settings.Settings;
+import settings.SettingsSnapshot;
+import utils.Logger;
+
+/**
+ * Checks every sheet of a workbook rather than only the first. Each sheet
+ * gets its own ExcelChecker and format data, which may come from a format
+ * file chosen for that sheet by name. The sheets are checked concurrently,
+ * so a workbook split across several tabs takes about as long as its
+ * largest sheet. All of the checkers share the workbook's lock and one
+ * style cache.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public class WorkbookChecker {
+	/** Checkers of each checked sheet, by sheet name */
+	private Map<String, ExcelChecker> checkers = new HashMap<String, ExcelChecker>();
+	/** Names of the checked sheets in workbook order */
+	private List<String> sheetNames = new ArrayList<String>();
+
+	/**
+	 * Creates checkers for every non-empty sheet of the workbook using the
+	 * current settings. See the other constructor.
+	 *
+	 * @param workbook to check
+	 * @param defaultFormatFilePath format file for sheets without their own
+	 * @param sheetFormatFilePaths format files by sheet name, may be null
+	 */
+	public WorkbookChecker(Workbook workbook, String defaultFormatFilePath,
+			Map<String, String> sheetFormatFilePaths){
+		this(workbook, defaultFormatFilePath, sheetFormatFilePaths, Settings.snapshot());
+	}
+
+	/**
+	 * Creates checkers for every non-empty sheet of the workbook. Sheets named
+	 * in sheetFormatFilePaths are checked with that format file, all others with
+	 * the default format file.
+	 *
+	 * @param workbook to check
+	 * @param defaultFormatFilePath format file for sheets without their own
+	 * @param sheetFormatFilePaths format files by sheet name, may be null
+	 * @param settings to check every sheet with
+	 */
+	public WorkbookChecker(Workbook workbook, String defaultFormatFilePath,
+			Map<String, String> sheetFormatFilePaths, SettingsSnapshot settings){
+		CellStyleCache styleCache = new CellStyleCache(workbook);
+
+		for ( int i = 0 ; i < workbook.getNumberOfSheets() ; i++ ){
+			Sheet sheet = workbook.getSheetAt(i);
+			String name = sheet.getSheetName();
+			if ( sheet.getPhysicalNumberOfRows() == 0 ){
+				Logger.log("Skipping sheet "+name+" since it is empty");
+				continue;
+			}
+
+			String formatFilePath = defaultFormatFilePath;
+			if ( sheetFormatFilePaths != null && sheetFormatFilePaths.containsKey(name) ){
+				formatFilePath = sheetFormatFilePaths.get(name);
+			}
+			Logger.log("Checking sheet "+name+" with format file "+formatFilePath);
+
+			//Format data is changed by the checker, so each sheet loads its own
+			FormatData formatData = new FormatData(formatFilePath);
+			checkers.put(name, new ExcelChecker(sheet, formatData, styleCache, settings));
+			sheetNames.add(name);
+		}
+
+		if ( sheetFormatFilePaths != null ){
+			for ( String name : sheetFormatFilePaths.keySet() ){
+				if ( workbook.getSheet(name) == null ){
+					Logger.log("Warning: A format file was given for sheet "+name
+							+" but the workbook has no sheet with that name.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks every sheet incrementally against the previous fingerprints. See
+	 * ExcelChecker.setFingerprints.
+	 *
+	 * @param previous fingerprints of the last check, or null if there was none
+	 * @param current fingerprints to record this check's rows into
+	 */
+	public void setFingerprints(RowFingerprints previous, RowFingerprints current){
+		for ( String name : sheetNames ){
+			checkers.get(name).setFingerprints(previous, current);
+		}
+	}
+
+	/**
+	 * Counts and times the checks of every sheet into the given metrics. See
+	 * ExcelChecker.setMetrics.
+	 *
+	 * @param metrics to record into
+	 */
+	public void setMetrics(CheckMetrics metrics){
+		for ( String name : sheetNames ){
+			checkers.get(name).setMetrics(metrics);
+		}
+	}
+
+	/**
+	 * Writes the findings of every sheet to the given report. See
+	 * ExcelChecker.setReport.
+	 *
+	 * @param report to write the findings to
+	 */
+	public void setReport(FindingsReport report){
+		for ( String name : sheetNames ){
+			checkers.get(name).setReport(report);
+		}
+	}
+
+	/**
+	 * Reports the rows of every sheet to the given progress tracker. See
+	 * ExcelChecker.setProgressTracker.
+	 *
+	 * @param progress tracker to report to
+	 */
+	public void setProgressTracker(ProgressTracker progress){
+		for ( String name : sheetNames ){
+			checkers.get(name).setProgressTracker(progress);
+		}
+	}
+
+	/**
+	 * Checks and patches all of the rows of every sheet, checking up to
+	 * threadCount sheets at once.
+	 * <p>
+	 * If checking a sheet fails or the wait for the sheets is interrupted, the
+	 * sheets left are not checked and an IllegalStateException is thrown, so
+	 * the half checked workbook is not saved.
+	 *
+	 * @param threadCount number of sheets to check at once
+	 * @throws IllegalStateException if the sheets could not all be checked
+	 */
+	public void patchAllSheets(int threadCount){
+		if ( threadCount <= 1 || checkers.size() < 2 ){
+			for ( String name : sheetNames ){
+				checkers.get(name).patchAllLoans();
+			}
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threadCount, checkers.size()));
+		List<Future<?>> sheets = new ArrayList<Future<?>>();
+		for ( String name : sheetNames ){
+			final ExcelChecker checker = checkers.get(name);
+			sheets.add( pool.submit(new Runnable(){
+				@Override
+				public void run() {
+					checker.patchAllLoans();
+				}
+			}) );
+		}
+		pool.shutdown();
+
+		//Wait for all the sheets to finish
+		for ( int i = 0 ; i < sheets.size() ; i++ ){
+			try {
+				sheets.get(i).get();
+			} catch (InterruptedException e) {
+				Logger.log("Error", "Interrupted while waiting for sheets to be checked");
+				ExcelChecker.stopWorkers(pool);
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while checking the sheets", e);
+			} catch (ExecutionException e) {
+				Logger.log("Error", "Checking sheet "+sheetNames.get(i)+" failed: "+e.getCause());
+				ExcelChecker.stopWorkers(pool);
+				throw new IllegalStateException("Checking sheet "+sheetNames.get(i)+" failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Cleans every checked sheet of any comments and coloring
+	 */
+	public void cleanOutput(){
+		for ( String name : sheetNames ){
+			checkers.get(name).cleanOutput();
+		}
+	}
+}
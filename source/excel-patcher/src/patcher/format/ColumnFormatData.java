@@ -7,6 +7,7 @@ import java.util.Vector;
 import org.apache.poi.ss.usermodel.RichTextString;
 import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 
+import patcher.RowContext;
 import patcher.format.conditional.Specification;
 import utils.Logger;
 
@@ -25,6 +26,25 @@ public class ColumnFormatData {
 	/** This format's specifications */
 	private Vector<Specification> specifications = new Vector<Specification>();
 	
+	/** The data type required by the "Type" specification, null if there is none */
+	private DataType type = null;
+	/** The maximum number of characters from the "MaxPossibleCharacters" specification */
+	private int maxCharacterCount = 32767;
+	/** The "Required" specification, null if there is none */
+	private Specification requiredSpec = null;
+	/** The "Value" specification, null if there is none */
+	private Specification valueSpec = null;
+	/** If requiredSpec does not depend on other cells, so is the same in every row */
+	private boolean requiredIsStatic = false;
+	/** If valueSpec does not depend on other cells, so is the same in every row */
+	private boolean valueIsStatic = false;
+	/** Value of requiredSpec once evaluated, if it does not depend on other cells */
+	private volatile Boolean staticRequired = null;
+	/** Value of valueSpec once evaluated, if it does not depend on other cells */
+	private volatile String staticValue = null;
+	/** If staticValue has been evaluated, since null is a valid value */
+	private volatile boolean staticValueResolved = false;
+	
 	/**
 	 * Creates a new column format data with the given title
 	 * 
@@ -35,17 +55,42 @@ public class ColumnFormatData {
 	}
 	
 	/**
-	 * Adds a specification to this column's format data
+	 * Adds a specification to this column's format data. If a specification of
+	 * the same type was already added, the first one is the one applied.
 	 * 
 	 * @param spec specification to add
 	 */
 	public void addSpecification(Specification spec){
+		boolean duplicate = false;
 		for ( Specification spec2 : specifications ){
 			if ( spec.getType().equals(spec2.getType()) ){
 				Logger.log("Error", "Specification "+spec.getType()+" declared twice for column"+getTitle());
+				duplicate = true;
 			}
 		}
 		specifications.add(spec);
+		if ( duplicate ){
+			return;
+		}
+		
+		//Resolve what can be known before any rows are checked
+		String specType = spec.getType();
+		if ( specType.equals("Required") ){
+			requiredSpec = spec;
+			requiredIsStatic = spec.getDependencies().isEmpty();
+		} else if ( specType.equals("Value") ){
+			valueSpec = spec;
+			valueIsStatic = spec.getDependencies().isEmpty();
+		} else if ( specType.equals("Type") ){
+			type = spec.getDataType();
+		} else if ( specType.equals("MaxPossibleCharacters") ){
+			try {
+				maxCharacterCount = Integer.parseInt(spec.getValue(null));
+			} catch ( NumberFormatException e ){
+				Logger.log("Error", "MaxPossibleCharacters for column "+getTitle()+" should be an integer"
+						+" but was "+spec.getValue(null)+". Using the Excel maximum of "+maxCharacterCount);
+			}
+		}
 	}
 	
 	/**
@@ -95,17 +140,23 @@ public class ColumnFormatData {
 	
 	/**
 	 * Returns if this column format data demands cells be filled with
-	 * something. Passes along the "Required" specification setting.
+	 * something in the given row. Passes along the "Required" specification setting.
 	 * 
+	 * @param context of the row being checked
 	 * @return if this column is required
 	 */
-	public boolean isRequired(){
-		Specification requiredSpec = getSpecification("Required");
+	public boolean isRequired(RowContext context){
 		if ( requiredSpec == null ){
 			return false;
-		} else {
-			return Boolean.parseBoolean(requiredSpec.getValue());
 		}
+		if ( staticRequired != null ){
+			return staticRequired;
+		}
+		boolean required = requiredSpec.isTrue(context);
+		if ( requiredIsStatic ){
+			staticRequired = required;
+		}
+		return required;
 	}
 	
 	/**
@@ -115,12 +166,7 @@ public class ColumnFormatData {
 	 * @return the maximumn number of characters allowed in this column's cells
 	 */
 	public int getMaxCharacterCount(){
-		Specification maxCharSpec = getSpecification("MaxPossibleCharacters");
-		if ( maxCharSpec == null ){
-			return 32767;
-		} else {
-			return Integer.parseInt(maxCharSpec.getValue());
-		}
+		return maxCharacterCount;
 	}
 	
 	/**
@@ -130,26 +176,33 @@ public class ColumnFormatData {
 	 * @return the DataType required for this column's cells
 	 */
 	public DataType getType(){
-		Specification typeSpec = getSpecification("Type");
-		if ( typeSpec == null ){
-			return null;
-		} else {
-			return new DataType( typeSpec.getValue() );
-		}
+		return type;
 	}
 	
 	/**
-	 * Returns the required content of this cell in RichTextString format. Returns
-	 * null if a specific content is not specified.
+	 * Returns the required content of this cell in the given row in RichTextString 
+	 * format. Returns null if a specific content is not specified.
 	 * 
+	 * @param context of the row being checked
 	 * @return the required content of this cell in RichTextString format.
 	 */
-	public RichTextString getValue(){
-		Specification valueSpec = getSpecification("Value");
-		if ( valueSpec == null || valueSpec.getValue() == null ){
+	public RichTextString getValue(RowContext context){
+		if ( valueSpec == null ){
+			return null;
+		}
+		String value;
+		if ( staticValueResolved ){
+			value = staticValue;
+		} else {
+			value = valueSpec.getValue(context);
+			if ( valueIsStatic ){
+				staticValue = value;
+				staticValueResolved = true;
+			}
+		}
+		if ( value == null ){
 			return null;
 		} else {
-			String value = valueSpec.getValue();
 			return new XSSFRichTextString( value );
 		}
 	}
@@ -179,27 +232,4 @@ public class ColumnFormatData {
 		Logger.log("Error", "Tried to fetch finalized dependencies before they were finalized");
 		return null;
 	}
-	
-	/**
-	 * Returns the specification with keyword matching type if this column has it.
-	 * Otherwise returns null
-	 * 
-	 * @param type String from the set of Specification.SPECIFICATION_KEYWORDS
-	 * @return the specification matching the given type
-	 */
-	private Specification getSpecification(String type){
-		// Check if the argument is a valid specification type
-		if ( !KeywordChecker.containsIgnoresCase(Specification.SPECIFICATION_KEYWORDS, type) ){
-			Logger.log("Error",  "Tried to get specification of type "+type
-					+" which is not a specification keyword");
-		}
-		// Return the specification if it exists
-		for ( Specification spec : specifications){
-			if ( spec.getType().equals(type) ){
-				return spec;
-			}
-		}
-		//If none found
-		return null;
-	}
 }
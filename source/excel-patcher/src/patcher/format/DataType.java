@@ -2,7 +2,12 @@ package patcher.format;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,6 +18,7 @@ import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 
 import patcher.ExcelUtils;
 import utils.Logger;
+import utils.Utils;
 
 /**
  * This class is used for storing a data type and checking a cell's contents
@@ -29,11 +35,31 @@ public class DataType {
 	private String dataTypeName = null;
 	/** If the data type is Enumerable, this list contains possible values */
 	private List<String> enumVals;
+	/** If the data type is Enumerable, the possible values for exact matching */
+	private Set<String> enumSet;
+	/** If the data type is Enumerable, the lower cased possible values for
+	 * finding the value a cell's contents are a prefix of, or start with */
+	private EnumerablePrefixTrie enumTrie;
 	/** Total length for decimal data type */
 	int totalLength = 0;
 	/** Decimal length form decimal data type */
 	int decimalLength = 0;
 	
+	/** Most decimal places a Decimal is checked or truncated to. Powers of ten
+	 * up to this are exact doubles. */
+	private static final int MAX_FRACTION_DIGITS = 22;
+	/** Powers of ten from 10^0 to 10^MAX_FRACTION_DIGITS */
+	private static final double[] POWERS_OF_TEN = new double[MAX_FRACTION_DIGITS+1];
+	/** 2^53, above which every double is a whole number and below which every
+	 * whole number is an exact double */
+	private static final double TWO_TO_53 = 9007199254740992.0;
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for ( int i = 1 ; i < POWERS_OF_TEN.length ; i++ ){
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1]*10;
+		}
+	}
+	
 	/**
 	 * Creates a new DataType object from the given format text
 	 * 
@@ -68,6 +94,8 @@ public class DataType {
 		while (m.find()) {
 			enumVals.add( m.group(1) );
 		}
+		enumSet = new HashSet<String>(enumVals);
+		enumTrie = new EnumerablePrefixTrie(enumVals);
 	}
 	
 	/**
@@ -117,7 +145,7 @@ public class DataType {
 			case Cell.CELL_TYPE_STRING:
 				String content = cell.getStringCellValue();
 				if (dataTypeName.equals("Enumerable")) { 
-					return enumVals.contains(cell.getStringCellValue());
+					return enumSet.contains(content);
 				} else if ( isBooleanString(content) ){
 					return dataTypeName.equals("Boolean");
 				//} else if ( Utils.isNumber(content) ){
@@ -130,10 +158,7 @@ public class DataType {
 					return dataTypeName.equals("Date");
 				}
 				double cellValue = cell.getNumericCellValue();
-				long cellValueL = (long)cell.getNumericCellValue();
-				
-				boolean isInt = (cellValue - cellValueL) == 0;
-				return isValidNumber(cellValue, isInt);
+				return isValidNumber(cellValue, isInteger(cellValue));
 			case Cell.CELL_TYPE_FORMULA:
 				return false;
 			default:
@@ -142,6 +167,31 @@ public class DataType {
 		return false;
 	}
 	
+	/**
+	 * Checks a whole column of numbers at once. Sets valid[i] to if numbers[i]
+	 * has this data type, as checkCell finds for a numeric cell that is not a
+	 * date. The data type is only looked at once for the column rather than for
+	 * every cell, so Integer columns are a plain loop over the values and
+	 * Decimal columns only work out the digits of values that are not whole.
+	 * 
+	 * @param numbers to check
+	 * @param valid set to if each number has this data type
+	 */
+	public void checkNumbers(double[] numbers, boolean[] valid){
+		int count = Math.min(numbers.length, valid.length);
+		if ( "Integer".equals(dataTypeName) ){
+			for ( int i = 0 ; i < count ; i++ ){
+				valid[i] = isInteger(numbers[i]);
+			}
+		} else if ( "Decimal".equals(dataTypeName) ){
+			for ( int i = 0 ; i < count ; i++ ){
+				valid[i] = isInteger(numbers[i]) || isValidDecimal(numbers[i]);
+			}
+		} else {
+			Arrays.fill(valid, 0, count, false);
+		}
+	}
+	
 	/**
 	 * Attempts to fix the data type in the provided cell.
 	 * 
@@ -156,52 +206,28 @@ public class DataType {
 		
 		// Try to fix double cells
 		if ( dataTypeName.equals("Decimal") && cell.getCellType() == Cell.CELL_TYPE_STRING ){
-			String str = cell.getStringCellValue();
-			try {
-				double dbl = Double.parseDouble(str);
+			double dbl = Utils.parseNumber(cell.getStringCellValue());
+			if ( !Double.isNaN(dbl) ){
 				cell.setCellType(Cell.CELL_TYPE_NUMERIC);
 				cell.setCellValue(dbl);
-			} catch ( NumberFormatException e ){
-				//Do nothing
 			}
 		}
 		
 		if ( dataTypeName.equals("Decimal") && cell.getCellType() == Cell.CELL_TYPE_NUMERIC ){
 			double dbl = cell.getNumericCellValue();
-			String str = String.valueOf(dbl);
-			String[] arr = str.split("\\.");
-			if ( arr.length == 2 ){
-				int totalLength = str.length();
-				int decimalLength = arr[1].length();
-				int totalCut = totalLength - this.totalLength;
-				int decimalCut = decimalLength - this.decimalLength;
-				int toCut = Math.max(totalCut, decimalCut);
-				if ( toCut > 0 ){
-					if ( toCut <= decimalLength ) {
-						arr[1] = arr[1].substring(0, arr[1].length()-toCut);
-						cell.setCellValue(Double.parseDouble(arr[0]+"."+arr[1]));
-					} else if ( arr[0].length() <= this.totalLength ){
-						cell.setCellValue(Double.parseDouble(arr[0]));
-					}
-				}
+			double truncated = truncateDecimal(dbl);
+			if ( truncated != dbl ){
+				cell.setCellValue(truncated);
 			}
 		}
 		
 		// Try to fix int cells
 		if ( dataTypeName.equals("Integer") && cell.getCellType() == Cell.CELL_TYPE_STRING ){
-			String str = cell.getStringCellValue();
-			try{
-				int i = Integer.parseInt(str);
+			//Whole numbers read the same as Integer.parseInt would read them
+			double dbl = Utils.parseNumber(cell.getStringCellValue());
+			if ( !Double.isNaN(dbl) ){
 				cell.setCellType(Cell.CELL_TYPE_NUMERIC);
-				cell.setCellValue(i);
-			} catch ( NumberFormatException e ){
-				try {
-					double dbl = Double.parseDouble(str);
-					cell.setCellType(Cell.CELL_TYPE_NUMERIC);
-					cell.setCellValue( (int) dbl );
-				} catch ( NumberFormatException e2 ){
-					//Do nothing
-				}
+				cell.setCellValue( (int) dbl );
 			}
 		}
 		
@@ -228,11 +254,9 @@ public class DataType {
 		//Try to fix enumerable cells
 		if ( dataTypeName.equals("Enumerable") ){
 			String content = ExcelUtils.getCellContentsAsString(cell);
-			for ( String enumVal : enumVals ){
-				if ( enumVal.toLowerCase().startsWith( content.toLowerCase() ) ||
-						content.toLowerCase().startsWith( enumVal.toLowerCase() ) ){
-					return new XSSFRichTextString(enumVal);
-				}
+			int match = enumTrie.findFirstMatch(content);
+			if ( match >= 0 ){
+				return new XSSFRichTextString(enumVals.get(match));
 			}
 		}
 		return null;
@@ -249,16 +273,161 @@ public class DataType {
 		if ( isInt && dataTypeName.equals("Integer") ){ return true; }
 		if ( isInt && dataTypeName.equals("Decimal")){ return true; }//String.valueOf(number).length() <= totalLength; }
 		if ( !isInt && dataTypeName.equals("Decimal") ){
-			String asString = String.valueOf(number);
-			String[] split = asString.split("\\.");
-			if ( split.length != 2 ){
-				Logger.log("Error", "How did splitting a decimal number yeild > 2 parts: "+asString+" -> "+Arrays.toString(split));
+			return isValidDecimal(number);
+		}
+		return false;
+	}
+	
+	// ####################################################
+	// ### Decimal digits
+	// ####################################################
+	/**
+	 * Checks if a number that is not whole fits the total and decimal lengths
+	 * of a Decimal data type. The digits counted are those of the shortest
+	 * decimal that reads back as the number, as String.valueOf writes it
+	 * without an exponent, and a minus sign counts towards the total length.
+	 * 
+	 * @param number to check
+	 * @return if the number fits the decimal lengths
+	 */
+	boolean isValidDecimal(double number){
+		double abs = Math.abs(number);
+		if ( Double.isNaN(number) || abs >= TWO_TO_53 ){
+			//Infinity and numbers this large are whole
+			return !Double.isNaN(number);
+		}
+		int signLength = number < 0 ? 1 : 0;
+		int maxFractionDigits = Math.min(decimalLength, totalLength - signLength - countIntegerDigits(abs));
+		if ( maxFractionDigits < 1 ){
+			return false;
+		}
+		//A decimal with fewer places reads back the same with zeros appended
+		return readsBack(abs, Math.min(maxFractionDigits, MAX_FRACTION_DIGITS));
+	}
+	
+	/**
+	 * Returns the number cut down to fit the total and decimal lengths of a
+	 * Decimal data type, by dropping decimal places, or all of them if the
+	 * whole part still fits. Returns the number itself if it already fits or
+	 * cannot be made to.
+	 * 
+	 * @param number to truncate
+	 * @return the truncated number
+	 */
+	double truncateDecimal(double number){
+		double abs = Math.abs(number);
+		if ( Double.isNaN(number) || abs >= TWO_TO_53 || isInteger(number) ){
+			return number;
+		}
+		int signLength = number < 0 ? 1 : 0;
+		int integerDigits = countIntegerDigits(abs);
+		int fractionDigits = countFractionDigits(abs);
+		int totalCut = signLength + integerDigits + 1 + fractionDigits - totalLength;
+		int decimalCut = fractionDigits - decimalLength;
+		int toCut = Math.max(totalCut, decimalCut);
+		if ( toCut <= 0 ){
+			return number;
+		}
+		double truncated;
+		if ( toCut <= fractionDigits ){
+			truncated = truncate(abs, fractionDigits - toCut);
+		} else if ( signLength + integerDigits <= totalLength ){
+			truncated = Math.floor(abs);
+		} else {
+			return number;
+		}
+		return number < 0 ? -truncated : truncated;
+	}
+	
+	/**
+	 * Returns the number of digits in the whole part of a positive number,
+	 * which is 1 for numbers below 1
+	 * 
+	 * @param abs positive number below 2^53
+	 * @return the number of digits before the decimal point
+	 */
+	private static int countIntegerDigits(double abs){
+		long whole = (long) abs;
+		int digits = 1;
+		while ( whole >= 10 ){
+			whole /= 10;
+			digits++;
+		}
+		return digits;
+	}
+	
+	/**
+	 * Returns the number of decimal places in the shortest decimal that reads
+	 * back as the positive number, or MAX_FRACTION_DIGITS+1 if it needs more
+	 * 
+	 * @param abs positive number below 2^53 that is not whole
+	 * @return the number of decimal places the number needs
+	 */
+	private static int countFractionDigits(double abs){
+		for ( int places = 1 ; places <= MAX_FRACTION_DIGITS ; places++ ){
+			if ( readsBack(abs, places) ){
+				return places;
+			}
+		}
+		return MAX_FRACTION_DIGITS+1;
+	}
+	
+	/**
+	 * Checks if some decimal with the given number of places reads back as
+	 * the positive number. The nearest such decimal is within one of the
+	 * rounded product, and dividing a whole number below 2^53 by an exact power
+	 * of ten rounds the same way reading the decimal does. Once the product
+	 * reaches 2^53 the decimals are closer together than the doubles, so one
+	 * always reads back.
+	 * 
+	 * @param abs positive number to check
+	 * @param places of the decimal, at most MAX_FRACTION_DIGITS
+	 * @return if a decimal with that many places reads back as the number
+	 */
+	private static boolean readsBack(double abs, int places){
+		double power = POWERS_OF_TEN[places];
+		double scaled = abs*power;
+		if ( scaled >= TWO_TO_53 ){
+			return true;
+		}
+		long nearest = Math.round(scaled);
+		for ( long digits = Math.max(0, nearest-1) ; digits <= nearest+1 ; digits++ ){
+			if ( digits/power == abs ){
+				return true;
 			}
-			return asString.length() <= totalLength+1 && split[1].length() <=decimalLength;
 		}
 		return false;
 	}
 	
+	/**
+	 * Returns the positive number with its digits after the given number of
+	 * places dropped. Only called with fewer places than the number needs, so
+	 * no decimal with that many places lies between the number and its
+	 * shortest decimal, and the floor of the product is at most one too high.
+	 * 
+	 * @param abs positive number to truncate
+	 * @param places to keep
+	 * @return the truncated number
+	 */
+	private static double truncate(double abs, int places){
+		double power = POWERS_OF_TEN[places];
+		long digits = (long) Math.floor(abs*power);
+		if ( digits/power > abs ){
+			digits--;
+		}
+		return digits/power;
+	}
+	
+	/**
+	 * Checks if a number is whole and fits in a long
+	 * 
+	 * @param number to check
+	 * @return if the number is an integer
+	 */
+	private static boolean isInteger(double number){
+		return (number - (long) number) == 0;
+	}
+	
 	/**
 	 * Checks if a string either "true" or "false"
 	 * @param text to check
@@ -277,6 +446,15 @@ public class DataType {
 		return enumVals.toString();
 	}
 	
+	/**
+	 * Returns an unmodifiable list of the enumerable values
+	 * @return an unmodifiable list of the enumerable values
+	 */
+	public List<String> getEnumValueList(){
+		assert( enumVals != null );
+		return Collections.unmodifiableList(enumVals);
+	}
+	
 	/**
 	 * Returns the name of this objects data type name
 	 * @return the name of this objects data type name
@@ -300,12 +478,79 @@ public class DataType {
 		
 		return str;
 	}
+	
+	// ####################################################
+	// ### Enumerable prefix matching
+	// ####################################################
+	/**
+	 * The lower cased values of an Enumerable data type in a trie, for finding
+	 * the first value, in the order the format file lists them, that starts with
+	 * a cell's contents or that the contents start with, ignoring case. Finding
+	 * a match takes one step per character of the contents however many values
+	 * there are.
+	 */
+	private static class EnumerablePrefixTrie {
+		/** The node of the empty prefix */
+		private final Node root = new Node();
+		
+		/**
+		 * Creates a trie of the lower cased values
+		 * 
+		 * @param values of the data type, in the order they are listed
+		 */
+		private EnumerablePrefixTrie(List<String> values){
+			for ( int index = 0 ; index < values.size() ; index++ ){
+				String value = values.get(index).toLowerCase();
+				Node node = root;
+				node.firstBelow = Math.min(node.firstBelow, index);
+				for ( int i = 0 ; i < value.length() ; i++ ){
+					Character c = value.charAt(i);
+					Node child = node.children.get(c);
+					if ( child == null ){
+						child = new Node();
+						node.children.put(c, child);
+					}
+					node = child;
+					node.firstBelow = Math.min(node.firstBelow, index);
+				}
+				node.firstEnding = Math.min(node.firstEnding, index);
+			}
+		}
+		
+		/**
+		 * Returns the index of the first value that starts with the contents or
+		 * that the contents start with, ignoring case, or -1 if there is none
+		 * 
+		 * @param content of the cell
+		 * @return the index of the first matching value, or -1
+		 */
+		private int findFirstMatch(String content){
+			String lowerContent = content.toLowerCase();
+			int first = Integer.MAX_VALUE;
+			Node node = root;
+			for ( int i = 0 ; i < lowerContent.length() ; i++ ){
+				//Values ending here are prefixes of the contents
+				first = Math.min(first, node.firstEnding);
+				node = node.children.get(lowerContent.charAt(i));
+				if ( node == null ){
+					return first == Integer.MAX_VALUE ? -1 : first;
+				}
+			}
+			//Every value below here starts with the contents
+			first = Math.min(first, node.firstBelow);
+			return first == Integer.MAX_VALUE ? -1 : first;
+		}
+		
+		/**
+		 * A prefix of the lower cased values
+		 */
+		private static class Node {
+			/** Nodes of the prefixes one character longer */
+			private final Map<Character, Node> children = new HashMap<Character, Node>();
+			/** Index of the first value that is this prefix, or MAX_VALUE */
+			private int firstEnding = Integer.MAX_VALUE;
+			/** Index of the first value that starts with this prefix, or MAX_VALUE */
+			private int firstBelow = Integer.MAX_VALUE;
+		}
+	}
 }
-
-
-
-
-
-
-
-
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 public class DependencyDigraph {
@@ -87,11 +88,92 @@ public class DependencyDigraph {
 		return leaves;
 	}
 	
+	/**
+	 * Returns the names of all the nodes in the graph ordered so that every node
+	 * comes after all of its children, i.e. after everything it depends on. Nodes
+	 * that are part of a cycle are still included, in no particular order
+	 * relative to the rest of their cycle.
+	 * 
+	 * @return the names of all nodes, children before parents
+	 */
+	public List<String> getEvaluationOrder(){
+		List<Node> sortedNodes = new ArrayList<Node>(nodes);
+		Collections.sort(sortedNodes);
+		
+		List<String> order = new ArrayList<String>();
+		Set<Node> visited = new HashSet<Node>();
+		for ( Node node : sortedNodes ){
+			addChildrenFirst(node, visited, order);
+		}
+		return order;
+	}
+	
+	/**
+	 * Returns the set of names of nodes that are their own descendants, i.e.
+	 * the nodes that are part of a circular dependency.
+	 * 
+	 * @return the set of names of nodes that lie on a cycle
+	 */
+	public Set<String> getCyclicNodes(){
+		Set<String> cyclic = new HashSet<String>();
+		for ( Node node : nodes ){
+			Set<Node> visited = new HashSet<Node>();
+			for ( Node child : node.children ){
+				if ( canReach(child, node, visited) ){
+					cyclic.add(node.getName());
+					break;
+				}
+			}
+		}
+		return cyclic;
+	}
+	
 	@Override
 	public String toString(){
 		return nodes.toString();
 	}
 	
+	/**
+	 * Depth first post-order traversal used by getEvaluationOrder. Adds the
+	 * node's name to order after all of its unvisited children.
+	 * 
+	 * @param node to add
+	 * @param visited set of nodes already traversed
+	 * @param order list to add names to
+	 */
+	private void addChildrenFirst(Node node, Set<Node> visited, List<String> order){
+		if ( !visited.add(node) ){
+			return;
+		}
+		for ( Node child : node.children ){
+			addChildrenFirst(child, visited, order);
+		}
+		order.add(node.getName());
+	}
+	
+	/**
+	 * Returns if target can be reached from start by following child links.
+	 * 
+	 * @param start node to search from
+	 * @param target node to search for
+	 * @param visited set of nodes already searched
+	 * @return if target is start or one of its descendants
+	 */
+	private boolean canReach(Node start, Node target, Set<Node> visited){
+		if ( start == target ){
+			return true;
+		}
+		if ( !visited.add(start) ){
+			return false;
+		}
+		for ( Node child : start.children ){
+			if ( canReach(child, target, visited) ){
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	//###########################################################
 	//##### Node subclass
 	//###########################################################
@@ -2,10 +2,12 @@ package patcher.format;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.Vector;
 
 import patcher.format.conditional.Specification;
 import utils.Logger;
@@ -13,8 +15,10 @@ import utils.Logger;
 public class FormatData {
 	/** The finalized set of minimal dependencies for this sheet */
 	public DependencyDigraph dependencyGraph = null;
-	/** The container of format data for each column */
-	private Vector<ColumnFormatData> columnFormats = new Vector<ColumnFormatData>();
+	/** The format data for each column by title, in the order they were declared */
+	private Map<String, ColumnFormatData> columnFormats = new LinkedHashMap<String, ColumnFormatData>();
+	/** Unmodifiable set of the column titles, replaced whenever a column is removed */
+	private Set<String> columnTitles = Collections.emptySet();
 	
 	/**
 	 * Creates a new format data from the format file located at
@@ -46,7 +50,7 @@ public class FormatData {
 		}
 		
 		dependencyGraph = new DependencyDigraph();
-		for ( ColumnFormatData columnFormat : columnFormats ){
+		for ( ColumnFormatData columnFormat : columnFormats.values() ){
 			String columnName = columnFormat.getTitle();
 			Set<String> columnDependencies = columnFormat.getDependencies();
 			for ( String dependency : columnDependencies ){
@@ -69,18 +73,15 @@ public class FormatData {
 	}
 	
 	/**
-	 * Returns a vector containing all of the column titles for which
-	 * format data exists.
+	 * Returns an unmodifiable set containing all of the column titles for which
+	 * format data exists. Removing a column does not change sets that were
+	 * already returned.
 	 * 
-	 * @return a vector containing all of the column titles for which
+	 * @return a set containing all of the column titles for which
 	 * format data exists.
 	 */
 	public Set<String> getColumnTitles(){
-		Set<String> titles = new HashSet<String>();
-		for ( ColumnFormatData columnFormat : columnFormats ){
-			titles.add( columnFormat.getTitle() );
-		}
-		return titles;
+		return columnTitles;
 	}
 	
 	/**
@@ -91,10 +92,9 @@ public class FormatData {
 	 * @return the ColumnFormatData corresponding to the columnTitle provided
 	 */
 	public ColumnFormatData getColumnFormat(String columnTitle){
-		for ( ColumnFormatData columnFormat : columnFormats ){
-			if ( columnFormat.getTitle().equals(columnTitle) ){
-				return columnFormat;
-			}
+		ColumnFormatData columnFormat = columnFormats.get(columnTitle);
+		if ( columnFormat != null ){
+			return columnFormat;
 		}
 		Logger.logVerbose("Warning: Could not find column with title "+columnTitle+" in format data");
 		return null;
@@ -105,10 +105,8 @@ public class FormatData {
 	 * @param title of the column to remove
 	 */
 	public void removeColumn(String title){
-		for ( int i = columnFormats.size()-1 ; i >= 0 ; i-- ){
-			if ( columnFormats.get(i).getTitle().equals(title) ){
-				columnFormats.remove(i);
-			}
+		if ( columnFormats.remove(title) != null ){
+			updateColumnTitles();
 		}
 	}
 	
@@ -148,13 +146,27 @@ public class FormatData {
 		addColumnFormat(columnFormat);
 	}
 	
+	/**
+	 * Adds the column format to the column formats. If a column is declared
+	 * twice, an error is logged and the first declaration is kept.
+	 * 
+	 * @param columnFormat to add
+	 */
 	private void addColumnFormat(ColumnFormatData columnFormat){
-		for ( ColumnFormatData data : columnFormats ){
-			if ( data.getTitle().equals(columnFormat.getTitle()) ){
-				Logger.log("Error", "Found duplicate decleration of column "+columnFormat.getTitle()+" in format file");
-			}
+		if ( columnFormats.containsKey(columnFormat.getTitle()) ){
+			Logger.log("Error", "Found duplicate decleration of column "+columnFormat.getTitle()+" in format file");
+			return;
 		}
-		columnFormats.add(columnFormat);
+		columnFormats.put(columnFormat.getTitle(), columnFormat);
+		updateColumnTitles();
+	}
+	
+	/**
+	 * Replaces the set of column titles with a new one matching the column formats
+	 */
+	private void updateColumnTitles(){
+		columnTitles = Collections.unmodifiableSet(
+				new LinkedHashSet<String>(columnFormats.keySet()));
 	}
 	
 	/**
@@ -13,6 +13,52 @@ import utils.Utils;
  *
  */
 public class Comparator {
+	/**
+	 * The comparisons that can be made between two terms. Each comparator
+	 * keyword of the format file is translated to one of these once, when the
+	 * format is loaded.
+	 */
+	public enum ComparatorType{
+		EQUAL("="), GREATER(">"), LESS("<"), GREATER_EQUAL(">="),
+		LESS_EQUAL("<="), NOT_EQUAL("!=");
+		
+		/** Symbol used for this comparator in messages */
+		private String symbol;
+		
+		private ComparatorType(String symbol){
+			this.symbol = symbol;
+		}
+		
+		/**
+		 * Returns the comparator type for the given keyword, or null if the
+		 * keyword is not a comparator
+		 * 
+		 * @param keyword to translate
+		 * @return the comparator type for the keyword
+		 */
+		public static ComparatorType fromKeyword(String keyword){
+			if ( KeywordChecker.isEqual(keyword) ){
+				return EQUAL;
+			} else if ( KeywordChecker.isGreater(keyword) ){
+				return GREATER;
+			} else if ( KeywordChecker.isLess(keyword) ){
+				return LESS;
+			} else if ( KeywordChecker.isGreaterEqual(keyword) ){
+				return GREATER_EQUAL;
+			} else if ( KeywordChecker.isLessEqual(keyword) ){
+				return LESS_EQUAL;
+			} else if ( KeywordChecker.isNot(keyword) ){
+				return NOT_EQUAL;
+			}
+			return null;
+		}
+		
+		@Override
+		public String toString(){
+			return symbol;
+		}
+	}
+	
 	/**
 	 * private constructor used to suppress instantiation of a static
 	 * utility class
@@ -22,28 +68,27 @@ public class Comparator {
 	/**
 	 * Binary comparison of term1 and term2 using the comparator given.
 	 * 
-	 * @param term1
-	 * @param term2
-	 * @param comparator
-	 * @return
+	 * @param term1 first term to compare
+	 * @param term2 second term to compare
+	 * @param comparator to use in comparison
+	 * @return boolean evaluation of the comparison
 	 */
-	protected static boolean evaluate(String term1, String term2, String comparator){
-		//assert( term1 != null && term2 != null && comparator != null);
-		String expressionString = term1+" "+comparator+" "+term2;
-		if ( !KeywordChecker.isComparator(comparator) ){
-			Logger.log("Error", "Expected a comparator but recieved "+comparator);
-		}
+	protected static boolean evaluate(String term1, String term2, ComparatorType comparator){
 		if ( ( term1.isEmpty() || term2.isEmpty() )
-				&& ( KeywordChecker.isEqual(comparator) || KeywordChecker.isNot(comparator) ) ){
+				&& ( comparator == ComparatorType.EQUAL || comparator == ComparatorType.NOT_EQUAL ) ){
 			return compareWithEmpty(term1, term2, comparator);
 		}
-		boolean oneIsNumber = Utils.isNumber(term1);
-		boolean twoIsNumber = Utils.isNumber(term2);
+		//Read each term once, as a number if it is one
+		double number1 = Utils.parseNumber(term1);
+		double number2 = Utils.parseNumber(term2);
+		boolean oneIsNumber = !Double.isNaN(number1);
+		boolean twoIsNumber = !Double.isNaN(number2);
 		if ( oneIsNumber != twoIsNumber ){
-			Logger.log("Error", "Comparator cannot compare numerical and non-numerical types: "+expressionString);
+			Logger.log("Error", "Comparator cannot compare numerical and non-numerical types: "
+					+term1+" "+comparator+" "+term2);
 		}
 		if ( oneIsNumber ){
-			return compareNumerics( Double.parseDouble(term1) , Double.parseDouble(term2), comparator);
+			return compareNumerics(number1, number2, comparator);
 		} else {
 			return compareStrings(term1, term2, comparator);
 		}
@@ -57,15 +102,16 @@ public class Comparator {
 	 * @param comparator to use in comparison
 	 * @return boolean evaluation of the comparison
 	 */
-	private static boolean compareStrings(String term1, String term2, String comparator) {
-		if ( KeywordChecker.isEqual(comparator) ){
-			return term1.equals(term2);
-		} else if ( KeywordChecker.isNot(comparator) ){
-			return !term1.equals(term2);
-		} else {
-			Logger.log("Error", "Comparator "+comparator+" is invalid for non-numeric types");
+	private static boolean compareStrings(String term1, String term2, ComparatorType comparator) {
+		switch ( comparator ){
+			case EQUAL:
+				return term1.equals(term2);
+			case NOT_EQUAL:
+				return !term1.equals(term2);
+			default:
+				Logger.log("Error", "Comparator "+comparator+" is invalid for non-numeric types");
+				return false;
 		}
-		return false;
 	}
 	
 	/**
@@ -77,38 +123,39 @@ public class Comparator {
 	 * @param comparator to use in comparison
 	 * @return boolean evaluation of the comparison
 	 */
-	private static boolean compareNumerics(double d1, double d2, String comparator){
-		if ( KeywordChecker.isEqual(comparator) ){
-			return d1 == d2;
-		} else if (KeywordChecker.isGreater(comparator) ){
-			return d1 > d2;
-		} else if (KeywordChecker.isLess(comparator) ){
-			return d1 < d2;
-		} else if (KeywordChecker.isGreaterEqual(comparator) ){
-			return d1 >= d2;
-		} else if (KeywordChecker.isLessEqual(comparator) ){
-			return d1 <= d2;
-		} else if (KeywordChecker.isNot(comparator) ){
-			return d1 != d2;
-		} else {
-			Logger.log("Error", "Comparator "+comparator+" is invalid for numeric types.");
+	private static boolean compareNumerics(double d1, double d2, ComparatorType comparator){
+		switch ( comparator ){
+			case EQUAL:
+				return d1 == d2;
+			case GREATER:
+				return d1 > d2;
+			case LESS:
+				return d1 < d2;
+			case GREATER_EQUAL:
+				return d1 >= d2;
+			case LESS_EQUAL:
+				return d1 <= d2;
+			case NOT_EQUAL:
+				return d1 != d2;
+			default:
+				Logger.log("Error", "Comparator "+comparator+" is invalid for numeric types.");
+				return false;
 		}
-		return false;
 	}
 	
 	/**
 	 * Runs a comparison between a and b, assuming at least one is empty.
-	 * Assumes the comparator is synonymous with either == or !=.
+	 * Assumes the comparator is either EQUAL or NOT_EQUAL.
 	 * 
 	 * @param a first term to compare
 	 * @param b second term to compare
-	 * @param comparator to use, should be synonymous with == or !=
+	 * @param comparator to use, should be EQUAL or NOT_EQUAL
 	 * @return the result of the comparison
 	 */
-	private static boolean compareWithEmpty(String a, String b, String comparator ){
+	private static boolean compareWithEmpty(String a, String b, ComparatorType comparator ){
 		boolean onlyOneEmpty = ( a.isEmpty() && !b.isEmpty() )
 				|| ( !a.isEmpty() && b.isEmpty() );
-		if ( KeywordChecker.isEqual(comparator) ){
+		if ( comparator == ComparatorType.EQUAL ){
 			return !onlyOneEmpty;
 		} else {
 			return onlyOneEmpty;
@@ -2,15 +2,15 @@ package patcher.format.conditional;
 
 import java.util.Vector;
 
-import org.apache.poi.ss.usermodel.Cell;
-
-import patcher.ExcelChecker;
-import patcher.ExcelUtils;
+import patcher.RowContext;
 import patcher.format.KeywordChecker;
+import patcher.format.conditional.Comparator.ComparatorType;
 import utils.Logger;
 
 /**
  * This class is used for evaluating a String that contains a logical statement.
+ * The statement is compiled into terms and a comparator when the condition is
+ * created, so no keywords are interpreted when it is evaluated.
  * 
  * @author Ashton Dyer (WabashCannon)
  *
@@ -27,6 +27,18 @@ public class Condition {
 	/** The excel column titles on which this condition depends */
 	private Vector<String> dependencies = new Vector<String>();
 	
+	/** For one term conditions, the column whose cell is read as a boolean. Null
+	 * when the condition is a boolean constant */
+	private Term.Column oneTermColumn = null;
+	/** For one term conditions without a column, the constant value */
+	private boolean oneTermValue = false;
+	/** For three term conditions, the term left of the comparator */
+	private Term term1 = null;
+	/** For three term conditions, the term right of the comparator */
+	private Term term2 = null;
+	/** For three term conditions, the comparator. Null if it was invalid */
+	private ComparatorType comparator = null;
+	
 	/**
 	 * Creates a new condition from the given expression string. 
 	 * 
@@ -53,7 +65,7 @@ public class Condition {
 			isOneTerm = true;
 			//if it is a one word boolean keyword
 			if ( KeywordChecker.isBoolean(expression[0] ) ){
-				stringToBoolean(expression[0]);
+				oneTermValue = stringToBoolean(expression[0]);
 			//Check other one word cases that fail
 			} else if ( KeywordChecker.isConstant(expression[0]) ){
 				Logger.log("Error", "Condition statement cannot be only a constant value. Maybe you meant to leave off the quotes?");
@@ -61,42 +73,44 @@ public class Condition {
 				Logger.log("Error", "Conditions statement cannot be only a keyword.");
 			} else {
 				//Assume it is a column name
+				oneTermColumn = (Term.Column) Term.parse(expression[0]);
 				dependencies.add(expression[0]);
 			}
 		//it is a multi-word expression
 		} else {
-			if ( !KeywordChecker.isKeyword(expression[0])  
-					&& !KeywordChecker.isConstant(expression[0])){
-				dependencies.add(expression[0]);
+			term1 = Term.parse(expression[0]);
+			if ( term1.getColumnTitle() != null ){
+				dependencies.add(term1.getColumnTitle());
 			}
-			if ( !KeywordChecker.isComparator(expression[1]) ){
+			comparator = ComparatorType.fromKeyword(expression[1]);
+			if ( comparator == null ){
 				Logger.log("Error", "Expected a comparator as second word in condition"
 						+" but recieved "+expression[1]);
 			}
-			if ( !KeywordChecker.isKeyword(expression[2])  
-					&& !KeywordChecker.isConstant(expression[2]) ){
-				dependencies.add(expression[2]);
+			term2 = Term.parse(expression[2]);
+			if ( term2.getColumnTitle() != null ){
+				dependencies.add(term2.getColumnTitle());
 			}
 		}
 	}
 	
 	/**
-	 * Returns if the condition is true
+	 * Returns if the condition is true for the given row
 	 * 
+	 * @param context of the row being checked
 	 * @return if the condition is true
 	 */
-	protected boolean isTrue(){
+	protected boolean isTrue(RowContext context){
 		if ( isOneTerm ){
-			if ( dependencies.size() == 0 ){
-				return stringToBoolean(originalExpressionArray[0]);
+			if ( oneTermColumn == null ){
+				return oneTermValue;
 			} else {
-				Cell cell = ExcelChecker.checker.getColumnForCurrentCellRow(originalExpressionArray[0]);
-				return ExcelUtils.cellToBoolean(cell);
+				return oneTermColumn.getBoolean(context);
 			}
+		} else if ( comparator == null ){
+			return false;
 		} else {
-			String term1 = convertTermToString(originalExpressionArray[0]);
-			String term2 = convertTermToString(originalExpressionArray[2]);
-			return Comparator.evaluate(term1, term2, originalExpressionArray[1]);
+			return Comparator.evaluate(term1.getString(context), term2.getString(context), comparator);
 		}
 	}
 	
@@ -127,39 +141,13 @@ public class Condition {
 		}
 	}
 	
-	/**
-	 * Converts the provided term to the string it represents. If the term
-	 * is a constant, it strips the double-quotes. If it is a column title,
-	 * it gets the contents of the cell.
-	 * 
-	 * @param term to convert
-	 * @return the string that the term represents
-	 */
-	protected String convertTermToString(String term){
-		if ( KeywordChecker.isConstant(term) ){
-			return KeywordChecker.stripConstant(term);
-		} else {
-			Cell cell = ExcelChecker.checker.getColumnForCurrentCellRow(originalExpressionArray[0]);
-			//Handle empty cell here TODO!!!!!!!!!!!!
-			
-			String tmp = ExcelUtils.getCellContentsAsString(cell);
-			return tmp;
-		}
-	}
-	
 	@Override
 	public String toString(){
 		if ( isOneTerm ){
-			if ( dependencies.size() == 0 ){
-				return originalExpressionArray[0];
-			} else {
-				Cell cell = ExcelChecker.checker.getColumnForCurrentCellRow(originalExpressionArray[0]);
-				return String.valueOf(ExcelUtils.cellToBoolean(cell));
-			}
+			return originalExpressionArray[0];
 		} else {
-			String term1 = originalExpressionArray[0];// convertTermToString(originalExpressionArray[0]);
-			String term2 = originalExpressionArray[2];//convertTermToString(originalExpressionArray[2]);
-			return term1+" "+originalExpressionArray[1]+" "+term2;
+			return originalExpressionArray[0]+" "+originalExpressionArray[1]
+					+" "+originalExpressionArray[2];
 		}
 	}
 }
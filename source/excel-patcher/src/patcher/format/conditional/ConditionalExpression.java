@@ -6,6 +6,7 @@ import java.util.Scanner;
 import java.util.Set;
 import java.util.Vector;
 
+import patcher.RowContext;
 import patcher.format.KeywordChecker;
 import utils.Logger;
 
@@ -42,23 +43,49 @@ public class ConditionalExpression {
 	 * to true in this multi-part conditional expression. Defaults to false
 	 * if no value is found.
 	 * 
+	 * @param context of the row being checked
 	 * @return value of this multi-part conditional expression
 	 */
-	protected String getValue(){
+	protected String getValue(RowContext context){
 		for ( SubConditionalExpression expression : expressions ){
-			if ( expression.isTrue() ){
-				return expression.getValue();
+			if ( expression.isTrue(context) ){
+				return expression.getValue(context);
 			}
 		}
 		
-		Logger.logVerbose("Conditional expression had no true statements");
-		for ( SubConditionalExpression expression : expressions ){
-			Logger.logVerbose("        "+expression.toString());
-		}
+		//Only describe the expressions if verbose messages are printed, since
+		// this happens for many rows
+		Logger.logVerbose(new Logger.MessageSupplier(){
+			@Override
+			public String get() {
+				StringBuilder message = new StringBuilder("Conditional expression had no true statements");
+				for ( SubConditionalExpression expression : expressions ){
+					message.append("\n        ").append(expression.toString());
+				}
+				return message.toString();
+			}
+		});
 		
 		return "";
 	}
 	
+	/**
+	 * Returns the value of the first statement that is true for the row as a
+	 * boolean, without turning it into a string. Returns null if no statement
+	 * is true or the value of the true statement is not a boolean.
+	 * 
+	 * @param context of the row being checked
+	 * @return the value of the expression as a boolean, or null
+	 */
+	protected Boolean getBoolean(RowContext context){
+		for ( SubConditionalExpression expression : expressions ){
+			if ( expression.isTrue(context) ){
+				return expression.getBoolean(context);
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * Provides the dependency set of this expression.
 	 * @return this expressions dependencies
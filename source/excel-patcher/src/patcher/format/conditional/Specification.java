@@ -5,8 +5,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import patcher.RowContext;
 import patcher.format.DataType;
-import patcher.format.KeywordChecker;
 import utils.Logger;
 
 /**
@@ -71,25 +71,31 @@ public class Specification {
 	}
 	
 	/**
-	 * Returns the value of this specification.
+	 * Returns the data type of a "Type" specification, or null for any other
+	 * type of specification
+	 * @return the data type of this specification
+	 */
+	public DataType getDataType(){
+		return dataType;
+	}
+	
+	/**
+	 * Returns the value of this specification for the given row. The context is
+	 * only used by the Required and Value specifications, which may depend on
+	 * other cells of the row.
 	 * 
+	 * @param context of the row being checked
 	 * @return the value of this specification
 	 */
-	public String getValue(){
+	public String getValue(RowContext context){
 		if ( type.equals("Required") ){
-			String value = conditionalExpression.getValue();
-			if ( !KeywordChecker.isBoolean(value) ){
-				Logger.log("Error", "\"Required\" specification's conditional expression returned non-boolean value: \""+value
-						+"\" for conditional expression "+conditionalExpression.toString()+". Assuming this column is not required.");
-				return "false";
-			}
-			return KeywordChecker.cleanBoolean(value);
+			return String.valueOf(isTrue(context));
 		} else if ( type.equals("MaxPossibleCharacters") ){
 			return value;
 		} else if ( type.equals("Type") ){
 			return dataType.toString();
 		} else if ( type.equals("Value") ){
-			String value = conditionalExpression.getValue();
+			String value = conditionalExpression.getValue(context);
 			if ( value.equals("") ){
 				return null;
 			}
@@ -99,6 +105,27 @@ public class Specification {
 		return null;
 	}
 	
+	/**
+	 * Returns if a "Required" specification holds for the given row. The
+	 * conditions and logical operators are evaluated straight to a boolean, so
+	 * no keywords are matched unless the value is read from a column.
+	 * 
+	 * @param context of the row being checked
+	 * @return if the column is required in the row
+	 */
+	public boolean isTrue(RowContext context){
+		assert( type.equals("Required") );
+		Boolean required = conditionalExpression.getBoolean(context);
+		if ( required == null ){
+			//Only worked out as a string to describe the problem
+			String value = conditionalExpression.getValue(context);
+			Logger.log("Error", "\"Required\" specification's conditional expression returned non-boolean value: \""+value
+					+"\" for conditional expression "+conditionalExpression.toString()+". Assuming this column is not required.");
+			return false;
+		}
+		return required;
+	}
+	
 	/**
 	 * Returns the set of column titles on which this specification depends.
 	 * 
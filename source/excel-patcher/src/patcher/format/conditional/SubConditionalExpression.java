@@ -2,52 +2,84 @@ package patcher.format.conditional;
 
 import java.util.Vector;
 
-import org.apache.poi.ss.usermodel.Cell;
-
-import patcher.ExcelChecker;
-import patcher.ExcelUtils;
+import patcher.RowContext;
 import patcher.format.KeywordChecker;
 
 /**
  * This class contains a single conditional expression and is used for evaluating
- * it to attain it's value.
+ * it to attain it's value. The value and logical operators are compiled when
+ * they are set, so evaluating the expression does no keyword matching.
  * 
  * @author Ashton Dyer (WabashCannon)
  *
  */
 public class SubConditionalExpression {
+	/**
+	 * The logical operators that can relate two conditions
+	 */
+	public enum LogicalOperator{ 
+		AND, OR;
+		
+		/**
+		 * Returns the logical operator for the given keyword, or null if the
+		 * keyword is not a logical operator
+		 * 
+		 * @param keyword to translate
+		 * @return the logical operator for the keyword
+		 */
+		public static LogicalOperator fromKeyword(String keyword){
+			if ( KeywordChecker.isAnd(keyword) ){
+				return AND;
+			} else if ( KeywordChecker.isOr(keyword) ){
+				return OR;
+			}
+			return null;
+		}
+	};
+	
 	/** value of the conditional expression when it evaluates to true */
 	private String value = null;
+	/** The value as a term, or null if the value is a boolean */
+	private Term valueTerm = null;
+	/** If a boolean value is a false synonym, so the condition is negated */
+	private boolean negated = false;
+	/** If the value is a constant, so its meaning as a boolean is worked out
+	 * when it is set */
+	private boolean constantValue = false;
+	/** A constant value as a boolean, or null if it is not a boolean */
+	private Boolean constantBoolean = null;
 	/** The conditions that comprise the logical part of the expression */
 	private Vector<Condition> conditions = new Vector<Condition>();
-	/** The logical comparators used to relate the conditions */
-	private Vector<String> logicals = new Vector<String>();
+	/** The logical operators used to relate the conditions */
+	private Vector<LogicalOperator> logicals = new Vector<LogicalOperator>();
 	
 	/**
 	 * Returns if the value of this expression is a boolean
 	 * @return if the value of this expression is a boolean
 	 */
 	protected boolean isBoolean(){
-		return ( value == null ) || KeywordChecker.isBoolean(value);
+		return valueTerm == null;
 	}
 	
 	/**
 	 * Returns if the logical expression in this conditional expression
-	 * evaluates to true.
+	 * evaluates to true for the given row.
 	 * 
+	 * @param context of the row being checked
 	 * @return if this conditional expression is true.
 	 */
-	protected boolean isTrue(){
+	protected boolean isTrue(RowContext context){
 		assert( logicals.size() == conditions.size()-1 );
-		boolean isTrue = conditions.get(0).isTrue();
+		boolean isTrue = conditions.get(0).isTrue(context);
 		
 		for ( int condIndex = 1 ; condIndex < conditions.size() ; condIndex++ ){
-			if ( KeywordChecker.isAnd( logicals.get(condIndex-1) ) ){
-				isTrue = isTrue && conditions.get(condIndex).isTrue();
-			} else if ( KeywordChecker.isOr( logicals.get(condIndex-1) ) ){
-				isTrue = isTrue || conditions.get(condIndex).isTrue();
-			} else {
-				assert( false );
+			switch ( logicals.get(condIndex-1) ){
+				case AND:
+					isTrue = isTrue && conditions.get(condIndex).isTrue(context);
+					break;
+				case OR:
+					isTrue = isTrue || conditions.get(condIndex).isTrue(context);
+					break;
 			}
 		}
 		return isTrue;
@@ -66,9 +98,8 @@ public class SubConditionalExpression {
 			deps.addAll( cond.getDependencies() );
 		}
 		//Add dependencies for value
-		if ( value != null && !KeywordChecker.isBoolean(value) &&
-				!KeywordChecker.isConstant(value) ){
-			deps.add(value);
+		if ( valueTerm != null && valueTerm.getColumnTitle() != null ){
+			deps.add(valueTerm.getColumnTitle());
 		}
 		
 		return deps;
@@ -80,32 +111,65 @@ public class SubConditionalExpression {
 	 */
 	protected void setValue(String str){
 		value = str;
+		constantBoolean = null;
+		if ( str == null || KeywordChecker.isBoolean(str) ){
+			valueTerm = null;
+			negated = str != null && !KeywordChecker.isTrue(str);
+			constantValue = false;
+		} else {
+			valueTerm = Term.parse(str);
+			negated = false;
+			constantValue = valueTerm.getColumnTitle() == null;
+			if ( constantValue ){
+				constantBoolean = toBoolean(valueTerm.getString(null));
+			}
+		}
+	}
+	
+	/**
+	 * Returns the value of this expression as a boolean for a row in which it
+	 * is true, or null if the value is not a boolean. Boolean and constant
+	 * values were translated when they were set, so only a value read from a
+	 * column is matched against the boolean keywords here.
+	 * 
+	 * @param context of the row being checked
+	 * @return the value as a boolean, or null if it is not one
+	 */
+	protected Boolean getBoolean(RowContext context){
+		if ( isBoolean() ){
+			return Boolean.valueOf(!negated);
+		} else if ( constantValue ){
+			return constantBoolean;
+		} else {
+			return toBoolean(valueTerm.getString(context));
+		}
+	}
+	
+	/**
+	 * Returns the boolean the text is a synonym of, or null if it is not one
+	 * 
+	 * @param text to translate
+	 * @return the boolean the text stands for, or null
+	 */
+	private static Boolean toBoolean(String text){
+		if ( !KeywordChecker.isBoolean(text) ){
+			return null;
+		}
+		return Boolean.valueOf(KeywordChecker.isTrue(text));
 	}
 	
 	/**
 	 * Evaluates this expression and returns value when true, and "false" when
 	 * false.
+	 * @param context of the row being checked
 	 * @return value when the expression is true, and "false" when false.
 	 */
-	protected String getValue(){
+	protected String getValue(RowContext context){
 		if ( isBoolean() ){
-			if ( value != null ){
-				if ( KeywordChecker.isTrue( value ) ){
-					return String.valueOf(isTrue());
-				} else {
-					return String.valueOf(!isTrue());
-				}
-			} else {
-				return String.valueOf(isTrue());
-			}
-		} else if ( KeywordChecker.isConstant(value) ){
-			return KeywordChecker.stripConstant(value);
+			return String.valueOf(isTrue(context) != negated);
 		} else {
-			Cell cell = ExcelChecker.checker.getColumnForCurrentCellRow(value);
-			String tmp = ExcelUtils.getCellContentsAsString(cell);
-			return tmp;
+			return valueTerm.getString(context);
 		}
-		//return isBoolean() ? String.valueOf(isTrue()) : value;
 	}
 	
 	/**
@@ -122,7 +186,9 @@ public class SubConditionalExpression {
 	 * @param str logical operator to add
 	 */
 	protected void addLogical(String str){
-		logicals.add(str);
+		LogicalOperator logical = LogicalOperator.fromKeyword(str);
+		assert( logical != null );
+		logicals.add(logical);
 	}
 	
 	@Override
@@ -133,7 +199,7 @@ public class SubConditionalExpression {
 		for ( int i = 0 ; i < conditions.size() ; i++ ){
 			str += "["+conditions.get(i).toString()+"]";
 			if ( i < logicals.size() ){
-				str += " "+logicals.get(i)+" ";
+				str += " "+logicals.get(i).toString().toLowerCase()+" ";
 			}
 		}
 		return str;
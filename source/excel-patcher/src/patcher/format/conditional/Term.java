@@ -0,0 +1,113 @@
+package patcher.format.conditional;
+
+import patcher.RowContext;
+import patcher.format.KeywordChecker;
+
+/**
+ * A single term of a condition or the value of a conditional expression. The
+ * word from the format file is classified once when the format is loaded, so
+ * evaluating the term only has to look up a cell or return a constant.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+abstract class Term {
+	/**
+	 * Creates the term represented by the given word. Words in double-quotes
+	 * are constants, keywords stand for themselves and any other word is the
+	 * title of a column.
+	 *
+	 * @param word from the format file
+	 * @return the term for the word
+	 */
+	static Term parse(String word){
+		if ( KeywordChecker.isConstant(word) ){
+			return new Constant(KeywordChecker.stripConstant(word));
+		} else if ( KeywordChecker.isKeyword(word) ){
+			return new Constant(word);
+		} else {
+			return new Column(word);
+		}
+	}
+
+	/**
+	 * Returns the string this term represents in the given row
+	 *
+	 * @param context of the row being checked
+	 * @return the string this term represents
+	 */
+	abstract String getString(RowContext context);
+
+	/**
+	 * Returns the title of the column this term refers to, or null if it is
+	 * not a column reference
+	 *
+	 * @return the title of the column this term refers to
+	 */
+	abstract String getColumnTitle();
+
+	/**
+	 * A term that refers to the cell of a column in the row being checked
+	 */
+	static class Column extends Term {
+		/** Title of the column */
+		private String title;
+
+		private Column(String title){
+			this.title = title;
+		}
+
+		/**
+		 * Returns this term's cell in the given row as a boolean
+		 *
+		 * @param context of the row being checked
+		 * @return the cell as a boolean
+		 */
+		boolean getBoolean(RowContext context){
+			return context.getBoolean(title);
+		}
+
+		@Override
+		String getString(RowContext context){
+			//Handle empty cell here TODO!!!!!!!!!!!!
+			return context.getString(title);
+		}
+
+		@Override
+		String getColumnTitle(){
+			return title;
+		}
+
+		@Override
+		public String toString(){
+			return title;
+		}
+	}
+
+	/**
+	 * A term with the same value in every row
+	 */
+	static class Constant extends Term {
+		/** Value of the constant, without double-quotes */
+		private String value;
+
+		private Constant(String value){
+			this.value = value;
+		}
+
+		@Override
+		String getString(RowContext context){
+			return value;
+		}
+
+		@Override
+		String getColumnTitle(){
+			return null;
+		}
+
+		@Override
+		public String toString(){
+			return "\""+value+"\"";
+		}
+	}
+}
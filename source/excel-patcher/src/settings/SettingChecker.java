@@ -37,7 +37,8 @@ public class SettingChecker {
 			return false;
 		}
 		
-		//Otherwise, it is a valid file path
+		//Otherwise, it is a valid file path. Release the file it holds open.
+		FileManager.closeExcelFile(wb);
 		return true;
 	}
 
@@ -7,9 +7,19 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class globably manages the reading and writing of settings.
+ * <p>
+ * Settings are read from an unchangeable snapshot that is replaced whenever a
+ * setting changes, so reading them never locks. Checks take a snapshot once
+ * when they start. Changes are saved to the settings file shortly after they
+ * are made, so that several changes in a row only write the file once.
  * 
  * @author Ashton Dyer (WabashCannon)
  *
@@ -20,10 +30,19 @@ public class Settings implements Serializable {
 	
 	/** The save path for the settings file */
 	private static final String SETTINGS_FILE_PATH = "rsc/settings";
+	/** How long after a change the settings are saved, so that changes made
+	 * together are saved together */
+	private static final long SAVE_DELAY_MILLIS = 500;
 	
 	// Global instance
 	/** The global instance of the settings */
 	private static Settings settings = null;
+	/** Snapshot of the current settings, replaced whenever one changes */
+	private static volatile SettingsSnapshot snapshot = null;
+	/** Thread that saves the settings after they change, created on first use */
+	private static ScheduledExecutorService saver = null;
+	/** The save waiting to happen, null if the file is up to date */
+	private static ScheduledFuture<?> pendingSave = null;
 	
 	// Settings state data
 	/** The current state of the settings */
@@ -51,7 +70,35 @@ public class Settings implements Serializable {
 		}
 		
 		//save result
-		save();
+		flush();
+	}
+	
+	/**
+	 * Extends the settings arrays of settings loaded from an older settings file
+	 * so that settings added since then have their default values.
+	 */
+	private void fillMissingDefaults(){
+		BooleanSetting[] booleans = BooleanSetting.values();
+		if ( booleanSettings.length < booleans.length ){
+			boolean[] loaded = booleanSettings;
+			booleanSettings = new boolean[booleans.length];
+			for ( BooleanSetting setting : booleans ){
+				int index = setting.ordinal();
+				booleanSettings[index] = index < loaded.length ? 
+						loaded[index] : setting.getDefaultValue();
+			}
+		}
+		
+		StringSetting[] strings = StringSetting.values();
+		if ( stringSettings.length < strings.length ){
+			String[] loaded = stringSettings;
+			stringSettings = new String[strings.length];
+			for ( StringSetting setting : strings ){
+				int index = setting.ordinal();
+				stringSettings[index] = index < loaded.length ? 
+						loaded[index] : setting.getDefaultValue();
+			}
+		}
 	}
 	
 	/**
@@ -66,9 +113,9 @@ public class Settings implements Serializable {
 		
 		//Store the setting
 		settings.booleanSettings[name.ordinal()] = value;
+		snapshot = settings.createSnapshot();
 		
-		//We'll save every time it is modified since it is a small object
-		save();
+		scheduleSave();
 	}
 	
 	/**
@@ -83,9 +130,9 @@ public class Settings implements Serializable {
 		
 		//Store the setting
 		settings.stringSettings[setting.ordinal()] = value;
+		snapshot = settings.createSnapshot();
 		
-		//We'll save every time it is modified since it is a small object
-		save();
+		scheduleSave();
 	}
 	
 	/**
@@ -94,9 +141,8 @@ public class Settings implements Serializable {
 	 * @param setting of setting to fetch
 	 * @return the value of the specified setting
 	 */
-	synchronized public static boolean getSetting(BooleanSetting setting){
-		load();
-		return settings.booleanSettings[setting.ordinal()];
+	public static boolean getSetting(BooleanSetting setting){
+		return snapshot().get(setting);
 	}
 	
 	/**
@@ -105,9 +151,86 @@ public class Settings implements Serializable {
 	 * @param setting of setting to fetch
 	 * @return the value of the specified setting
 	 */
-	synchronized public static String getSetting(StringSetting setting){
+	public static String getSetting(StringSetting setting){
+		return snapshot().get(setting);
+	}
+	
+	/**
+	 * Returns an unchangeable copy of the current settings. Only locks the first
+	 * time, when the settings are loaded.
+	 * 
+	 * @return a snapshot of the current settings
+	 */
+	public static SettingsSnapshot snapshot(){
+		SettingsSnapshot current = snapshot;
+		if ( current == null ){
+			current = loadSnapshot();
+		}
+		return current;
+	}
+	
+	/**
+	 * Saves any changes that are waiting to be saved right away
+	 */
+	synchronized public static void flush(){
+		if ( pendingSave != null ){
+			pendingSave.cancel(false);
+			pendingSave = null;
+			save();
+		}
+	}
+	
+	/**
+	 * Returns a snapshot of this instance's settings
+	 * @return a snapshot of this instance's settings
+	 */
+	private SettingsSnapshot createSnapshot(){
+		return new SettingsSnapshot(booleanSettings, stringSettings);
+	}
+	
+	/**
+	 * Loads the settings if they are not loaded yet and returns their snapshot
+	 * @return a snapshot of the current settings
+	 */
+	synchronized private static SettingsSnapshot loadSnapshot(){
 		load();
-		return settings.stringSettings[setting.ordinal()];
+		return snapshot;
+	}
+	
+	/**
+	 * Saves the settings a short time from now, unless a save is already
+	 * waiting. Changes made before it runs are saved with it.
+	 */
+	synchronized private static void scheduleSave(){
+		if ( pendingSave != null ){
+			return;
+		}
+		if ( saver == null ){
+			saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Settings saver");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			//The saver is a daemon, so save what is left when the program exits
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+				@Override
+				public void run() {
+					flush();
+				}
+			}));
+		}
+		pendingSave = saver.schedule(new Runnable(){
+			@Override
+			public void run() {
+				synchronized ( Settings.class ){
+					pendingSave = null;
+					save();
+				}
+			}
+		}, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
 	}
 	
 	/**
@@ -151,10 +274,12 @@ public class Settings implements Serializable {
 			settings = (Settings) oInStream.readObject();
 			oInStream.close();
 			fInStream.close();
+			settings.fillMissingDefaults();
 		} catch (IOException | ClassNotFoundException e){
 			settings = new Settings();
 			settings.resetToDefault();
 		}
+		snapshot = settings.createSnapshot();
 	}
 	
 	/** Index set for boolean settings */
@@ -162,7 +287,15 @@ public class Settings implements Serializable {
 		COLOR ("Color cells", "If the output file should have cells colored", true), 
 		COMMENT ("Comment on cells", "If the output file should have cell comments", true), 
 		DELETE ("Delete non-required cells", "If cells marked as not required in the format file should have their contents cleared", true),
-		COLOR_BLIND ("Color blind mode", "If the output file should replace red coloring with blue coloring. Should make them easier to differentiate for red-green color blindness.", false);
+		COLOR_BLIND ("Color blind mode", "If the output file should replace red coloring with blue coloring. Should make them easier to differentiate for red-green color blindness.", false),
+		STREAMING ("Stream large input files", "If the input file should be read and the output file written one row at a time instead of loading them all at once. Uses far less memory on very large xlsx files. Comments already in the input file are not carried over to the output.", false),
+		PARALLEL ("Check rows in parallel", "If rows should be checked on all of the computer's processor cores at once. Faster on large files.", false),
+		ALL_SHEETS ("Check every sheet", "If every sheet of the input file should be checked instead of only the first. The sheets are checked at the same time.", false),
+		INCREMENTAL ("Only check changed rows", "If rows that have not changed since the output file was last checked should keep their old results instead of being checked again. Rows are matched by the key column.", false),
+		MEMOIZE ("Reuse results of duplicate rows", "If a row with exactly the same contents as a recently checked row should get that row's fixes and comments instead of being checked again. Faster on sheets with many repeated rows.", false),
+		METRICS ("Export check metrics", "If counts and timings of the checks of every column should be saved next to the output file, as JSON and for Prometheus. Shows which columns make checking slow.", false),
+		FINDINGS_REPORT ("Write a findings report", "If every finding should also be saved next to the output file, one line per finding with its row, column, urgency, kind and old and new values. With coloring and commenting off, checking is much faster.", false),
+		SNAPSHOT ("Snapshot checked columns", "If the contents of the columns the checks read should be copied into compact arrays before checking, so they are not read from Excel's cells over and over. Faster on large sheets with many conditions.", false);
 		
 		/** Name of the setting. Used for display. */
 		private final String name;
@@ -195,7 +328,9 @@ public class Settings implements Serializable {
 		INPUT_FILE_PATH (null),
 		FORMAT_FILE_PATH ("rsc/format.txt"),
 		OUTPUT_FILE_DIRECTORY (null),
-		OUTPUT_FILE_NAME ("output.xlsx");
+		OUTPUT_FILE_NAME ("output.xlsx"),
+		KEY_COLUMN ("LoanNumber"),
+		REPORT_FORMAT ("jsonl");
 		
 		private final String defaultValue;
 		
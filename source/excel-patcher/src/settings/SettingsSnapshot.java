@@ -0,0 +1,79 @@
+package settings;
+
+import settings.Settings.BooleanSetting;
+import settings.Settings.StringSetting;
+
+/**
+ * An unchangeable copy of every setting at one moment. A check takes one
+ * snapshot when it starts and reads its settings from that, so it reads them
+ * without locking and sees the same settings from its first row to its last,
+ * even if they are changed in the menu while it runs.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+public final class SettingsSnapshot {
+	/** Values of the boolean settings, by ordinal */
+	private final boolean[] booleanSettings;
+	/** Values of the string settings, by ordinal */
+	private final String[] stringSettings;
+
+	/**
+	 * Creates a snapshot holding copies of the given setting values
+	 *
+	 * @param booleanSettings values of the boolean settings, by ordinal
+	 * @param stringSettings values of the string settings, by ordinal
+	 */
+	SettingsSnapshot(boolean[] booleanSettings, String[] stringSettings){
+		this.booleanSettings = booleanSettings.clone();
+		this.stringSettings = stringSettings.clone();
+	}
+
+	/**
+	 * Returns the value the setting had when the snapshot was taken
+	 *
+	 * @param setting to fetch
+	 * @return the value of the setting
+	 */
+	public boolean get(BooleanSetting setting){
+		return booleanSettings[setting.ordinal()];
+	}
+
+	/**
+	 * Returns the value the setting had when the snapshot was taken
+	 *
+	 * @param setting to fetch
+	 * @return the value of the setting
+	 */
+	public String get(StringSetting setting){
+		return stringSettings[setting.ordinal()];
+	}
+
+	/**
+	 * Returns a copy of this snapshot with the setting changed, such as for a
+	 * command line option that should not change the saved settings
+	 *
+	 * @param setting to change
+	 * @param value the setting should have in the copy
+	 * @return the changed copy
+	 */
+	public SettingsSnapshot with(BooleanSetting setting, boolean value){
+		SettingsSnapshot copy = new SettingsSnapshot(booleanSettings, stringSettings);
+		copy.booleanSettings[setting.ordinal()] = value;
+		return copy;
+	}
+
+	/**
+	 * Returns a copy of this snapshot with the setting changed, such as for a
+	 * command line option that should not change the saved settings
+	 *
+	 * @param setting to change
+	 * @param value the setting should have in the copy
+	 * @return the changed copy
+	 */
+	public SettingsSnapshot with(StringSetting setting, String value){
+		SettingsSnapshot copy = new SettingsSnapshot(booleanSettings, stringSettings);
+		copy.stringSettings[setting.ordinal()] = value;
+		return copy;
+	}
+}
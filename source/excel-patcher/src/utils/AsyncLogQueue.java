@@ -0,0 +1,164 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue of log messages that are printed by a single background
+ * thread, so that logging from the checking threads never waits on word
+ * wrapping or a slow print stream such as the GUI's console. Any number of
+ * threads may add messages without locking. Each claims a slot of a ring
+ * buffer by moving the tail forward, then publishes its message into the slot.
+ * The drain thread prints slots in order as they are published.
+ * <p>
+ * When the ring is full, threads adding messages wait for the drain thread
+ * to make room rather than dropping messages, so memory stays bounded and no
+ * error is ever lost.
+ *
+ * @author Ashton Dyer (WabashCannon)
+ *
+ */
+class AsyncLogQueue {
+	/** Longest time the drain thread sleeps before checking for messages again */
+	private static final long DRAIN_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	/** Longest time a full queue makes a logging thread sleep before retrying */
+	private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	/** Slots of the ring buffer, null while a slot is free or not yet published */
+	private final AtomicReferenceArray<Entry> slots;
+	/** Capacity of the ring buffer minus one, used to find slot indexes. The
+	 * capacity is always a power of two. */
+	private final int mask;
+	/** Sequence number of the next slot to claim */
+	private final AtomicLong tail = new AtomicLong();
+	/** Sequence number of the next slot to print, only moved by the drain thread */
+	private final AtomicLong head = new AtomicLong();
+	/** The thread printing the messages */
+	private final Thread drainThread;
+	/** If the drain thread is sleeping and should be woken by new messages */
+	private volatile boolean draining = true;
+
+	/**
+	 * Creates a new queue holding at least the given number of messages and
+	 * starts its drain thread
+	 *
+	 * @param capacity minimum number of messages the queue can hold
+	 */
+	AsyncLogQueue(int capacity){
+		int size = Integer.highestOneBit(Math.max(2, capacity)-1) << 1;
+		slots = new AtomicReferenceArray<Entry>(size);
+		mask = size - 1;
+
+		drainThread = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "Logger");
+		drainThread.setDaemon(true);
+		drainThread.start();
+	}
+
+	/**
+	 * Adds a message to be printed by the drain thread, waiting for room if the
+	 * queue is full
+	 *
+	 * @param printer that prints the message
+	 * @param message to print
+	 */
+	void add(Printer printer, String message){
+		//Claim a slot once one is free
+		long sequence;
+		while ( true ){
+			sequence = tail.get();
+			if ( sequence - head.get() > mask ){
+				LockSupport.unpark(drainThread);
+				LockSupport.parkNanos(FULL_PARK_NANOS);
+			} else if ( tail.compareAndSet(sequence, sequence+1) ){
+				break;
+			}
+		}
+
+		//Publish the message into it
+		slots.set((int) sequence & mask, new Entry(printer, message));
+		if ( !draining ){
+			LockSupport.unpark(drainThread);
+		}
+	}
+
+	/**
+	 * Waits until every message added before this call has been printed, or
+	 * until the timeout passes. Returns if all of them were printed.
+	 *
+	 * @param timeoutMillis longest time to wait
+	 * @return if all of the messages were printed
+	 */
+	boolean flush(long timeoutMillis){
+		long target = tail.get();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while ( head.get() < target ){
+			if ( System.nanoTime() > deadline || Thread.currentThread() == drainThread ){
+				return false;
+			}
+			LockSupport.unpark(drainThread);
+			LockSupport.parkNanos(FULL_PARK_NANOS);
+		}
+		return true;
+	}
+
+	/**
+	 * Prints messages as they are published, forever
+	 */
+	private void drain(){
+		while ( true ){
+			long sequence = head.get();
+			int index = (int) sequence & mask;
+			Entry entry = slots.get(index);
+			if ( entry == null ){
+				//Either empty, or a slot was claimed but not yet published
+				draining = false;
+				if ( slots.get(index) == null ){
+					LockSupport.parkNanos(DRAIN_PARK_NANOS);
+				}
+				draining = true;
+				continue;
+			}
+
+			slots.set(index, null);
+			try {
+				entry.printer.print(entry.message);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			head.lazySet(sequence+1);
+		}
+	}
+
+	/**
+	 * Prints a message taken off the queue
+	 */
+	interface Printer {
+		/**
+		 * Prints the message
+		 * @param message to print
+		 */
+		void print(String message);
+	}
+
+	/**
+	 * A message waiting in the queue and who prints it
+	 */
+	private static class Entry {
+		/** Prints the message */
+		private final Printer printer;
+		/** The message */
+		private final String message;
+
+		private Entry(Printer printer, String message){
+			this.printer = printer;
+			this.message = message;
+		}
+	}
+}
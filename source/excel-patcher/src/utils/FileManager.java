@@ -3,14 +3,26 @@ package utils;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
+import org.apache.poi.POIXMLDocument;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.InvalidOperationException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import settings.Settings;
 import settings.Settings.StringSetting;
@@ -23,10 +35,17 @@ import settings.Settings.StringSetting;
  *
  */
 public class FileManager {
+	/** Number of rows a streaming workbook keeps in memory before flushing
+	 * older rows to disk */
+	public static final int STREAMING_ROW_WINDOW = 100;
 	
 	/**
 	 * Attempts to load a Workbook from the file specified by filePath. In the case
 	 * that it fails to load the file, it returns null and logs an error message
+	 * <p>
+	 * The workbook reads from the file as it needs to rather than buffering the
+	 * whole file in memory first, so the file stays open until the workbook is
+	 * saved or closed with closeExcelFile. The file itself is never changed.
 	 * 
 	 * @param filePath
 	 * @return the Workbook loaded if successful, null otherwise
@@ -36,9 +55,17 @@ public class FileManager {
 			return null;
 		}
 		try {
-			Workbook wb = WorkbookFactory.create(new FileInputStream(filePath));
-			return wb;
-		} catch (InvalidFormatException e) {
+			File file = new File(filePath);
+			if ( !file.isFile() ){
+				throw new FileNotFoundException(filePath);
+			}
+			if ( isOfficeXmlFile(file) ){
+				return openOfficeXmlFile(file);
+			} else {
+				//Older .xls files
+				return WorkbookFactory.create(file);
+			}
+		} catch (InvalidFormatException | InvalidOperationException e) {
 			Logger.log("Error", "Excel file at "+filePath+" was of an invalid format, quitting");
 			Logger.logVerbose("Error", e.getMessage());
 		} catch (FileNotFoundException e) {
@@ -51,9 +78,91 @@ public class FileManager {
 		return null;
 	}
 	
+	/**
+	 * Returns if the file is an Office Open XML file such as an xlsx file, as
+	 * opposed to an older .xls file
+	 * 
+	 * @param file to look at
+	 * @return if the file is an Office Open XML file
+	 * @throws IOException if the file could not be read
+	 */
+	private static boolean isOfficeXmlFile(File file) throws IOException {
+		try ( PushbackInputStream in = new PushbackInputStream(new FileInputStream(file), 8) ){
+			return POIXMLDocument.hasOOXMLHeader(in);
+		}
+	}
+	
+	/**
+	 * Opens an Office Open XML file as a workbook backed by the file. Its zip
+	 * entries are read from the file as they are needed, rather than the whole
+	 * package being buffered from a stream first.
+	 * <p>
+	 * The package is opened for reading and writing only because POI will not
+	 * save a workbook from a read only package, even to another file. It is
+	 * always reverted rather than closed, so the file is never written to.
+	 * 
+	 * @param file to open
+	 * @return the workbook of the file
+	 * @throws InvalidFormatException if the file is not a valid package
+	 * @throws IOException if the file could not be read
+	 */
+	private static Workbook openOfficeXmlFile(File file) throws InvalidFormatException, IOException {
+		OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ_WRITE);
+		try {
+			return new XSSFWorkbook(pkg);
+		} catch (IOException | RuntimeException e) {
+			pkg.revert();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Releases the file a loaded workbook reads from without changing it.
+	 * Streaming workbooks have their temporary files deleted. The workbook
+	 * cannot be used afterwards.
+	 * 
+	 * @param workbook to close, may be null
+	 */
+	public static void closeExcelFile(Workbook workbook){
+		if ( workbook instanceof SXSSFWorkbook ){
+			((SXSSFWorkbook) workbook).dispose();
+		} else if ( workbook instanceof XSSFWorkbook ){
+			//Closing would save the changes into the package's file
+			OPCPackage pkg = ((XSSFWorkbook) workbook).getPackage();
+			if ( pkg != null ){
+				pkg.revert();
+			}
+		} else if ( workbook != null ){
+			try {
+				workbook.close();
+			} catch (IOException e) {
+				Logger.logVerbose("Error", "Could not close excel file: "+e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Creates an empty workbook for writing rows in streaming mode. Only the last
+	 * STREAMING_ROW_WINDOW rows are kept in memory, older rows (with their comments
+	 * and fills) are flushed to compressed temporary files until the workbook is saved.
+	 * 
+	 * @return a new streaming workbook
+	 */
+	public static Workbook createStreamingWorkbook(){
+		SXSSFWorkbook workbook = new SXSSFWorkbook(STREAMING_ROW_WINDOW);
+		workbook.setCompressTempFiles(true);
+		return workbook;
+	}
+	
 	/**
 	 * Attempts to save the given workbook at the location of filePath. If it fails to save
-	 * it logs the error.
+	 * it logs the error. The workbook is closed with closeExcelFile after saving, so it
+	 * cannot be used again.
+	 * <p>
+	 * The workbook is written to a temporary file next to filePath, then moved
+	 * over it once the file it was loaded from is released. A workbook can so
+	 * be saved over the file it was loaded from, and a failed save never leaves
+	 * a half written file behind.
 	 * 
 	 * @param filePath to save the workbook to
 	 * @param workbook that is to be saved
@@ -64,22 +173,68 @@ public class FileManager {
 			return false;
 		}
 		Logger.log("Saving file at "+filePath);
-	    FileOutputStream fileOut;
+		Path path = Paths.get(filePath).toAbsolutePath();
+		Path temporary = null;
+		boolean written = false;
 		try {
-			fileOut = new FileOutputStream(filePath);
-			workbook.write(fileOut);
-			fileOut.close();
-			return true;
-		} catch (FileNotFoundException e) {
-			Logger.log("Error", "File not found when saving to "+filePath
+			temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+			try ( OutputStream fileOut = Files.newOutputStream(temporary) ){
+				workbook.write(fileOut);
+			}
+			written = true;
+		} catch (IOException e) {
+			Logger.log("Error", "IO exception when saving to "+filePath
 					+". Error message: "+e.getMessage());
+		} finally {
+			closeExcelFile(workbook);
+		}
+		
+		try {
+			if ( written ){
+				moveIntoPlace(temporary, path);
+				return true;
+			}
 		} catch (IOException e) {
 			Logger.log("Error", "IO exception when saving to "+filePath
 					+". Error message: "+e.getMessage());
 		}
+		deleteQuietly(temporary);
 		return false;
 	}
 	
+	/**
+	 * Moves the file to the target, replacing it, atomically if the file
+	 * system allows it. Used to put files written to a temporary file next to
+	 * their target in place, such as saved workbooks and findings reports.
+	 * 
+	 * @param file to move
+	 * @param target to move it to
+	 * @throws IOException if the file could not be moved
+	 */
+	public static void moveIntoPlace(Path file, Path target) throws IOException {
+		try {
+			Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Deletes the file if it exists, logging rather than throwing if it can't be
+	 * 
+	 * @param file to delete, may be null
+	 */
+	private static void deleteQuietly(Path file){
+		if ( file == null ){
+			return;
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			Logger.logVerbose("Error", "Could not delete temporary file "+file+": "+e.getMessage());
+		}
+	}
+	
 	/**
 	 * Opens the format file in the OS's default text editor. Implemented using
 	 * DesktopApi.open(File file). If it fails to open the file, it logs the error.
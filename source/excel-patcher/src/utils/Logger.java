@@ -1,9 +1,14 @@
 package utils;
 import java.io.PrintStream;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class is a static class used for global logging.
+ * <p>
+ * Messages are printed on the logging thread unless asynchronous logging is
+ * enabled, in which case they are handed to a background thread that does the
+ * wrapping and printing. Messages that are costly to build can be given as a
+ * MessageSupplier, which is only called if the logger will print it.
  * 
  * @author Ashton Dyer (WabashCannon)
  *
@@ -12,9 +17,27 @@ public class Logger {
 	/** Potential verbosity settings */
 	public enum LogLevel{ NONE, NORMAL, VERBOSE }
 	/** Map containing the loggers. Keys are string identifiers */
-	private static HashMap<String, LoggerSetting> loggerSettings = new HashMap<String, LoggerSetting>();
+	private static ConcurrentHashMap<String, LoggerSetting> loggerSettings = 
+			new ConcurrentHashMap<String, LoggerSetting>();
 	/** Default logger implemented for more convenient logging */
 	private static String defaultLoggerSettingName = "Default";
+	/** Number of messages the asynchronous queue holds before logging waits */
+	private static final int ASYNC_QUEUE_CAPACITY = 8192;
+	/** Longest time to wait for queued messages to be printed when flushing */
+	private static final long FLUSH_TIMEOUT_MILLIS = 5000;
+	/** Queue of messages waiting to be printed, null when logging synchronously */
+	private static volatile AsyncLogQueue asyncQueue = null;
+	
+	/**
+	 * Builds a log message only when it is going to be printed
+	 */
+	public interface MessageSupplier {
+		/**
+		 * Returns the message to log
+		 * @return the message to log
+		 */
+		String get();
+	}
 	
 	//Suppress default constructor
 	private Logger(){
@@ -46,6 +69,21 @@ public class Logger {
 		log(setting, message);
 	}
 	
+	/**
+	 * Logs the supplied message to the specified logger settings. The supplier
+	 * is not called if the logger prints nothing.
+	 * 
+	 * @param loggerName
+	 * @param message supplier of the message to log
+	 */
+	public static void log(String loggerName, MessageSupplier message){
+		LoggerSetting setting = getSetting(loggerName);
+		if ( setting.verbosity == LogLevel.NONE ){
+			return;
+		}
+		log(setting, message.get());
+	}
+	
 	/**
 	 * Logs the message to the default logger settings if they have a verbosity level
 	 * of LogLevel.VERBOSE
@@ -66,6 +104,71 @@ public class Logger {
 			log(setting, "[VERBOSE] "+message);
 		}
 	}
+	
+	/**
+	 * Logs the supplied message to the default logger settings if they have a
+	 * verbosity level of LogLevel.VERBOSE. The supplier is not called otherwise.
+	 * @param message supplier of the message to log
+	 */
+	public static void logVerbose(MessageSupplier message){
+		logVerbose(defaultLoggerSettingName, message);
+	}
+	
+	/**
+	 * Logs the supplied message to the specified logger settings if they have a
+	 * verbosity level of LogLevel.VERBOSE. The supplier is not called otherwise.
+	 * @param loggerName
+	 * @param message supplier of the message to log
+	 */
+	public static void logVerbose(String loggerName, MessageSupplier message){
+		LoggerSetting setting = getSetting(loggerName);
+		if ( setting.verbosity == LogLevel.VERBOSE ){
+			log(setting, "[VERBOSE] "+message.get());
+		}
+	}
+	
+	/**
+	 * Returns if messages logged to the specified logger with logVerbose are printed
+	 * @param loggerName
+	 * @return if the logger prints verbose messages
+	 */
+	public static boolean isVerbose(String loggerName){
+		return getSetting(loggerName).verbosity == LogLevel.VERBOSE;
+	}
+	
+	/**
+	 * Sets whether messages are printed by a background thread instead of the
+	 * thread logging them. Messages already queued are printed before returning
+	 * when turning it off.
+	 * 
+	 * @param asynchronous if messages should be printed in the background
+	 */
+	synchronized public static void setAsynchronous(boolean asynchronous){
+		if ( asynchronous && asyncQueue == null ){
+			asyncQueue = new AsyncLogQueue(ASYNC_QUEUE_CAPACITY);
+			//Print whatever is left when the program exits
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+				@Override
+				public void run() {
+					flush();
+				}
+			}));
+		} else if ( !asynchronous && asyncQueue != null ){
+			flush();
+			asyncQueue = null;
+		}
+	}
+	
+	/**
+	 * Waits for the messages logged so far to be printed when logging
+	 * asynchronously. Does nothing otherwise.
+	 */
+	public static void flush(){
+		AsyncLogQueue queue = asyncQueue;
+		if ( queue != null ){
+			queue.flush(FLUSH_TIMEOUT_MILLIS);
+		}
+	}
 
 	/**
 	 * Sets the default logger to the specified logger if it exists. If it does not
@@ -164,36 +267,49 @@ public class Logger {
 	//#################################################################
 	//### Private Methods
 	//#################################################################
-	/**
-	 * Creates a new logger setting
-	 * @param string
-	 */
-	private static void createSetting(String loggerName) {
-		LoggerSetting setting = new LoggerSetting(loggerName);
-		loggerSettings.put(loggerName, setting);
-	}
-	
 	/**
 	 * Returns the settings for the given loggerName. Creates default ones
-	 * if they do not already exist.
+	 * if they do not already exist. Does not lock once the logger exists, since
+	 * it is called for every message.
 	 * 
 	 * @param loggerName
 	 */
 	private static LoggerSetting getSetting(String loggerName){
-		if ( !loggerSettings.containsKey(loggerName) ){
-			createSetting(loggerName);
+		LoggerSetting setting = loggerSettings.get(loggerName);
+		if ( setting == null ){
+			LoggerSetting created = new LoggerSetting(loggerName);
+			setting = loggerSettings.putIfAbsent(loggerName, created);
+			if ( setting == null ){
+				setting = created;
+			}
 		}
-		
-		return loggerSettings.get(loggerName);
+		return setting;
 	}
 
 	/**
-	 * Internal method for actually logging the messages.
+	 * Internal method for actually logging the messages. Messages are queued
+	 * for the background thread when logging asynchronously, and printed right
+	 * away otherwise.
 	 * 
 	 * @param loggerSetting to use when logging
 	 * @param message to log
 	 */
 	private static void log(LoggerSetting loggerSetting, String message){
+		AsyncLogQueue queue = asyncQueue;
+		if ( queue != null ){
+			queue.add(loggerSetting, message);
+		} else {
+			loggerSetting.print(message);
+		}
+	}
+	
+	/**
+	 * Prints the message to the logger's print stream, wrapping long lines.
+	 * 
+	 * @param loggerSetting to use when logging
+	 * @param message to log
+	 */
+	private static void printWrapped(LoggerSetting loggerSetting, String message){
 		//Split the message into lines
 		String[] lines = message.split("\\r?\\n");
 		
@@ -241,22 +357,33 @@ public class Logger {
 	 * 
 	 * @author Ashton Dyer
 	 */
-	private static class LoggerSetting{
+	private static class LoggerSetting implements AsyncLogQueue.Printer {
 		private static final int DEFAULT_MAX_LINE_LENGTH = 1000;
 		
 		/** The name of the logger */
 		private String name;
 		/** PrintStream to print messages to */
-		public PrintStream printStream = System.out;
+		public volatile PrintStream printStream = System.out;
 		/** This logger's max characters per line */
-		public int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+		public volatile int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
 		/** If this logger should prepend messages with it's name */
-		public boolean enablePrefix = false;
+		public volatile boolean enablePrefix = false;
 		/** If messages logged using logVerbose should be printed */
-		public LogLevel verbosity = LogLevel.NORMAL;
+		public volatile LogLevel verbosity = LogLevel.NORMAL;
 		
 		public LoggerSetting(String name){
 			this.name = name;
 		}
+		
+		/**
+		 * Prints the message with this logger's settings. Messages printed from
+		 * several threads are printed one after the other.
+		 * 
+		 * @param message to print
+		 */
+		@Override
+		public synchronized void print(String message){
+			printWrapped(this, message);
+		}
 	}
 }
@@ -45,17 +45,166 @@ public class Utils {
 	}
 	
 	/**
-	 * Determines if the provided text is numeric.
+	 * Determines if the provided text is numeric, as Double.parseDouble would
+	 * read it. The text "NaN" is not counted as a number.
 	 * 
 	 * @param text to check
 	 * @return if the text is numeric
 	 */
 	public static boolean isNumber(String text){
+		return !Double.isNaN(parseNumber(text));
+	}
+	
+	// ####################################################
+	// ### Number parsing
+	// ####################################################
+	/** Most significant digits that are read exactly into a long and a double */
+	private static final int MAX_EXACT_DIGITS = 15;
+	/** Powers of ten from 10^0 to 10^22, all exact doubles */
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for ( int i = 1 ; i < POWERS_OF_TEN.length ; i++ ){
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1]*10;
+		}
+	}
+	
+	/**
+	 * Reads the text as a number, accepting what Double.parseDouble accepts,
+	 * and returns NaN if it is not one. The text is checked and read in a
+	 * single pass without throwing, so it is cheap to call on text that is
+	 * usually not a number, such as every term of a comparison.
+	 * <p>
+	 * Numbers with up to 15 significant digits and a small enough exponent,
+	 * which covers the amounts, rates and counts of a sheet, are worked out
+	 * directly with one exact multiplication or division, giving the same
+	 * double Double.parseDouble does. Longer numbers are handed to
+	 * Double.parseDouble once they are known to be valid. Hexadecimal numbers
+	 * are always handed to it.
+	 * 
+	 * @param text to read, may be null
+	 * @return the number, or NaN if the text is not a number
+	 */
+	public static double parseNumber(String text){
+		if ( text == null ){
+			return Double.NaN;
+		}
+		//Surrounding whitespace is ignored, as String.trim does
+		int start = 0;
+		int end = text.length();
+		while ( start < end && text.charAt(start) <= ' ' ){
+			start++;
+		}
+		while ( end > start && text.charAt(end-1) <= ' ' ){
+			end--;
+		}
+		if ( start == end ){
+			return Double.NaN;
+		}
+		
+		int i = start;
+		boolean negative = false;
+		if ( text.charAt(i) == '+' || text.charAt(i) == '-' ){
+			negative = text.charAt(i) == '-';
+			i++;
+		}
+		if ( end - i == 8 && text.startsWith("Infinity", i) ){
+			return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		} else if ( end - i == 3 && text.startsWith("NaN", i) ){
+			return Double.NaN;
+		} else if ( end - i > 2 && text.charAt(i) == '0'
+				&& ( text.charAt(i+1) == 'x' || text.charAt(i+1) == 'X' ) ){
+			return parseHexNumber(text);
+		}
+		
+		//Digits before and after the decimal point
+		long significand = 0;
+		int significantDigits = 0;
+		int scale = 0;
+		boolean sawDigit = false;
+		boolean sawPoint = false;
+		for ( ; i < end ; i++ ){
+			char c = text.charAt(i);
+			if ( c >= '0' && c <= '9' ){
+				sawDigit = true;
+				if ( significand != 0 || c != '0' ){
+					significantDigits++;
+				}
+				if ( significantDigits <= MAX_EXACT_DIGITS ){
+					significand = significand*10 + (c - '0');
+					if ( sawPoint ){
+						scale++;
+					}
+				}
+			} else if ( c == '.' && !sawPoint ){
+				sawPoint = true;
+			} else {
+				break;
+			}
+		}
+		if ( !sawDigit ){
+			return Double.NaN;
+		}
+		
+		//Exponent
+		int exponent = 0;
+		if ( i < end && ( text.charAt(i) == 'e' || text.charAt(i) == 'E' ) ){
+			i++;
+			boolean negativeExponent = false;
+			if ( i < end && ( text.charAt(i) == '+' || text.charAt(i) == '-' ) ){
+				negativeExponent = text.charAt(i) == '-';
+				i++;
+			}
+			boolean sawExponentDigit = false;
+			for ( ; i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9' ; i++ ){
+				sawExponentDigit = true;
+				//Larger exponents are only checked, and read by Double.parseDouble
+				if ( exponent < 100000 ){
+					exponent = exponent*10 + (text.charAt(i) - '0');
+				}
+			}
+			if ( !sawExponentDigit ){
+				return Double.NaN;
+			}
+			if ( negativeExponent ){
+				exponent = -exponent;
+			}
+		}
+		//Type suffix of a Java literal
+		if ( i < end && "fFdD".indexOf(text.charAt(i)) >= 0 ){
+			i++;
+		}
+		if ( i != end ){
+			return Double.NaN;
+		}
+		
+		//The significand and power of ten are exact doubles, so one rounding
+		// gives the nearest double, as Double.parseDouble does
+		int powerOfTen = exponent - scale;
+		if ( significantDigits > MAX_EXACT_DIGITS || powerOfTen < -22 || powerOfTen > 22 ){
+			return Double.parseDouble(text);
+		}
+		double value = significand;
+		if ( powerOfTen < 0 ){
+			value /= POWERS_OF_TEN[-powerOfTen];
+		} else {
+			value *= POWERS_OF_TEN[powerOfTen];
+		}
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Reads a hexadecimal number with Double.parseDouble, returning NaN if it
+	 * is not valid
+	 * 
+	 * @param text to read
+	 * @return the number, or NaN if the text is not a number
+	 */
+	private static double parseHexNumber(String text){
 		try {
-			Double.parseDouble(text);
+			return Double.parseDouble(text);
 		} catch (NumberFormatException e){
-			return false;
+			return Double.NaN;
 		}
-		return true;
 	}
 }